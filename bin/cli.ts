@@ -1,4 +1,4 @@
-import type { UserMocks } from '../tools/generate-preview'
+import type { RendererDaemon, UserMocks } from '../tools/generate-preview'
 import { Buffer } from 'node:buffer'
 import { spawn } from 'node:child_process'
 import fs from 'node:fs'
@@ -8,7 +8,8 @@ import process from 'node:process'
 import { watch } from 'chokidar'
 import { program } from 'commander'
 import { createJiti } from 'jiti'
-import { generatePreview, getJavaMajorVersion } from '../tools/generate-preview'
+import { generatePreview, getJavaMajorVersion, PAGES_DELTA_FILE_NAME, removePagesDelta, startRendererDaemon, trainRendererArchive, writePagesFile } from '../tools/generate-preview'
+import { sendPagesJson } from '../tools/pages-response'
 
 const PACKAGE_ROOT = path.resolve(import.meta.dirname, '..')
 const DEFAULT_PORT = 4800
@@ -384,16 +385,12 @@ function startServer(opts: {
     const requestPath = getRequestPath(url)
 
     if (requestPath === '/api/pages.json') {
-      if (!fs.existsSync(pagesJsonPath)) {
-        res.writeHead(404, { 'Content-Type': 'application/json' })
-        res.end(JSON.stringify({ error: 'pages.json not generated yet' }))
-        return
-      }
-      res.writeHead(200, {
-        'Content-Type': 'application/json',
-        'Cache-Control': 'no-cache',
-      })
-      fs.createReadStream(pagesJsonPath).pipe(res)
+      sendPagesJson(req, res, pagesJsonPath)
+      return
+    }
+
+    if (requestPath === '/api/pages-delta.json') {
+      sendPagesJson(req, res, path.join(path.dirname(pagesJsonPath), PAGES_DELTA_FILE_NAME))
       return
     }
 
@@ -549,9 +546,11 @@ function startWatcher(opts: {
   loadUserMocks: () => Promise<UserMocks | undefined>
   requiredVariantIds?: string[]
   userThemeDir?: string
+  daemon?: RendererDaemon
 }) {
-  const { pagesDir, jarPath, outputPath, loadUserMocks, requiredVariantIds, userThemeDir } = opts
+  const { pagesDir, jarPath, outputPath, loadUserMocks, requiredVariantIds, userThemeDir, daemon } = opts
   let debounceTimer: ReturnType<typeof setTimeout> | null = null
+  const pendingChangedPaths = new Set<string>()
 
   const watcher = watch(pagesDir, {
     ignoreInitial: true,
@@ -563,6 +562,10 @@ function startWatcher(opts: {
     const previousPagesJson = fs.existsSync(outputPath)
       ? fs.readFileSync(outputPath, 'utf8')
       : null
+    const changedPaths = Array.from(pendingChangedPaths)
+    pendingChangedPaths.clear()
+    // Keep failed batches pending so the next incremental render still sees them.
+    const requeueChangedPaths = () => changedPaths.forEach(filePath => pendingChangedPaths.add(filePath))
 
     let userMocks: UserMocks | undefined
     try {
@@ -571,6 +574,7 @@ function startWatcher(opts: {
     catch (error) {
       const message = error instanceof Error ? error.message : String(error)
       console.error(`Failed to load user mocks: ${message}`)
+      requeueChangedPaths()
       return
     }
 
@@ -580,8 +584,16 @@ function startWatcher(opts: {
       outputPath,
       userMocks,
       userThemeDir,
+      daemon,
+      changedPaths,
+      dedup: true,
+      compress: true,
+      delta: true,
       quiet: true,
     })
+    if (!result.success) {
+      requeueChangedPaths()
+    }
 
     if (result.success && requiredVariantIds && requiredVariantIds.length > 0) {
       const missingVariants = requiredVariantIds.filter((id) => {
@@ -592,9 +604,11 @@ function startWatcher(opts: {
         console.error(
           `Preview regeneration rejected: required variant(s) ${missingVariants.map(v => `"${v}"`).join(', ')} missing. Keeping previous previews.`,
         )
+        // The delta written with the rejected pages must not reach a client holding the restored ones.
+        removePagesDelta(path.dirname(outputPath))
         if (previousPagesJson !== null) {
           try {
-            fs.writeFileSync(outputPath, previousPagesJson, 'utf8')
+            writePagesFile(outputPath, previousPagesJson, true)
           }
           catch (restoreError) {
             const message = restoreError instanceof Error ? restoreError.message : String(restoreError)
@@ -622,6 +636,7 @@ function startWatcher(opts: {
       && fileName !== 'kc-page-state.ts') {
       return
     }
+    pendingChangedPaths.add(path.resolve(filePath))
     if (debounceTimer) {
       clearTimeout(debounceTimer)
     }
@@ -670,6 +685,15 @@ async function startEditor(opts: { themesRoot?: string, port: string, open: bool
   const loadThemeUserMocks = () => loadUserMocks(themesRootDir)
   const userMocks = await loadThemeUserMocks()
 
+  const daemon = startRendererDaemon({
+    jarPath,
+    packageRoot: PACKAGE_ROOT,
+    outputDir,
+    userThemeDir: themesRootDir,
+    dedup: true,
+    compress: true,
+  })
+
   console.log('Generating preview pages...')
   const result = await generatePreview({
     packageRoot: PACKAGE_ROOT,
@@ -677,10 +701,15 @@ async function startEditor(opts: { themesRoot?: string, port: string, open: bool
     outputPath: pagesJsonPath,
     userMocks,
     userThemeDir: themesRootDir,
+    daemon,
+    dedup: true,
+    compress: true,
+    delta: true,
   })
 
   if (!result.success) {
     console.error('Failed to generate previews:', result.error)
+    daemon.close()
     process.exit(1)
   }
 
@@ -714,6 +743,7 @@ async function startEditor(opts: { themesRoot?: string, port: string, open: bool
     loadUserMocks: loadThemeUserMocks,
     requiredVariantIds,
     userThemeDir: themesRootDir,
+    daemon,
   })
   console.log(`  Watching for changes in: ${themesRootDir}`)
 
@@ -722,6 +752,7 @@ async function startEditor(opts: { themesRoot?: string, port: string, open: bool
   }
 
   const cleanup = () => {
+    daemon.close()
     fs.rmSync(outputDir, { recursive: true, force: true })
     process.exit(0)
   }
@@ -830,6 +861,20 @@ async function main() {
       initMockFiles(opts)
     })
 
+  program
+    .command('warmup')
+    .description('Record a startup archive for the preview renderer so later renders start faster (Java 13+)')
+    .action(() => {
+      const result = trainRendererArchive({
+        packageRoot: PACKAGE_ROOT,
+        jarPath: path.join(PACKAGE_ROOT, 'tools', 'preview-renderer', 'preview-renderer.jar'),
+      })
+      if (!result.success) {
+        console.error(`Warmup failed: ${result.error}`)
+        process.exit(1)
+      }
+    })
+
   program
     .command('start', { isDefault: true })
     .description('Start the theme editor')
@@ -0,0 +1,119 @@
+import { describe, expect, it } from 'vitest'
+import { decodeCbor, encodeCbor } from '../lib/cbor'
+
+function hex(value: string): Uint8Array {
+  return Uint8Array.from(value.match(/../g) ?? [], byte => Number.parseInt(byte, 16))
+}
+
+function text(value: string): number[] {
+  const bytes = new TextEncoder().encode(value)
+  return [0x60 + bytes.length, ...bytes]
+}
+
+describe('cbor', () => {
+  it('decodes the RFC 8949 examples', () => {
+    expect(decodeCbor(hex('17'))).toBe(23)
+    expect(decodeCbor(hex('1903e8'))).toBe(1000)
+    expect(decodeCbor(hex('1b000000e8d4a51000'))).toBe(1000000000000)
+    expect(decodeCbor(hex('3863'))).toBe(-100)
+    expect(decodeCbor(hex('f93c00'))).toBe(1)
+    expect(decodeCbor(hex('f97bff'))).toBe(65504)
+    expect(decodeCbor(hex('f90001'))).toBe(5.960464477539063e-8)
+    expect(decodeCbor(hex('fa47c35000'))).toBe(100000)
+    expect(decodeCbor(hex('fb3ff199999999999a'))).toBe(1.1)
+    expect(decodeCbor(hex('f4'))).toBe(false)
+    expect(decodeCbor(hex('f6'))).toBeNull()
+    expect(decodeCbor(hex('c11a514b67b0'))).toBe(1363896240)
+    expect(decodeCbor(hex('62225c'))).toBe('"\\')
+    expect(decodeCbor(hex('64f0908591'))).toBe('\u{10151}')
+    expect(decodeCbor(hex('8301820203820405'))).toEqual([1, [2, 3], [4, 5]])
+    expect(decodeCbor(hex('a26161016162820203'))).toEqual({ a: 1, b: [2, 3] })
+    expect(decodeCbor(hex('9f018202039f0405ffff'))).toEqual([1, [2, 3], [4, 5]])
+    expect(decodeCbor(hex('bf61610161629f0203ffff'))).toEqual({ a: 1, b: [2, 3] })
+    expect(decodeCbor(hex('7f657374726561646d696e67ff'))).toBe('streaming')
+    expect(decodeCbor(hex('5f42010243030405ff'))).toEqual(Uint8Array.of(1, 2, 3, 4, 5))
+  })
+
+  it('decodes a pages document streamed with indefinite lengths and chunked HTML', () => {
+    const bytes = Uint8Array.from([
+      0xBF,
+      ...text('keycloakTag'),
+      ...text('26.0.0'),
+      ...text('variants'),
+      0xBF,
+      ...text('v2'),
+      0xBF,
+      ...text('login.html'),
+      0xBF,
+      ...text('default'),
+      0x7F,
+      ...text('<p class="a">'),
+      ...text('é</p>'),
+      0xFF,
+      ...text('copy'),
+      0xBF,
+      ...text('$ref'),
+      0x83,
+      ...text('v2'),
+      ...text('login.html'),
+      ...text('default'),
+      0xFF,
+      0xFF,
+      0xFF,
+      0xFF,
+      0xFF,
+    ])
+
+    expect(decodeCbor(bytes)).toEqual({
+      keycloakTag: '26.0.0',
+      variants: {
+        v2: {
+          'login.html': {
+            default: '<p class="a">é</p>',
+            copy: { $ref: ['v2', 'login.html', 'default'] },
+          },
+        },
+      },
+    })
+  })
+
+  it('round-trips JSON values', () => {
+    const value = {
+      generatedAt: '2026-01-01T00:00:00Z',
+      variants: {
+        v2: {
+          'login.html': {
+            'default': `<html lang="en"><body>${'x'.repeat(70000)} “quoted” \\ \n</body></html>`,
+            'one-social-provider': '<html>😀</html>',
+          },
+        },
+      },
+      numbers: [0, 23, 24, 255, 256, 65535, 65536, 4294967295, 4294967296, -1, -25, -65537, 0.5, -1.1e300],
+      flags: [true, false, null],
+      nested: { empty: {}, list: [] },
+    }
+
+    expect(decodeCbor(encodeCbor(value))).toEqual(value)
+    expect(decodeCbor(encodeCbor(value))).toEqual(JSON.parse(JSON.stringify(value)))
+  })
+
+  it('drops undefined entries and encodes non-finite numbers as null, like JSON', () => {
+    expect(decodeCbor(encodeCbor({ a: undefined, b: Number.NaN, c: [undefined] }))).toEqual({ b: null, c: [null] })
+  })
+
+  it('keeps __proto__ as a plain key', () => {
+    const decoded = decodeCbor(Uint8Array.from([0xA1, ...text('__proto__'), 0xA1, ...text('polluted'), 0xF5])) as Record<string, unknown>
+
+    expect(Object.keys(decoded)).toEqual(['__proto__'])
+    expect(({} as Record<string, unknown>).polluted).toBeUndefined()
+  })
+
+  it('rejects malformed input', () => {
+    expect(() => decodeCbor(hex('1903'))).toThrow(RangeError)
+    expect(() => decodeCbor(hex('0101'))).toThrow(TypeError)
+    expect(() => decodeCbor(hex('ff'))).toThrow(TypeError)
+    expect(() => decodeCbor(hex('8201ff'))).toThrow(TypeError)
+    expect(() => decodeCbor(hex('7f01ff'))).toThrow(TypeError)
+    expect(() => decodeCbor(hex('62c328'))).toThrow(TypeError)
+  })
+})
@@ -1,7 +1,8 @@
 import fs from 'node:fs'
 import path from 'node:path'
 import { afterAll, beforeAll, describe, expect, it, vi } from 'vitest'
-import { ensureGeneratedPreviewPagesLoaded, getVariantPages, getVariantStateOptions, resolveStateHtml } from '../load-generated'
+import { encodeCbor } from '../lib/cbor'
+import { ensureGeneratedPreviewPagesLoaded, getVariantPages, getVariantStateOptions, reloadPreviewPages, resolveStateHtml } from '../load-generated'
 
 const pagesJsonPath = path.resolve(__dirname, '../generated/pages.json')
 
@@ -84,3 +85,83 @@ describe('resolveStateHtml', () => {
     expect((scenarioHtml || '').length).toBeGreaterThan(100)
   })
 })
+
+function jsonResponse(body: unknown) {
+  return {
+    ok: true,
+    status: 200,
+    headers: new Headers({ 'content-type': 'application/json' }),
+    json: () => Promise.resolve(body),
+  }
+}
+
+describe('reloadPreviewPages', () => {
+  it('decodes pages served as CBOR', async () => {
+    const bytes = encodeCbor({
+      variants: {
+        'cbor-theme': {
+          'login.html': {
+            'default': '<html lang="en"><body>"quoted" & \\</body></html>',
+            'with-error': { $ref: ['cbor-theme', 'login.html', 'default'] },
+          },
+        },
+      },
+    })
+    vi.stubGlobal('fetch', vi.fn().mockResolvedValue({
+      ok: true,
+      status: 200,
+      headers: new Headers({ 'content-type': 'application/cbor' }),
+      arrayBuffer: () => Promise.resolve(bytes.buffer),
+    }))
+
+    await reloadPreviewPages()
+
+    expect(getVariantPages('cbor-theme')['login.html']).toBe('<html lang="en"><body>"quoted" & \\</body></html>')
+    expect(resolveStateHtml({ variantId: 'cbor-theme', pageId: 'login.html', stateId: 'with-error' }))
+      .toBe('<html lang="en"><body>"quoted" & \\</body></html>')
+  })
+
+  it('applies a delta that starts from the loaded revision', async () => {
+    const fetchMock = vi.fn().mockImplementation((url: string) => Promise.resolve(url === '/api/pages-delta.json'
+      ? jsonResponse({
+          from: 'r1',
+          to: 'r2',
+          changed: { 'delta-theme': { 'login.html': { default: '<html>new</html>' } } },
+          removed: [['delta-theme', 'error.html', 'default']],
+        })
+      : jsonResponse({
+          revision: 'r1',
+          variants: {
+            'delta-theme': {
+              'login.html': { default: '<html>old</html>' },
+              'error.html': { default: '<html>error</html>' },
+            },
+          },
+        })))
+    vi.stubGlobal('fetch', fetchMock)
+
+    // No revision loaded yet (the CBOR pages above had none), so this is a full fetch.
+    await reloadPreviewPages()
+    expect(getVariantPages('delta-theme')['login.html']).toBe('<html>old</html>')
+
+    await reloadPreviewPages()
+    expect(getVariantPages('delta-theme')).toEqual({ 'login.html': '<html>new</html>' })
+    expect(fetchMock.mock.calls.map(([url]) => url)).toEqual(['/api/pages.json', '/api/pages-delta.json'])
+
+    // Already at the delta's target revision: nothing is fetched beyond the delta.
+    await reloadPreviewPages()
+    expect(fetchMock.mock.calls.map(([url]) => url).slice(2)).toEqual(['/api/pages-delta.json'])
+  })
+
+  it('falls back to the full pages when the delta starts elsewhere', async () => {
+    const fetchMock = vi.fn().mockImplementation((url: string) => Promise.resolve(url === '/api/pages-delta.json'
+      ? jsonResponse({ from: 'r5', to: 'r6', changed: {}, removed: [] })
+      : jsonResponse({ revision: 'r6', variants: { 'delta-theme': { 'login.html': { default: '<html>r6</html>' } } } })))
+    vi.stubGlobal('fetch', fetchMock)
+
+    await reloadPreviewPages()
+
+    expect(fetchMock.mock.calls.map(([url]) => url)).toEqual(['/api/pages-delta.json', '/api/pages.json'])
+    expect(getVariantPages('delta-theme')['login.html']).toBe('<html>r6</html>')
+  })
+})
@@ -0,0 +1,54 @@
+import { describe, expect, it } from 'vitest'
+import { applyPagesDelta } from '../lib/page-delta'
+
+describe('applyPagesDelta', () => {
+  const variants = {
+    'v2': {
+      'login.html': { 'default': '<html>a</html>', 'with-error': '<html>b</html>' },
+      'error.html': { default: '<html>c</html>' },
+    },
+    'my-theme': {
+      'login.html': { default: '<html>d</html>' },
+    },
+  }
+
+  it('replaces changed states and adds new ones', () => {
+    const updated = applyPagesDelta(variants, {
+      from: 'r1',
+      to: 'r2',
+      changed: {
+        'v2': { 'login.html': { 'default': '<html>a2</html>' }, 'info.html': { default: '<html>e</html>' } },
+        'new-theme': { 'login.html': { default: '<html>f</html>' } },
+      },
+      removed: [],
+    })
+
+    expect(updated.v2['login.html']).toEqual({ 'default': '<html>a2</html>', 'with-error': '<html>b</html>' })
+    expect(updated.v2['info.html']).toEqual({ default: '<html>e</html>' })
+    expect(updated['new-theme']['login.html'].default).toBe('<html>f</html>')
+  })
+
+  it('drops removed states and the pages and variants they empty', () => {
+    const updated = applyPagesDelta(variants, {
+      from: 'r1',
+      to: 'r2',
+      changed: {},
+      removed: [['v2', 'login.html', 'with-error'], ['v2', 'error.html', 'default'], ['my-theme', 'login.html', 'default']],
+    })
+
+    expect(updated).toEqual({ v2: { 'login.html': { default: '<html>a</html>' } } })
+  })
+
+  it('leaves the input untouched and shares what the delta does not change', () => {
+    const updated = applyPagesDelta(variants, {
+      from: 'r1',
+      to: 'r2',
+      changed: { v2: { 'login.html': { default: '<html>a2</html>' } } },
+      removed: [],
+    })
+
+    expect(variants.v2['login.html'].default).toBe('<html>a</html>')
+    expect(updated.v2['error.html']).toBe(variants.v2['error.html'])
+    expect(updated['my-theme']).toBe(variants['my-theme'])
+  })
+})
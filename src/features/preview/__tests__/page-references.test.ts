@@ -0,0 +1,39 @@
+import { describe, expect, it } from 'vitest'
+import { dedupePageStates, expandPageReferences } from '../lib/page-references'
+
+describe('page-references', () => {
+  const variants = {
+    'v2': {
+      'login.html': { 'default': '<html>a</html>', 'no-op': '<html>a</html>' },
+      'error.html': { default: '<html>b</html>' },
+    },
+    'my-theme': {
+      'login.html': { default: '<html>c</html>' },
+      'error.html': { default: '<html>b</html>' },
+    },
+  }
+
+  it('replaces repeated HTML with a reference to its first occurrence', () => {
+    const deduped = dedupePageStates(variants)
+
+    expect(deduped.v2['login.html'].default).toBe('<html>a</html>')
+    expect(deduped.v2['login.html']['no-op']).toEqual({ $ref: ['v2', 'login.html', 'default'] })
+    expect(deduped['my-theme']['error.html'].default).toEqual({ $ref: ['v2', 'error.html', 'default'] })
+    expect(deduped['my-theme']['login.html'].default).toBe('<html>c</html>')
+  })
+
+  it('expands references back to the original HTML', () => {
+    expect(expandPageReferences(dedupePageStates(variants))).toEqual(variants)
+  })
+
+  it('survives a JSON round trip', () => {
+    const roundTripped = JSON.parse(JSON.stringify(dedupePageStates(variants)))
+    expect(expandPageReferences(roundTripped)).toEqual(variants)
+  })
+
+  it('rejects references to missing states', () => {
+    expect(() => expandPageReferences({
+      v2: { 'login.html': { default: { $ref: ['v2', 'login.html', 'missing'] } } },
+    })).toThrow(TypeError)
+  })
+})
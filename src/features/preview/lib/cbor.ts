@@ -0,0 +1,277 @@
+/**
+ * Minimal CBOR (RFC 8949) codec for the pages document the renderer writes with `--format=cbor`.
+ * Decoding covers everything Jackson's CBOR generator emits: definite and indefinite-length maps, arrays and
+ * strings (long strings arrive as chunks), integers, floats, simple values and tags (read through to their
+ * content). Encoding takes plain JSON values and always writes definite lengths.
+ */
+
+const textDecoder = new TextDecoder('utf-8', { fatal: true })
+const textEncoder = new TextEncoder()
+const BREAK = Symbol('break')
+
+export function decodeCbor(bytes: Uint8Array): unknown {
+  const view = new DataView(bytes.buffer, bytes.byteOffset, bytes.byteLength)
+  let offset = 0
+
+  const take = (length: number): number => {
+    if (offset + length > bytes.length) {
+      throw new RangeError('Truncated CBOR data')
+    }
+    const start = offset
+    offset += length
+    return start
+  }
+
+  const readArgument = (info: number): number => {
+    if (info < 24) {
+      return info
+    }
+    switch (info) {
+      case 24:
+        return view.getUint8(take(1))
+      case 25:
+        return view.getUint16(take(2))
+      case 26:
+        return view.getUint32(take(4))
+      case 27: {
+        const start = take(8)
+        const high = view.getUint32(start)
+        if (high > 0x1FFFFF) {
+          throw new RangeError('CBOR integer exceeds Number.MAX_SAFE_INTEGER')
+        }
+        return high * 0x100000000 + view.getUint32(start + 4)
+      }
+      default:
+        throw new TypeError(`Invalid CBOR argument encoding: ${info}`)
+    }
+  }
+
+  const readChunks = (major: number): Uint8Array[] => {
+    const chunks: Uint8Array[] = []
+    for (;;) {
+      const initial = view.getUint8(take(1))
+      if (initial === 0xFF) {
+        return chunks
+      }
+      if (initial >> 5 !== major || (initial & 0x1F) === 31) {
+        throw new TypeError('Invalid chunk in indefinite-length CBOR string')
+      }
+      const length = readArgument(initial & 0x1F)
+      const start = take(length)
+      chunks.push(bytes.subarray(start, start + length))
+    }
+  }
+
+  const readHalfFloat = (): number => {
+    const half = view.getUint16(take(2))
+    const exponent = (half >> 10) & 0x1F
+    const mantissa = half & 0x3FF
+    const magnitude = exponent === 0
+      ? mantissa * 2 ** -24
+      : exponent === 31
+        ? (mantissa === 0 ? Infinity : Number.NaN)
+        : (1024 + mantissa) * 2 ** (exponent - 25)
+    return half & 0x8000 ? -magnitude : magnitude
+  }
+
+  const readItem = (): unknown => {
+    const initial = view.getUint8(take(1))
+    const major = initial >> 5
+    const info = initial & 0x1F
+    switch (major) {
+      case 0:
+        return readArgument(info)
+      case 1:
+        return -1 - readArgument(info)
+      case 2: {
+        if (info === 31) {
+          const chunks = readChunks(major)
+          const joined = new Uint8Array(chunks.reduce((total, chunk) => total + chunk.length, 0))
+          let position = 0
+          for (const chunk of chunks) {
+            joined.set(chunk, position)
+            position += chunk.length
+          }
+          return joined
+        }
+        const length = readArgument(info)
+        const start = take(length)
+        return bytes.slice(start, start + length)
+      }
+      case 3: {
+        if (info === 31) {
+          return readChunks(major).map(chunk => textDecoder.decode(chunk)).join('')
+        }
+        const length = readArgument(info)
+        const start = take(length)
+        return textDecoder.decode(bytes.subarray(start, start + length))
+      }
+      case 4: {
+        const items: unknown[] = []
+        const length = info === 31 ? Infinity : readArgument(info)
+        while (items.length < length) {
+          const item = readItem()
+          if (item === BREAK) {
+            if (length !== Infinity) {
+              throw new TypeError('Unexpected CBOR break in definite-length array')
+            }
+            break
+          }
+          items.push(item)
+        }
+        return items
+      }
+      case 5: {
+        const entries: Record<string, unknown> = {}
+        const length = info === 31 ? Infinity : readArgument(info)
+        for (let count = 0; count < length; count++) {
+          const key = readItem()
+          if (key === BREAK) {
+            if (length !== Infinity) {
+              throw new TypeError('Unexpected CBOR break in definite-length map')
+            }
+            break
+          }
+          const value = readItem()
+          if (value === BREAK) {
+            throw new TypeError('Unexpected CBOR break after map key')
+          }
+          // Assigning `__proto__` would replace the prototype instead of adding a key.
+          Object.defineProperty(entries, String(key), { value, enumerable: true, writable: true, configurable: true })
+        }
+        return entries
+      }
+      case 6:
+        readArgument(info)
+        return readItem()
+      default:
+        switch (info) {
+          case 20:
+            return false
+          case 21:
+            return true
+          case 22:
+            return null
+          case 23:
+            return undefined
+          case 25:
+            return readHalfFloat()
+          case 26:
+            return view.getFloat32(take(4))
+          case 27:
+            return view.getFloat64(take(8))
+          case 31:
+            return BREAK
+          default:
+            throw new TypeError(`Unsupported CBOR simple value: ${info < 24 ? info : readArgument(info)}`)
+        }
+    }
+  }
+
+  const value = readItem()
+  if (value === BREAK) {
+    throw new TypeError('Unexpected CBOR break')
+  }
+  if (offset !== bytes.length) {
+    throw new TypeError(`Unexpected data after the CBOR document at byte ${offset}`)
+  }
+  return value
+}
+
+export function encodeCbor(value: unknown): Uint8Array {
+  let buffer = new Uint8Array(1024)
+  let view = new DataView(buffer.buffer)
+  let length = 0
+
+  const reserve = (size: number): number => {
+    if (length + size > buffer.length) {
+      const grown = new Uint8Array(Math.max(buffer.length * 2, length + size))
+      grown.set(buffer.subarray(0, length))
+      buffer = grown
+      view = new DataView(buffer.buffer)
+    }
+    const start = length
+    length += size
+    return start
+  }
+
+  // Reserve before touching `view`: growing the buffer replaces it.
+  const writeByte = (byte: number) => {
+    const start = reserve(1)
+    view.setUint8(start, byte)
+  }
+
+  const writeHead = (major: number, argument: number) => {
+    const type = major << 5
+    if (argument < 24) {
+      writeByte(type | argument)
+    }
+    else if (argument < 0x100) {
+      const start = reserve(2)
+      view.setUint8(start, type | 24)
+      view.setUint8(start + 1, argument)
+    }
+    else if (argument < 0x10000) {
+      const start = reserve(3)
+      view.setUint8(start, type | 25)
+      view.setUint16(start + 1, argument)
+    }
+    else if (argument < 0x100000000) {
+      const start = reserve(5)
+      view.setUint8(start, type | 26)
+      view.setUint32(start + 1, argument)
+    }
+    else {
+      const start = reserve(9)
+      view.setUint8(start, type | 27)
+      view.setUint32(start + 1, Math.floor(argument / 0x100000000))
+      view.setUint32(start + 5, argument >>> 0)
+    }
+  }
+
+  const writeItem = (item: unknown) => {
+    if (typeof item === 'string') {
+      const encoded = textEncoder.encode(item)
+      writeHead(3, encoded.length)
+      const start = reserve(encoded.length)
+      buffer.set(encoded, start)
+    }
+    else if (typeof item === 'number') {
+      if (Number.isSafeInteger(item)) {
+        writeHead(item < 0 ? 1 : 0, item < 0 ? -1 - item : item)
+      }
+      else if (Number.isFinite(item)) {
+        const start = reserve(9)
+        view.setUint8(start, 0xFB)
+        view.setFloat64(start + 1, item)
+      }
+      else {
+        // JSON has no representation for NaN or Infinity either.
+        writeByte(0xF6)
+      }
+    }
+    else if (typeof item === 'boolean') {
+      writeByte(item ? 0xF5 : 0xF4)
+    }
+    else if (item === null || item === undefined || typeof item !== 'object') {
+      writeByte(0xF6)
+    }
+    else if (Array.isArray(item)) {
+      writeHead(4, item.length)
+      for (const element of item) {
+        writeItem(element)
+      }
+    }
+    else {
+      const entries = Object.entries(item).filter(([, entry]) => entry !== undefined && typeof entry !== 'function')
+      writeHead(5, entries.length)
+      for (const [key, entry] of entries) {
+        writeItem(key)
+        writeItem(entry)
+      }
+    }
+  }
+
+  writeItem(value)
+  return buffer.slice(0, length)
+}
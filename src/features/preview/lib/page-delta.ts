@@ -0,0 +1,51 @@
+import type { PreviewPagesDelta } from '../types'
+
+type PageVariants = Record<string, Record<string, Record<string, string>>>
+
+/**
+ * Returns `variants` with a pages delta applied: removed states are dropped (and pages or variants left empty
+ * with them), changed states take the new HTML. Variants and pages the delta does not touch keep their objects.
+ */
+export function applyPagesDelta(variants: PageVariants, delta: PreviewPagesDelta): PageVariants {
+  const next: PageVariants = { ...variants }
+  const copiedVariants = new Set<string>()
+  const copiedPages = new Set<string>()
+  const touchedPages: Array<[variantId: string, pageId: string]> = []
+
+  const statesOf = (variantId: string, pageId: string): Record<string, string> => {
+    if (!copiedVariants.has(variantId)) {
+      next[variantId] = { ...next[variantId] }
+      copiedVariants.add(variantId)
+    }
+    const pageKey = JSON.stringify([variantId, pageId])
+    if (!copiedPages.has(pageKey)) {
+      next[variantId][pageId] = { ...next[variantId][pageId] }
+      copiedPages.add(pageKey)
+      touchedPages.push([variantId, pageId])
+    }
+    return next[variantId][pageId]
+  }
+
+  for (const [variantId, pageId, stateId] of delta.removed) {
+    delete statesOf(variantId, pageId)[stateId]
+  }
+  for (const [variantId, pages] of Object.entries(delta.changed)) {
+    for (const [pageId, states] of Object.entries(pages)) {
+      Object.assign(statesOf(variantId, pageId), states)
+    }
+  }
+
+  for (const [variantId, pageId] of touchedPages) {
+    const pages = next[variantId]
+    if (!pages) {
+      continue
+    }
+    if (Object.keys(pages[pageId]).length === 0) {
+      delete pages[pageId]
+    }
+    if (Object.keys(pages).length === 0) {
+      delete next[variantId]
+    }
+  }
+  return next
+}
@@ -0,0 +1,74 @@
+/**
+ * Deduplicated pages.json stores each distinct HTML once. Later states with identical
+ * output hold a reference to the first occurrence instead of a copy.
+ */
+export interface PageStateReference {
+  $ref: [variantId: string, pageId: string, stateId: string]
+}
+
+export type PageStateValue = string | PageStateReference
+
+type RawPageVariants = Record<string, Record<string, Record<string, unknown>>>
+
+function isPageStateReference(value: unknown): value is PageStateReference {
+  return !!value && typeof value === 'object' && Array.isArray((value as PageStateReference).$ref)
+}
+
+export function expandPageReferences(variants: RawPageVariants): Record<string, Record<string, Record<string, string>>> {
+  const resolve = (value: unknown): unknown => {
+    if (!isPageStateReference(value)) {
+      return value
+    }
+    const [variantId, pageId, stateId] = value.$ref
+    const target = variants[variantId]?.[pageId]?.[stateId]
+    if (typeof target !== 'string') {
+      throw new TypeError(`Unresolvable preview reference: ${value.$ref.join(' / ')}`)
+    }
+    return target
+  }
+
+  const expanded: Record<string, Record<string, Record<string, string>>> = {}
+  for (const [variantId, pages] of Object.entries(variants)) {
+    const expandedPages: Record<string, Record<string, string>> = {}
+    for (const [pageId, states] of Object.entries(pages ?? {})) {
+      // Malformed pages are passed through for the caller's own validation to report.
+      if (!states || typeof states !== 'object' || Array.isArray(states)) {
+        expandedPages[pageId] = states as Record<string, string>
+        continue
+      }
+      const expandedStates: Record<string, string> = {}
+      for (const [stateId, value] of Object.entries(states)) {
+        expandedStates[stateId] = resolve(value) as string
+      }
+      expandedPages[pageId] = expandedStates
+    }
+    expanded[variantId] = expandedPages
+  }
+  return expanded
+}
+
+export function dedupePageStates(
+  variants: Record<string, Record<string, Record<string, string>>>,
+): Record<string, Record<string, Record<string, PageStateValue>>> {
+  const firstOccurrences = new Map<string, PageStateReference['$ref']>()
+  const deduped: Record<string, Record<string, Record<string, PageStateValue>>> = {}
+  for (const [variantId, pages] of Object.entries(variants)) {
+    const dedupedPages: Record<string, Record<string, PageStateValue>> = {}
+    for (const [pageId, states] of Object.entries(pages)) {
+      const dedupedStates: Record<string, PageStateValue> = {}
+      for (const [stateId, html] of Object.entries(states)) {
+        const firstOccurrence = firstOccurrences.get(html)
+        if (firstOccurrence) {
+          dedupedStates[stateId] = { $ref: firstOccurrence }
+        }
+        else {
+          firstOccurrences.set(html, [variantId, pageId, stateId])
+          dedupedStates[stateId] = html
+        }
+      }
+      dedupedPages[pageId] = dedupedStates
+    }
+    deduped[variantId] = dedupedPages
+  }
+  return deduped
+}
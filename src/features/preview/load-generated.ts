@@ -1,8 +1,12 @@
 import type {
   PreviewPageHtmlMap,
+  PreviewPagesDelta,
   PreviewVariantId,
 } from './types'
 import generatedPagesUrl from './generated/pages.json?url'
+import { decodeCbor } from './lib/cbor'
+import { applyPagesDelta } from './lib/page-delta'
+import { expandPageReferences } from './lib/page-references'
 
 interface PreviewStateOption {
   id: string
@@ -15,14 +19,28 @@ const EMPTY_PAGE_MAP: Record<string, string> = {}
 const EMPTY_STATE_MAP: Record<string, string> = {}
 let previewVariants: PreviewVariantMap = {}
 let variantPagesCache: Record<string, Record<string, string>> = {}
+let previewRevision: string | undefined
 let previewPagesLoadPromise: Promise<void> | null = null
 
+/** Reads a pages response sent as JSON, or as CBOR (`generatePreview({ format: 'cbor' })`). Null for anything else. */
+async function readPreviewPages(res: Response): Promise<PreviewPageHtmlMap | null> {
+  const contentType = res.headers.get('content-type') ?? ''
+  if (contentType.includes('application/json')) {
+    return await res.json() as PreviewPageHtmlMap
+  }
+  if (contentType.includes('application/cbor')) {
+    return decodeCbor(new Uint8Array(await res.arrayBuffer())) as PreviewPageHtmlMap
+  }
+  return null
+}
+
 async function fetchPreviewPages(url: string): Promise<PreviewPageHtmlMap> {
   const res = await fetch(url)
-  if (!res.ok || !res.headers.get('content-type')?.includes('application/json')) {
+  const previewPages = res.ok ? await readPreviewPages(res) : null
+  if (!previewPages) {
     throw new Error(`Failed to load pages.json: ${res.status}`)
   }
-  return await res.json() as PreviewPageHtmlMap
+  return previewPages
 }
 
 function buildVariantPagesCache(variants: PreviewVariantMap): Record<string, Record<string, string>> {
@@ -36,8 +54,35 @@ function buildVariantPagesCache(variants: PreviewVariantMap): Record<string, Rec
 }
 
 function applyPreviewPages(previewPages: PreviewPageHtmlMap) {
-  previewVariants = previewPages.variants || {}
+  // Deduplicated output stores repeated HTML as references to its first occurrence.
+  previewVariants = expandPageReferences(previewPages.variants || {})
+  variantPagesCache = buildVariantPagesCache(previewVariants)
+  previewRevision = previewPages.revision
+}
+
+/**
+ * Brings the loaded pages up to date from the dev server's latest delta. False when there is no delta, or it does
+ * not start from the loaded revision, so the caller has to fetch the full pages instead.
+ */
+async function applyLatestPagesDelta(): Promise<boolean> {
+  if (!previewRevision) {
+    return false
+  }
+  const res = await fetch('/api/pages-delta.json')
+  if (!res.ok || !res.headers.get('content-type')?.includes('application/json')) {
+    return false
+  }
+  const delta = await res.json() as PreviewPagesDelta
+  if (delta.to === previewRevision) {
+    return true
+  }
+  if (delta.from !== previewRevision) {
+    return false
+  }
+  previewVariants = applyPagesDelta(previewVariants, delta)
   variantPagesCache = buildVariantPagesCache(previewVariants)
+  previewRevision = delta.to
+  return true
 }
 
 export async function ensureGeneratedPreviewPagesLoaded(): Promise<void> {
@@ -60,11 +105,14 @@ export async function ensureGeneratedPreviewPagesLoaded(): Promise<void> {
 }
 
 export async function reloadPreviewPages(): Promise<void> {
+  if (await applyLatestPagesDelta().catch(() => false)) {
+    return
+  }
   const res = await fetch('/api/pages.json')
-  if (!res.ok || !res.headers.get('content-type')?.includes('application/json')) {
+  const previewPages = res.ok ? await readPreviewPages(res) : null
+  if (!previewPages) {
     return
   }
-  const previewPages = await res.json() as PreviewPageHtmlMap
   applyPreviewPages(previewPages)
 }
 
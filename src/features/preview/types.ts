@@ -5,9 +5,19 @@ export type PreviewPageStates = Record<string, string>
 export interface PreviewPageHtmlMap {
   generatedAt: string
   keycloakTag: string
+  /** Content hash of the pages, written when deltas are enabled. A delta applies only to the revision it starts from. */
+  revision?: string
   variants: Record<string, Record<string, PreviewPageStates>>
 }
 
+/** States changed or removed between two revisions of pages.json, served by the dev server as `/api/pages-delta.json`. */
+export interface PreviewPagesDelta {
+  from: string
+  to: string
+  changed: Record<string, Record<string, PreviewPageStates>>
+  removed: Array<[variantId: string, pageId: string, stateId: string]>
+}
+
 export interface PreviewContextValue {
   activeVariantId: PreviewVariantId
   activePageId: string
@@ -0,0 +1,148 @@
+// @vitest-environment node
+import type { Server } from 'node:http'
+import type { AddressInfo } from 'node:net'
+import { Buffer } from 'node:buffer'
+import { createHash } from 'node:crypto'
+import fs from 'node:fs'
+import { createServer, request } from 'node:http'
+import os from 'node:os'
+import path from 'node:path'
+import { gunzipSync, gzipSync } from 'node:zlib'
+import { afterAll, beforeAll, beforeEach, describe, expect, it } from 'vitest'
+import { sendPagesJson } from '../pages-response'
+
+let tempDir: string
+let pagesJsonPath: string
+let server: Server
+let port: number
+
+function get(headers: Record<string, string> = {}): Promise<{ status: number, headers: Record<string, unknown>, body: Buffer }> {
+  return new Promise((resolve, reject) => {
+    request({ port, path: '/api/pages.json', headers }, (res) => {
+      const chunks: Buffer[] = []
+      res.on('data', (chunk: Buffer) => chunks.push(chunk))
+      res.on('end', () => resolve({ status: res.statusCode ?? 0, headers: res.headers, body: Buffer.concat(chunks) }))
+    }).on('error', reject).end()
+  })
+}
+
+function etagOf(bytes: Buffer): string {
+  return `"${createHash('sha256').update(bytes).digest('hex')}"`
+}
+
+function writeFile(filePath: string, bytes: Buffer, mtime: Date) {
+  fs.writeFileSync(filePath, bytes)
+  fs.utimesSync(filePath, mtime, mtime)
+}
+
+beforeAll(async () => {
+  tempDir = fs.mkdtempSync(path.join(os.tmpdir(), 'kte-pages-response-'))
+  pagesJsonPath = path.join(tempDir, 'pages.json')
+  server = createServer((req, res) => sendPagesJson(req, res, pagesJsonPath))
+  await new Promise<void>(resolve => server.listen(0, '127.0.0.1', resolve))
+  port = (server.address() as AddressInfo).port
+})
+
+afterAll(async () => {
+  await new Promise(resolve => server.close(resolve))
+  fs.rmSync(tempDir, { recursive: true, force: true })
+})
+
+beforeEach(() => {
+  for (const name of ['pages.json', 'pages.json.gz']) {
+    fs.rmSync(path.join(tempDir, name), { force: true })
+  }
+})
+
+describe('sendPagesJson', () => {
+  const plain = Buffer.from('{"variants":{"v2":{"login.html":{"default":"<html></html>"}}}}')
+  const gzipped = gzipSync(plain)
+
+  it('returns 404 until pages.json exists', async () => {
+    const response = await get()
+
+    expect(response.status).toBe(404)
+    expect(JSON.parse(response.body.toString('utf8')).error).toBe('pages.json not generated yet')
+  })
+
+  it('sends the plain file with the hash of its bytes as a strong ETag', async () => {
+    writeFile(pagesJsonPath, plain, new Date(1_700_000_000_000))
+
+    const response = await get({ 'accept-encoding': 'gzip' })
+
+    expect(response.status).toBe(200)
+    expect(response.body.equals(plain)).toBe(true)
+    expect(response.headers.etag).toBe(etagOf(plain))
+    expect(response.headers['content-encoding']).toBeUndefined()
+    expect(response.headers['content-type']).toBe('application/json')
+    expect(response.headers.vary).toBe('Accept-Encoding')
+  })
+
+  it('sends the precompressed copy to clients accepting gzip, tagged with the gzip bytes', async () => {
+    writeFile(pagesJsonPath, plain, new Date(1_700_000_000_000))
+    writeFile(`${pagesJsonPath}.gz`, gzipped, new Date(1_700_000_000_000))
+
+    const response = await get({ 'accept-encoding': 'br, gzip;q=0.8' })
+
+    expect(response.status).toBe(200)
+    expect(response.headers['content-encoding']).toBe('gzip')
+    expect(response.headers.etag).toBe(etagOf(gzipped))
+    expect(gunzipSync(response.body).equals(plain)).toBe(true)
+  })
+
+  it('sends the plain file to clients without gzip even when a copy exists', async () => {
+    writeFile(pagesJsonPath, plain, new Date(1_700_000_000_000))
+    writeFile(`${pagesJsonPath}.gz`, gzipped, new Date(1_700_000_000_000))
+
+    const response = await get({ 'accept-encoding': 'identity' })
+
+    expect(response.headers['content-encoding']).toBeUndefined()
+    expect(response.body.equals(plain)).toBe(true)
+  })
+
+  it('ignores a gzip copy older than the file', async () => {
+    writeFile(`${pagesJsonPath}.gz`, gzipSync(Buffer.from('{"variants":{}}')), new Date(1_600_000_000_000))
+    writeFile(pagesJsonPath, plain, new Date(1_700_000_000_000))
+
+    const response = await get({ 'accept-encoding': 'gzip' })
+
+    expect(response.headers['content-encoding']).toBeUndefined()
+    expect(response.body.equals(plain)).toBe(true)
+  })
+
+  it('returns 404 when only the gzip copy is left', async () => {
+    writeFile(`${pagesJsonPath}.gz`, gzipped, new Date(1_700_000_000_000))
+
+    const response = await get({ 'accept-encoding': 'gzip' })
+
+    expect(response.status).toBe(404)
+  })
+
+  it('answers a matching If-None-Match with 304 for the encoding being sent', async () => {
+    writeFile(pagesJsonPath, plain, new Date(1_700_000_000_000))
+    writeFile(`${pagesJsonPath}.gz`, gzipped, new Date(1_700_000_000_000))
+
+    const notModified = await get({ 'accept-encoding': 'gzip', 'if-none-match': `"other", W/${etagOf(gzipped)}` })
+    expect(notModified.status).toBe(304)
+    expect(notModified.body.length).toBe(0)
+    expect(notModified.headers.etag).toBe(etagOf(gzipped))
+
+    // The plain file's tag does not match what a gzip client is sent.
+    const modified = await get({ 'accept-encoding': 'gzip', 'if-none-match': etagOf(plain) })
+    expect(modified.status).toBe(200)
+  })
+
+  it('retags the response when the file is replaced', async () => {
+    writeFile(pagesJsonPath, plain, new Date(1_700_000_000_000))
+    const first = await get()
+
+    const replaced = Buffer.from('{"variants":{"v2":{}}}')
+    writeFile(`${pagesJsonPath}.tmp`, replaced, new Date(1_700_000_001_000))
+    fs.renameSync(`${pagesJsonPath}.tmp`, pagesJsonPath)
+    const second = await get({ 'if-none-match': String(first.headers.etag) })
+
+    expect(second.status).toBe(200)
+    expect(second.headers.etag).toBe(etagOf(replaced))
+    expect(second.body.equals(replaced)).toBe(true)
+  })
+})
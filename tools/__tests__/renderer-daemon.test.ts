@@ -0,0 +1,192 @@
+// @vitest-environment node
+import type { RendererProcess } from '../generate-preview'
+import { EventEmitter } from 'node:events'
+import process from 'node:process'
+import { createInterface } from 'node:readline'
+import { PassThrough } from 'node:stream'
+import { afterEach, beforeEach, describe, expect, it, vi } from 'vitest'
+import { connectRendererDaemon } from '../generate-preview'
+
+interface FakeRenderer {
+  child: RendererProcess & EventEmitter
+  /** Requests written to the renderer's stdin, parsed, in order. */
+  requests: Array<Record<string, unknown>>
+  nextRequest: () => Promise<Record<string, unknown>>
+  respond: (line: string) => void
+}
+
+function startFakeRenderer(): FakeRenderer {
+  const stdin = new PassThrough()
+  const stdout = new PassThrough()
+  const child = Object.assign(new EventEmitter(), { stdin, stdout })
+  const requests: Array<Record<string, unknown>> = []
+  const waiting: Array<(request: Record<string, unknown>) => void> = []
+  let read = 0
+  // Lines can arrive while the daemon is still writing, before the test asks for them.
+  const deliver = () => {
+    while (waiting.length > 0 && read < requests.length) {
+      waiting.shift()?.(requests[read++])
+    }
+  }
+  createInterface({ input: stdin }).on('line', (line) => {
+    requests.push(JSON.parse(line))
+    deliver()
+  })
+  return {
+    child,
+    requests,
+    nextRequest: () => new Promise((resolve) => {
+      waiting.push(resolve)
+      deliver()
+    }),
+    respond: line => stdout.write(`${line}\n`),
+  }
+}
+
+function page(name: string, text: string): string {
+  return `<html><head></head><body data-page-id="login-${name}"><div id="kc-content-wrapper">${text}</div></body></html>`
+}
+
+beforeEach(() => {
+  vi.spyOn(process.stderr, 'write').mockImplementation(() => true)
+})
+
+afterEach(() => {
+  vi.restoreAllMocks()
+})
+
+describe('connectRendererDaemon', () => {
+  it('writes one JSON request per line and resolves it from the response with the same id', async () => {
+    const renderer = startFakeRenderer()
+    const daemon = connectRendererDaemon(renderer.child)
+
+    const rendered = daemon.render('/tmp/mocks.json', ['/themes/acme/login/login.ftl'])
+    const request = await renderer.nextRequest()
+    expect(request).toEqual({
+      id: 1,
+      command: 'render',
+      contextMocks: '/tmp/mocks.json',
+      changed: ['/themes/acme/login/login.ftl'],
+    })
+
+    renderer.respond(JSON.stringify({ id: 1, ok: true, output: '/out/pages.json', elapsedMs: 12 }))
+    await expect(rendered).resolves.toEqual({ status: 0 })
+  })
+
+  it('matches responses that arrive out of order', async () => {
+    const renderer = startFakeRenderer()
+    const daemon = connectRendererDaemon(renderer.child)
+
+    const login = daemon.renderPage({ variant: 'v2', page: 'login.html' })
+    const error = daemon.renderPage({ variant: 'v2', page: 'error.html', state: 'expired', locale: 'de' })
+    await renderer.nextRequest()
+    const errorRequest = await renderer.nextRequest()
+    expect(errorRequest).toEqual({ id: 2, command: 'page', variant: 'v2', page: 'error.html', state: 'expired', locale: 'de' })
+
+    renderer.respond(JSON.stringify({ id: 2, ok: true, html: page('error', 'expired') }))
+    renderer.respond(JSON.stringify({ id: 1, ok: true, html: page('login', 'sign in') }))
+
+    await expect(error).resolves.toContain('expired')
+    await expect(login).resolves.toContain('sign in')
+  })
+
+  it('normalizes pages like the states in the pages file', async () => {
+    const renderer = startFakeRenderer()
+    const daemon = connectRendererDaemon(renderer.child)
+
+    const login = daemon.renderPage({ variant: 'v2', page: 'login.html' })
+    await renderer.nextRequest()
+    renderer.respond(JSON.stringify({ id: 1, ok: true, html: page('login', 'sign in') }))
+    const html = await login
+
+    expect(html).toContain('id="kc-info-message" data-kc-state="info-message"')
+    expect(html).toContain('data-kc-state="imprint-link"')
+
+    const mismatched = daemon.renderPage({ variant: 'v2', page: 'login.html' })
+    await renderer.nextRequest()
+    renderer.respond(JSON.stringify({ id: 2, ok: true, html: page('register', 'sign up') }))
+    await expect(mismatched).resolves.toBeNull()
+    expect(process.stderr.write).toHaveBeenCalledWith(
+      'Invalid preview state markup for v2/login.html/default: expected data-page-id="login-login", got "login-register".\n',
+    )
+  })
+
+  it('derives the passkeys autofill state from the default state when the mocks define none', async () => {
+    const renderer = startFakeRenderer()
+    const daemon = connectRendererDaemon(renderer.child)
+    const passkeysPage = 'login-passkeys-conditional-authenticate.html'
+    const passkeysHtml = '<html><head></head><body data-page-id="login-login-passkeys-conditional-authenticate">'
+      + '<form id="kc-form-login"></form><div id="kc-form-passkey-button"></div></body></html>'
+
+    const index = daemon.index('/tmp/mocks.json')
+    await renderer.nextRequest()
+    renderer.respond(JSON.stringify({ id: 1, ok: true, locales: ['en'], variants: { v2: { [passkeysPage]: ['default'] } } }))
+    await expect(index).resolves.toEqual({ locales: ['en'], variants: { v2: { [passkeysPage]: ['default', 'autofill'] } } })
+
+    const buttonState = daemon.renderPage({ variant: 'v2', page: passkeysPage })
+    const autofillState = daemon.renderPage({ variant: 'v2', page: passkeysPage, state: 'autofill' })
+    await renderer.nextRequest()
+    // The renderer knows no autofill state, so it is asked for the default one.
+    await expect(renderer.nextRequest()).resolves.toEqual({ id: 3, command: 'page', variant: 'v2', page: passkeysPage })
+    renderer.respond(JSON.stringify({ id: 2, ok: true, html: passkeysHtml }))
+    renderer.respond(JSON.stringify({ id: 3, ok: true, html: passkeysHtml }))
+
+    await expect(buttonState).resolves.toContain('<form id="kc-form-login" style="display:none">')
+    await expect(autofillState).resolves.toContain('<div id="kc-form-passkey-button" style="display:none">')
+  })
+
+  it('ignores output lines that are not responses to a request', async () => {
+    const renderer = startFakeRenderer()
+    const daemon = connectRendererDaemon(renderer.child)
+
+    const index = daemon.index('/tmp/mocks.json')
+    await renderer.nextRequest()
+    renderer.respond(JSON.stringify({ ready: true }))
+    renderer.respond('[main] INFO rendering 48 pages')
+    renderer.respond(JSON.stringify({ id: 99, ok: true }))
+    renderer.respond(JSON.stringify({ id: 1, ok: true, locales: ['en'], variants: { v2: { 'login.html': ['default'] } } }))
+
+    await expect(index).resolves.toEqual({ locales: ['en'], variants: { v2: { 'login.html': ['default'] } } })
+  })
+
+  it('reports failed requests and the error text from the renderer', async () => {
+    const renderer = startFakeRenderer()
+    const daemon = connectRendererDaemon(renderer.child)
+
+    const rendered = daemon.render('/tmp/mocks.json')
+    const page = daemon.renderPage({ variant: 'v2', page: 'missing.html' })
+    await renderer.nextRequest()
+    await renderer.nextRequest()
+    renderer.respond(JSON.stringify({ id: 1, ok: false, error: 'login.ftl: boom' }))
+    renderer.respond(JSON.stringify({ id: 2, ok: false, error: 'Unknown page missing.html for variant v2' }))
+
+    await expect(rendered).resolves.toEqual({ status: 1 })
+    await expect(page).resolves.toBeNull()
+    expect(process.stderr.write).toHaveBeenCalledWith('login.ftl: boom\n')
+  })
+
+  it('fails pending and later requests once the renderer exits', async () => {
+    const renderer = startFakeRenderer()
+    const daemon = connectRendererDaemon(renderer.child)
+
+    const pending = daemon.renderPage({ variant: 'v2', page: 'login.html' })
+    await renderer.nextRequest()
+    renderer.child.emit('exit', 1, null)
+
+    await expect(pending).resolves.toBeNull()
+    expect(daemon.isAlive()).toBe(false)
+    await expect(daemon.render('/tmp/mocks.json')).resolves.toEqual({ status: null })
+    await expect(daemon.index('/tmp/mocks.json')).resolves.toBeNull()
+    expect(renderer.requests).toHaveLength(1)
+  })
+
+  it('asks the renderer to shut down on close', async () => {
+    const renderer = startFakeRenderer()
+    const daemon = connectRendererDaemon(renderer.child)
+
+    daemon.close()
+
+    await expect(renderer.nextRequest()).resolves.toEqual({ command: 'shutdown' })
+    expect(renderer.child.stdin.writableEnded).toBe(true)
+  })
+})
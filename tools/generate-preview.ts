@@ -1,9 +1,17 @@
-import { spawnSync } from 'node:child_process'
+import type { Readable, Writable } from 'node:stream'
+import type { PreviewPagesDelta } from '../src/features/preview/types'
+import { Buffer } from 'node:buffer'
+import { spawn, spawnSync } from 'node:child_process'
+import { createHash } from 'node:crypto'
 import fs from 'node:fs'
 import os from 'node:os'
 import path from 'node:path'
 import process from 'node:process'
+import { createInterface } from 'node:readline'
+import { gzipSync } from 'node:zlib'
 import { JSDOM } from 'jsdom'
+import { decodeCbor, encodeCbor } from '../src/features/preview/lib/cbor'
+import { dedupePageStates, expandPageReferences } from '../src/features/preview/lib/page-references'
 import kcBaseMocks from './kc-base-mocks.ts'
 
 function isPlainObject(value: unknown): value is Record<string, unknown> {
@@ -29,7 +37,7 @@ export function deepMerge<T extends Record<string, unknown>>(target: T, ...sourc
 
 const MIN_JAVA = 8
 const isWindows = process.platform === 'win32'
-const SCRIPT_TAG_PATTERN = /<script\b[^<]*(?:(?!<\/script>)<[^<]*)*<\/script>/gi
+const PASSKEYS_CONDITIONAL_PAGE_ID = 'login-passkeys-conditional-authenticate.html'
 
 export interface ContextMocks {
   pages: Record<string, Record<string, unknown>>
@@ -51,10 +59,97 @@ export interface GeneratePreviewOptions {
   userMocks?: UserMocks
   /** Path to user's Keycloak theme directory (contains login/ with custom .ftl files). */
   userThemeDir?: string
+  /** Long-lived renderer started with `startRendererDaemon`. Used instead of spawning `java -jar` while alive. */
+  daemon?: RendererDaemon
+  /** Files changed since the daemon's previous render. Only pages depending on them are re-rendered. */
+  changedPaths?: string[]
+  /**
+   * `single` writes one pages.json. `variant` / `page` write one file per variant (or per page) under
+   * `pages/` next to outputPath, plus `pages/manifest.json` with a content hash per file. Defaults to `single`.
+   * A daemon writes whatever layout it was started with, so pass the same value to `startRendererDaemon`.
+   */
+  layout?: PreviewOutputLayout
+  /**
+   * Directory for the renderer's persistent page cache, reused across runs. Pages whose templates,
+   * theme inputs and mocks are unchanged skip FreeMarker. Defaults to `node_modules/.cache/keycloak-theme-editor` in
+   * packageRoot, or the user's cache directory when packageRoot has no node_modules; `false` disables it. The renderer
+   * keeps it under 256 MB by deleting the least recently used pages after each render.
+   */
+  cacheDir?: string | false
+  /** Store byte-identical state HTML once in pages.json; later copies become `{ $ref }` entries. Single layout only. */
+  dedup?: boolean
+  /** Write per-phase timings, allocation and the slowest templates to `render-metrics.json` next to outputPath. */
+  metrics?: boolean
+  /**
+   * Write compact JSON with a gzip copy (`<file>.gz`) next to every pages file, plus `pages.json.sha256` holding
+   * the hash of pages.json, so a server can send precompressed bytes with a strong ETag.
+   */
+  compress?: boolean
+  /**
+   * Encoding of the single-file output. `cbor` writes `pages.cbor` next to outputPath instead of pages.json: the
+   * same document with the HTML stored as raw UTF-8 instead of escaped JSON strings. The editor decodes it when it
+   * is served as `application/cbor`. Single layout only.
+   */
+  format?: PreviewPagesFormat
+  /**
+   * Give pages.json a `revision` (a hash of its normalized content) and write `pages-delta.json` next to it with
+   * the states changed or removed since the previous delta run, so a client holding that revision can update
+   * without refetching everything. The per-state hashes it compares against are kept in `pages-hashes.json`.
+   * Default locale, single layout only; without it both files are removed.
+   */
+  delta?: boolean
+  /**
+   * Language tags to render in one run, e.g. `['en', 'de']`. The first is written to outputPath; the others get
+   * the same layout under `locales/<tag>/` next to it, listed in `locales.json`. Defaults to English only.
+   */
+  locales?: string[]
   /** Suppress stdout logging. */
   quiet?: boolean
 }
 
+export type PreviewOutputLayout = 'single' | 'variant' | 'page'
+
+export type PreviewPagesFormat = 'json' | 'cbor'
+
+export interface RendererDaemon {
+  isAlive: () => boolean
+  render: (contextMocksPath: string, changedPaths?: string[]) => Promise<{ status: number | null }>
+  /** List variant -> page -> state names without rendering anything. */
+  index: (contextMocksPath: string) => Promise<PreviewPageIndex | null>
+  /**
+   * Render one page state on first request; repeated requests are served from the daemon's memo. The HTML is
+   * normalized like the states in the pages file, so a state listed by `index` reads the same either way.
+   */
+  renderPage: (request: PreviewPageRequest) => Promise<string | null>
+  close: () => void
+}
+
+export interface PreviewPageIndex {
+  locales: string[]
+  variants: Record<string, Record<string, string[]>>
+}
+
+export interface PreviewPageRequest {
+  variant: string
+  /** Page id such as `login.html`. */
+  page: string
+  /** Defaults to `default`. */
+  state?: string
+  /** Defaults to the daemon's first locale. */
+  locale?: string
+  /** Files changed since earlier requests; memoized pages that read them are rendered again. */
+  changedPaths?: string[]
+}
+
+interface RendererResponse {
+  id?: unknown
+  ok?: boolean
+  error?: string
+  html?: string
+  locales?: string[]
+  variants?: Record<string, Record<string, string[]>>
+}
+
 export interface GeneratePreviewResult {
   success: boolean
   outputPath: string
@@ -62,6 +157,7 @@ export interface GeneratePreviewResult {
   pagesData?: {
     generatedAt: string
     keycloakTag: string
+    revision?: string
     variants: Record<string, Record<string, Record<string, string>>>
   }
   error?: string
@@ -135,13 +231,6 @@ export function resolveContextMocks(userMocks?: UserMocks): ContextMocks {
 // Preview generation
 // ---------------------------------------------------------------------------
 
-function stripScriptTags(html: string): string {
-  if (!html) {
-    return ''
-  }
-  return html.replace(SCRIPT_TAG_PATTERN, '')
-}
-
 function ensureQuickStartElement(params: {
   doc: Document
   container: Element
@@ -330,7 +419,16 @@ function readJson(filePath: string): any {
   }
 }
 
+let javaMajorVersion: number | null | undefined
+
 export function getJavaMajorVersion(): number | null {
+  if (javaMajorVersion === undefined) {
+    javaMajorVersion = readJavaMajorVersion()
+  }
+  return javaMajorVersion
+}
+
+function readJavaMajorVersion(): number | null {
   const result = spawnSync('java', ['-version'], {
     stdio: ['ignore', 'pipe', 'pipe'],
     encoding: 'utf8',
@@ -362,35 +460,183 @@ function resolveExistingPath(packageRoot: string, candidates: string[]): string
   return path.join(packageRoot, candidates[0])
 }
 
+/** Write the mocks the renderer reads with `--context-mocks`. The JMH benchmarks are built with this file too. */
+export function writeContextMocksFile(filePath: string, userMocks?: UserMocks) {
+  fs.mkdirSync(path.dirname(filePath), { recursive: true })
+  fs.writeFileSync(filePath, `${JSON.stringify(resolveContextMocks(userMocks), null, 2)}\n`, 'utf8')
+}
+
 function writeTempContextMocksFile(
   userMocks?: UserMocks,
 ): { tempDir: string, filePath: string } {
   const tempDir = fs.mkdtempSync(path.join(os.tmpdir(), 'preview-context-mocks-'))
   const filePath = path.join(tempDir, 'kc-context-mocks.json')
-  const mocks = resolveContextMocks(userMocks)
-  fs.writeFileSync(filePath, `${JSON.stringify(mocks, null, 2)}\n`, 'utf8')
+  writeContextMocksFile(filePath, userMocks)
   return { tempDir, filePath }
 }
 
-function runJar(params: {
+function buildJarArgs(params: {
   jarPath: string
-  contextMocksPath: string
   packageRoot: string
   outputDir: string
   userThemeDir?: string
-}) {
-  const { jarPath, contextMocksPath, packageRoot, outputDir, userThemeDir } = params
+  layout?: PreviewOutputLayout
+  cacheDir?: string | false
+  dedup?: boolean
+  metrics?: boolean
+  locales?: string[]
+  compress?: boolean
+  format?: PreviewPagesFormat
+}): string[] {
+  const { jarPath, packageRoot, outputDir, userThemeDir, layout, cacheDir, dedup, metrics, locales, compress, format } = params
   const inputRoot = resolveExistingPath(packageRoot, ['dist/keycloak-upstream', 'public/keycloak-upstream'])
   const overridesRoot = resolveExistingPath(packageRoot, ['dist/keycloak-dev-resources/themes', 'public/keycloak-dev-resources/themes'])
-  const args = [
+  return [
+    ...rendererArchiveArgs(jarPath),
     '-jar',
     jarPath,
-    `--context-mocks=${toForwardSlashPath(contextMocksPath)}`,
     `--input=${toForwardSlashPath(inputRoot)}`,
     `--overrides=${toForwardSlashPath(overridesRoot)}`,
     `--presets=${toForwardSlashPath(overridesRoot)}`,
     `--output=${toForwardSlashPath(outputDir)}`,
+    // Scripts are removed by the renderer while each page is written.
+    '--strip-scripts',
     ...(userThemeDir ? [`--user-theme=${toForwardSlashPath(userThemeDir)}`] : []),
+    ...(layout && layout !== 'single' ? [`--layout=${layout}`] : []),
+    ...renderCacheArgs(resolveRenderCacheDir(cacheDir, packageRoot)),
+    ...(dedup ? ['--dedup'] : []),
+    ...(metrics ? ['--metrics'] : []),
+    ...localeArgs(locales),
+    ...(compress ? ['--compress'] : []),
+    ...formatArgs(format),
+  ]
+}
+
+function formatArgs(format?: PreviewPagesFormat): string[] {
+  return format && format !== 'json' ? [`--format=${format}`] : []
+}
+
+function localeArgs(locales?: string[]): string[] {
+  return locales && locales.length > 0 ? [`--locales=${locales.join(',')}`] : []
+}
+
+function renderCacheArgs(cacheDir: string | null): string[] {
+  return cacheDir ? [`--cache-dir=${toForwardSlashPath(cacheDir)}`] : []
+}
+
+/**
+ * Cached entries are served as rendered HTML, so the default cache lives where only the current user (or the
+ * project) writes: `node_modules/.cache` in the package root, else the user's cache directory. Never a shared
+ * temp directory.
+ */
+function resolveRenderCacheDir(cacheDir: string | false | undefined, packageRoot: string): string | null {
+  if (cacheDir === false) {
+    return null
+  }
+  if (cacheDir) {
+    return cacheDir
+  }
+  const nodeModulesDir = path.join(packageRoot, 'node_modules')
+  if (fs.existsSync(nodeModulesDir)) {
+    return path.join(nodeModulesDir, '.cache', 'keycloak-theme-editor', 'render-cache')
+  }
+  const userCacheDir = process.env.XDG_CACHE_HOME
+    || (isWindows ? process.env.LOCALAPPDATA : undefined)
+    || path.join(os.homedir(), '.cache')
+  return path.join(userCacheDir, 'keycloak-theme-editor', 'render-cache')
+}
+
+/**
+ * Startup archive recorded by `trainRendererArchive` for the running JDK, next to the jar. JDK 25+ records an
+ * AOT cache, which holds loaded and linked classes plus method profiles, so the JIT starts warm. JDK 13-24
+ * record a dynamic AppCDS archive of the loaded classes. Older JDKs get `null`.
+ * An archive only works with the JDK build and jar it was recorded with. The JDK version is part of the file
+ * name; after a jar rebuild the JVM ignores the stale archive until it is recorded again.
+ */
+export function getRendererArchivePath(jarPath: string, javaVersion = getJavaMajorVersion()): string | null {
+  if (!javaVersion || javaVersion < 13) {
+    return null
+  }
+  const base = jarPath.replace(/\.jar$/i, '')
+  return javaVersion >= 25 ? `${base}-jdk${javaVersion}.aot` : `${base}-jdk${javaVersion}.jsa`
+}
+
+// JVM options placed before `-jar`. Logging is off so a stale or mismatched archive is skipped silently.
+function rendererArchiveArgs(jarPath: string): string[] {
+  const javaVersion = getJavaMajorVersion()
+  const archivePath = getRendererArchivePath(jarPath, javaVersion)
+  if (!archivePath || !fs.existsSync(archivePath)) {
+    return []
+  }
+  return archivePath.endsWith('.aot')
+    ? [`-XX:AOTCache=${toForwardSlashPath(archivePath)}`, '-Xlog:aot*=off', '-Xlog:cds*=off']
+    : [`-XX:SharedArchiveFile=${toForwardSlashPath(archivePath)}`, '-Xshare:auto', '-Xlog:cds*=off']
+}
+
+/**
+ * Records the startup archive for the running JDK with a training render. The render covers the bundled base and
+ * preset variants with the built-in mocks, and the render cache is off so every page goes through FreeMarker.
+ * Later `java -jar` runs and daemons launched through this module use the archive automatically.
+ */
+export function trainRendererArchive(options: { jarPath: string, packageRoot?: string, quiet?: boolean }): {
+  success: boolean
+  archivePath?: string
+  error?: string
+} {
+  const packageRoot = options.packageRoot ?? process.cwd()
+  const log = options.quiet ? () => {} : (msg: string) => process.stdout.write(msg)
+  const javaVersion = getJavaMajorVersion()
+  const archivePath = getRendererArchivePath(options.jarPath, javaVersion)
+  if (!archivePath) {
+    return { success: false, error: `Startup archives need Java 13+ (found ${javaVersion ?? 'none'}).` }
+  }
+  if (!fs.existsSync(options.jarPath)) {
+    return { success: false, error: `Renderer JAR not found at ${options.jarPath}` }
+  }
+
+  // Removed first, so the training run itself starts without an archive.
+  fs.rmSync(archivePath, { force: true })
+  const { tempDir, filePath } = writeTempContextMocksFile()
+  const outputDir = path.join(tempDir, 'output')
+  log(`Recording renderer startup archive (Java ${javaVersion})...\n`)
+  const recordArg = archivePath.endsWith('.aot')
+    ? `-XX:AOTCacheOutput=${toForwardSlashPath(archivePath)}`
+    : `-XX:ArchiveClassesAtExit=${toForwardSlashPath(archivePath)}`
+  const result = spawnSync('java', [
+    recordArg,
+    ...buildJarArgs({ jarPath: options.jarPath, packageRoot, outputDir, cacheDir: false }),
+    `--context-mocks=${toForwardSlashPath(filePath)}`,
+  ], {
+    stdio: options.quiet ? 'ignore' : 'inherit',
+    shell: isWindows,
+  })
+  fs.rmSync(tempDir, { recursive: true, force: true })
+
+  if (result.status !== 0 || !fs.existsSync(archivePath)) {
+    fs.rmSync(archivePath, { force: true })
+    return { success: false, error: `Training render exited with code ${result.status}` }
+  }
+  log(`Startup archive written to ${archivePath}\n`)
+  return { success: true, archivePath }
+}
+
+function runJar(params: {
+  jarPath: string
+  contextMocksPath: string
+  packageRoot: string
+  outputDir: string
+  userThemeDir?: string
+  layout?: PreviewOutputLayout
+  cacheDir?: string | false
+  dedup?: boolean
+  metrics?: boolean
+  locales?: string[]
+  compress?: boolean
+  format?: PreviewPagesFormat
+}) {
+  const args = [
+    ...buildJarArgs(params),
+    `--context-mocks=${toForwardSlashPath(params.contextMocksPath)}`,
   ]
 
   return spawnSync('java', args, {
@@ -399,8 +645,163 @@ function runJar(params: {
   })
 }
 
-function runMaven(pomPath: string, contextMocksPath: string) {
-  const execArgs = `--context-mocks=${toForwardSlashPath(contextMocksPath)}`
+/**
+ * Start the renderer in `--serve` mode. The JVM stays warm between renders, so
+ * watcher-triggered regenerations skip startup and class loading.
+ */
+export function startRendererDaemon(params: {
+  jarPath: string
+  packageRoot: string
+  outputDir: string
+  userThemeDir?: string
+  layout?: PreviewOutputLayout
+  cacheDir?: string | false
+  dedup?: boolean
+  metrics?: boolean
+  locales?: string[]
+  compress?: boolean
+  format?: PreviewPagesFormat
+}): RendererDaemon {
+  return connectRendererDaemon(spawn('java', [...buildJarArgs(params), '--serve'], {
+    stdio: ['pipe', 'pipe', 'inherit'],
+    shell: isWindows,
+  }))
+}
+
+/** The streams and lifecycle events of a renderer started with `--serve`. */
+export interface RendererProcess {
+  stdin: Writable
+  stdout: Readable
+  on: (event: 'exit' | 'error', listener: () => void) => unknown
+}
+
+/**
+ * Talks to a `--serve` renderer: one JSON request per stdin line, tagged with an id, and one JSON response per
+ * stdout line carrying the same id. Other output lines are ignored. Requests pending when the process exits
+ * resolve as failures.
+ */
+export function connectRendererDaemon(child: RendererProcess): RendererDaemon {
+  const pending = new Map<number, (response: RendererResponse) => void>()
+  // `variant/page` pairs whose autofill state the last index added; they are derived from the default state.
+  const derivedStates = new Set<string>()
+  let nextRequestId = 1
+  let alive = true
+
+  const failPending = () => {
+    alive = false
+    for (const resolve of pending.values()) {
+      resolve({ ok: false, error: 'Renderer daemon exited' })
+    }
+    pending.clear()
+  }
+
+  createInterface({ input: child.stdout }).on('line', (line) => {
+    let response: RendererResponse
+    try {
+      response = JSON.parse(line)
+    }
+    catch {
+      return
+    }
+    if (typeof response.id !== 'number') {
+      return
+    }
+    const resolve = pending.get(response.id)
+    pending.delete(response.id)
+    resolve?.(response)
+  })
+  child.on('exit', failPending)
+  child.on('error', failPending)
+
+  const send = (request: Record<string, unknown>): Promise<RendererResponse> => {
+    if (!alive) {
+      return Promise.resolve({ ok: false, error: 'Renderer daemon exited' })
+    }
+    const id = nextRequestId++
+    return new Promise((resolve) => {
+      pending.set(id, (response) => {
+        if (!response.ok && response.error) {
+          process.stderr.write(`${response.error}\n`)
+        }
+        resolve(response)
+      })
+      child.stdin.write(`${JSON.stringify({ id, ...request })}\n`)
+    })
+  }
+
+  return {
+    isAlive: () => alive,
+    async render(contextMocksPath: string, changedPaths?: string[]) {
+      if (!alive) {
+        return { status: null }
+      }
+      const response = await send({
+        command: 'render',
+        contextMocks: toForwardSlashPath(contextMocksPath),
+        ...(changedPaths ? { changed: changedPaths.map(toForwardSlashPath) } : {}),
+      })
+      return { status: response.ok ? 0 : 1 }
+    },
+    async index(contextMocksPath: string) {
+      const response = await send({ command: 'index', contextMocks: toForwardSlashPath(contextMocksPath) })
+      if (!response.ok || !response.variants) {
+        return null
+      }
+      derivedStates.clear()
+      const variants: Record<string, Record<string, string[]>> = {}
+      for (const [variantId, pages] of Object.entries(response.variants)) {
+        variants[variantId] = {}
+        for (const [pageId, states] of Object.entries(pages)) {
+          const derivesAutofill = pageId === PASSKEYS_CONDITIONAL_PAGE_ID && !states.includes('autofill')
+          if (derivesAutofill) {
+            derivedStates.add(`${variantId}/${pageId}`)
+          }
+          variants[variantId][pageId] = derivesAutofill ? [...states, 'autofill'] : states
+        }
+      }
+      return { locales: response.locales ?? [], variants }
+    },
+    async renderPage({ variant, page, state = 'default', locale, changedPaths }: PreviewPageRequest) {
+      const derived = state === 'autofill' && derivedStates.has(`${variant}/${page}`)
+      const response = await send({
+        command: 'page',
+        variant,
+        page,
+        ...(state !== 'default' && !derived ? { state } : {}),
+        ...(locale ? { locale } : {}),
+        ...(changedPaths ? { changed: changedPaths.map(toForwardSlashPath) } : {}),
+      })
+      if (!response.ok || typeof response.html !== 'string') {
+        return null
+      }
+      try {
+        return derived
+          ? deriveAutofillState(response.html)
+          : normalizeStateHtml({ variantId: variant, pageId: page, stateId: state, html: response.html })
+      }
+      catch (error) {
+        process.stderr.write(`${error instanceof Error ? error.message : String(error)}\n`)
+        return null
+      }
+    },
+    close() {
+      if (alive) {
+        child.stdin.end(`${JSON.stringify({ command: 'shutdown' })}\n`)
+      }
+    },
+  }
+}
+
+function runMaven(pomPath: string, contextMocksPath: string, layout?: PreviewOutputLayout, cacheDir?: string | null, metrics?: boolean, locales?: string[], format?: PreviewPagesFormat) {
+  const execArgs = [
+    `--context-mocks=${toForwardSlashPath(contextMocksPath)}`,
+    '--strip-scripts',
+    ...(layout && layout !== 'single' ? [`--layout=${layout}`] : []),
+    ...renderCacheArgs(cacheDir ?? null),
+    ...(metrics ? ['--metrics'] : []),
+    ...localeArgs(locales),
+    ...formatArgs(format),
+  ].join(' ')
 
   const mavenOpts = [
     process.env.MAVEN_OPTS || '',
@@ -460,6 +861,27 @@ function validateStateHtmlContract(params: {
   }
 }
 
+function normalizeStateHtml(params: {
+  variantId: string
+  pageId: string
+  stateId: string
+  html: string
+}): string {
+  const { variantId, pageId, stateId, html } = params
+  const normalizedHtml = injectQuickStartPlaceholders(
+    pageId === PASSKEYS_CONDITIONAL_PAGE_ID && stateId === 'default'
+      ? normalizePasskeysConditionalPreviewHtml({ html, mode: 'button' })
+      : html,
+  )
+  validateStateHtmlContract({ variantId, pageId, stateId, html: normalizedHtml })
+  return normalizedHtml
+}
+
+/** The passkeys conditional page's autofill state, when the mocks do not define one, from its raw default. */
+function deriveAutofillState(defaultHtml: string): string {
+  return injectQuickStartPlaceholders(normalizePasskeysConditionalPreviewHtml({ html: defaultHtml, mode: 'autofill' }))
+}
+
 function normalizeStatesForPage(params: {
   variantId: string
   pageId: string
@@ -480,28 +902,11 @@ function normalizeStatesForPage(params: {
     if (typeof stateHtml !== 'string') {
       throw new TypeError(`Invalid preview state payload for ${variantId}/${pageId}/${stateId}: expected string HTML.`)
     }
-    const strippedStateHtml = stripScriptTags(stateHtml)
-    const sanitizedStateHtml = injectQuickStartPlaceholders(
-      pageId === 'login-passkeys-conditional-authenticate.html' && stateId === 'default'
-        ? normalizePasskeysConditionalPreviewHtml({ html: strippedStateHtml, mode: 'button' })
-        : strippedStateHtml,
-    )
-    validateStateHtmlContract({
-      variantId,
-      pageId,
-      stateId,
-      html: sanitizedStateHtml,
-    })
-    normalizedStates[stateId] = sanitizedStateHtml
+    normalizedStates[stateId] = normalizeStateHtml({ variantId, pageId, stateId, html: stateHtml })
   }
 
-  if (pageId === 'login-passkeys-conditional-authenticate.html' && normalizedStates.default && !normalizedStates.autofill) {
-    normalizedStates.autofill = injectQuickStartPlaceholders(
-      normalizePasskeysConditionalPreviewHtml({
-        html: stripScriptTags(rawStates.default as string),
-        mode: 'autofill',
-      }),
-    )
+  if (pageId === PASSKEYS_CONDITIONAL_PAGE_ID && normalizedStates.default && !normalizedStates.autofill) {
+    normalizedStates.autofill = deriveAutofillState(rawStates.default as string)
   }
 
   return normalizedStates
@@ -509,7 +914,7 @@ function normalizeStatesForPage(params: {
 
 function normalizeVariants(raw: any): Record<string, Record<string, Record<string, string>>> {
   const variants: Record<string, Record<string, Record<string, string>>> = {}
-  for (const [variantId, pages] of Object.entries(raw.variants as Record<string, Record<string, unknown>>)) {
+  for (const [variantId, pages] of Object.entries(expandPageReferences(raw.variants) as Record<string, Record<string, unknown>>)) {
     const variantPages: Record<string, Record<string, string>> = {}
     for (const [pageId, rawPage] of Object.entries((pages ?? {}) as Record<string, unknown>)) {
       variantPages[pageId] = normalizeStatesForPage({
@@ -523,6 +928,201 @@ function normalizeVariants(raw: any): Record<string, Record<string, Record<strin
   return variants
 }
 
+/**
+ * Writes a pages file, compact with `.gz` and `.sha256` siblings when compressing. Each file is replaced through a
+ * temp file and rename, the pages file first and the hash last, so a new hash never shows up before its file.
+ * Without compression, siblings from an earlier run are removed first.
+ */
+export function writePagesFile(filePath: string, content: string | Buffer, compress?: boolean): string {
+  const bytes = typeof content === 'string' ? Buffer.from(content, 'utf8') : content
+  const hash = createHash('sha256').update(bytes).digest('hex')
+  if (!compress) {
+    fs.rmSync(`${filePath}.gz`, { force: true })
+    fs.rmSync(`${filePath}.sha256`, { force: true })
+  }
+  replaceFile(filePath, bytes)
+  if (compress) {
+    replaceFile(`${filePath}.gz`, gzipSync(bytes))
+    replaceFile(`${filePath}.sha256`, Buffer.from(hash, 'utf8'))
+  }
+  return hash
+}
+
+export const PAGES_DELTA_FILE_NAME = 'pages-delta.json'
+const PAGES_HASHES_FILE_NAME = 'pages-hashes.json'
+
+type PageStateHashes = Record<string, Record<string, Record<string, string>>>
+
+function sha256Hex(value: string): string {
+  return createHash('sha256').update(value).digest('hex')
+}
+
+function hashPageStates(variants: Record<string, Record<string, Record<string, string>>>): PageStateHashes {
+  return Object.fromEntries(Object.entries(variants).map(([variantId, pages]) => [
+    variantId,
+    Object.fromEntries(Object.entries(pages).map(([pageId, states]) => [
+      pageId,
+      Object.fromEntries(Object.entries(states).map(([stateId, html]) => [stateId, sha256Hex(html)])),
+    ])),
+  ]))
+}
+
+/**
+ * Writes the delta from the revision recorded by the previous delta run to this one, then records this run's
+ * state hashes. Without a previous record there is nothing a client could apply, so no delta is written.
+ */
+function writePagesDelta(
+  outputDir: string,
+  variants: Record<string, Record<string, Record<string, string>>>,
+  stateHashes: PageStateHashes,
+  revision: string,
+) {
+  const deltaPath = path.join(outputDir, PAGES_DELTA_FILE_NAME)
+  const hashesPath = path.join(outputDir, PAGES_HASHES_FILE_NAME)
+  const previous = readJson(hashesPath) as { revision?: string, states?: PageStateHashes } | null
+  fs.rmSync(deltaPath, { force: true })
+
+  if (previous?.revision && previous.states) {
+    const delta: PreviewPagesDelta = { from: previous.revision, to: revision, changed: {}, removed: [] }
+    for (const [variantId, pages] of Object.entries(stateHashes)) {
+      for (const [pageId, states] of Object.entries(pages)) {
+        for (const [stateId, hash] of Object.entries(states)) {
+          if (previous.states[variantId]?.[pageId]?.[stateId] !== hash) {
+            const changedPages = delta.changed[variantId] ??= {}
+            const changedStates = changedPages[pageId] ??= {}
+            changedStates[stateId] = variants[variantId][pageId][stateId]
+          }
+        }
+      }
+    }
+    for (const [variantId, pages] of Object.entries(previous.states)) {
+      for (const [pageId, states] of Object.entries(pages)) {
+        for (const stateId of Object.keys(states)) {
+          if (stateHashes[variantId]?.[pageId]?.[stateId] === undefined) {
+            delta.removed.push([variantId, pageId, stateId])
+          }
+        }
+      }
+    }
+    replaceFile(deltaPath, Buffer.from(JSON.stringify(delta), 'utf8'))
+  }
+  replaceFile(hashesPath, Buffer.from(JSON.stringify({ revision, states: stateHashes }), 'utf8'))
+}
+
+/** Removes the delta and its hash record, which would no longer describe the output. */
+export function removePagesDelta(outputDir: string) {
+  fs.rmSync(path.join(outputDir, PAGES_DELTA_FILE_NAME), { force: true })
+  fs.rmSync(path.join(outputDir, PAGES_HASHES_FILE_NAME), { force: true })
+}
+
+function replaceFile(filePath: string, bytes: Buffer) {
+  const tempPath = `${filePath}.tmp`
+  fs.writeFileSync(tempPath, bytes)
+  fs.renameSync(tempPath, filePath)
+}
+
+/** Encodes a pages document for `filePath`: CBOR for a `.cbor` file, otherwise JSON (compact when compressing). */
+function serializePagesData(value: unknown, filePath: string, compress?: boolean): string | Buffer {
+  if (path.extname(filePath) === '.cbor') {
+    const bytes = encodeCbor(value)
+    return Buffer.from(bytes.buffer, bytes.byteOffset, bytes.byteLength)
+  }
+  return compress ? JSON.stringify(value) : `${JSON.stringify(value, null, 2)}\n`
+}
+
+/** Reads a pages document written by the renderer, decoding CBOR for a `.cbor` file. Null when missing or invalid. */
+function readPagesFile(filePath: string): any {
+  if (path.extname(filePath) !== '.cbor') {
+    return readJson(filePath)
+  }
+  if (!fs.existsSync(filePath)) {
+    return null
+  }
+  try {
+    return decodeCbor(fs.readFileSync(filePath))
+  }
+  catch {
+    return null
+  }
+}
+
+/** Normalizes the outputs of the extra locales listed in `locales.json` the same way as the default one. */
+function normalizeLocaleOutputs(outputDir: string, layout?: PreviewOutputLayout, dedup?: boolean, compress?: boolean) {
+  const localesManifest = readJson(path.join(outputDir, 'locales.json'))
+  for (const [locale, file] of Object.entries((localesManifest?.locales ?? {}) as Record<string, string>)) {
+    if (locale === localesManifest.defaultLocale) {
+      continue
+    }
+    const localePath = path.join(outputDir, file)
+    if (layout && layout !== 'single') {
+      normalizeShardedOutput(path.dirname(localePath), compress)
+      continue
+    }
+    const raw = readPagesFile(localePath)
+    if (!raw?.variants) {
+      continue
+    }
+    const variants = normalizeVariants(raw)
+    const pagesData = {
+      generatedAt: raw.generatedAt,
+      keycloakTag: raw.keycloakTag,
+      variants: dedup ? dedupePageStates(variants) : variants,
+    }
+    writePagesFile(localePath, serializePagesData(pagesData, localePath, compress), compress)
+  }
+}
+
+/**
+ * Applies the same HTML normalization as the single-file path to every shard under `pages/`,
+ * rewriting each shard and its manifest hash in place.
+ */
+function normalizeShardedOutput(shardDir: string, compress?: boolean): GeneratePreviewResult['pagesData'] | null {
+  const manifest = readJson(path.join(shardDir, 'manifest.json'))
+  if (!manifest?.variants || Object.keys(manifest.variants).length === 0) {
+    return null
+  }
+
+  // The manifest hash of a shard is its ETag, so shards get no .sha256 sibling.
+  const writeShard = (file: string, value: unknown): string => {
+    const content = Buffer.from(JSON.stringify(value), 'utf8')
+    if (compress) {
+      fs.writeFileSync(path.join(shardDir, `${file}.gz`), gzipSync(content))
+    }
+    fs.writeFileSync(path.join(shardDir, file), content)
+    return createHash('sha256').update(content).digest('hex')
+  }
+
+  const variants: Record<string, Record<string, Record<string, string>>> = {}
+  for (const [variantId, entry] of Object.entries(manifest.variants as Record<string, any>)) {
+    if (typeof entry.file === 'string') {
+      const variantPages = normalizeVariants({
+        variants: { [variantId]: readJson(path.join(shardDir, entry.file)) },
+      })[variantId]
+      entry.hash = writeShard(entry.file, variantPages)
+      variants[variantId] = variantPages
+      continue
+    }
+
+    const variantPages: Record<string, Record<string, string>> = {}
+    for (const [pageId, pageEntry] of Object.entries(entry.pages as Record<string, { file: string, hash: string }>)) {
+      variantPages[pageId] = normalizeStatesForPage({
+        variantId,
+        pageId,
+        rawPage: readJson(path.join(shardDir, pageEntry.file)),
+      })
+      pageEntry.hash = writeShard(pageEntry.file, variantPages[pageId])
+    }
+    variants[variantId] = variantPages
+  }
+
+  fs.writeFileSync(path.join(shardDir, 'manifest.json'), `${JSON.stringify(manifest, null, 2)}\n`, 'utf8')
+  return {
+    generatedAt: manifest.generatedAt,
+    keycloakTag: manifest.keycloakTag,
+    variants,
+  }
+}
+
 /**
  * Generate preview pages by running the Java FreeMarker renderer.
  * Can be called programmatically from the CLI or via `npm run generate:preview`.
@@ -558,18 +1158,29 @@ export async function generatePreview(options: GeneratePreviewOptions): Promise<
   fs.mkdirSync(outputDir, { recursive: true })
 
   let result
-  if (options.jarPath) {
+  if (options.daemon?.isAlive()) {
+    result = await options.daemon.render(filePath, options.changedPaths)
+  }
+  else if (options.jarPath) {
     result = runJar({
       jarPath: options.jarPath,
       contextMocksPath: filePath,
       packageRoot,
       outputDir,
       userThemeDir: options.userThemeDir,
+      layout: options.layout,
+      cacheDir: options.cacheDir,
+      dedup: options.dedup,
+      metrics: options.metrics,
+      locales: options.locales,
+      compress: options.compress,
+      format: options.format,
     })
   }
   else {
     const pomPath = path.join(packageRoot, 'tools', 'preview-renderer', 'pom.xml')
-    result = runMaven(pomPath, filePath)
+    const cacheDir = resolveRenderCacheDir(options.cacheDir, packageRoot)
+    result = runMaven(pomPath, filePath, options.layout, cacheDir, options.metrics, options.locales, options.format)
   }
 
   fs.rmSync(tempDir, { recursive: true, force: true })
@@ -578,30 +1189,71 @@ export async function generatePreview(options: GeneratePreviewOptions): Promise<
     return { success: false, outputPath, error: `Java renderer exited with code ${result.status}` }
   }
 
-  const raw = readJson(outputPath)
+  if (options.layout && options.layout !== 'single') {
+    const manifestPath = path.join(outputDir, 'pages', 'manifest.json')
+    const shardedPagesData = normalizeShardedOutput(path.dirname(manifestPath), options.compress)
+    removePagesDelta(outputDir)
+    if (!shardedPagesData) {
+      return { success: false, outputPath: manifestPath, error: `Generated manifest is missing variants: ${manifestPath}` }
+    }
+    normalizeLocaleOutputs(outputDir, options.layout, options.dedup, options.compress)
+    log('Preview generation complete.\n')
+    return { success: true, outputPath: manifestPath, pagesData: shardedPagesData }
+  }
+
+  const pagesPath = options.format === 'cbor' ? path.join(outputDir, 'pages.cbor') : outputPath
+  const raw = readPagesFile(pagesPath)
   if (!raw?.variants || Object.keys(raw.variants).length === 0) {
-    return { success: false, outputPath, error: `Generated artifact is missing variants: ${outputPath}` }
+    return { success: false, outputPath: pagesPath, error: `Generated artifact is missing variants: ${pagesPath}` }
   }
 
   const variants = normalizeVariants(raw)
+  const stateHashes = options.delta ? hashPageStates(variants) : null
+  const revision = stateHashes ? sha256Hex(JSON.stringify([raw.keycloakTag, stateHashes])) : undefined
   const pagesData = {
     generatedAt: raw.generatedAt,
     keycloakTag: raw.keycloakTag,
+    ...(revision ? { revision } : {}),
     variants,
   }
 
-  fs.writeFileSync(outputPath, `${JSON.stringify(pagesData, null, 2)}\n`, 'utf8')
+  const writtenPagesData = options.dedup ? { ...pagesData, variants: dedupePageStates(variants) } : pagesData
+  writePagesFile(pagesPath, serializePagesData(writtenPagesData, pagesPath, options.compress), options.compress)
+  if (stateHashes && revision) {
+    writePagesDelta(outputDir, variants, stateHashes, revision)
+  }
+  else {
+    removePagesDelta(outputDir)
+  }
+  normalizeLocaleOutputs(outputDir, options.layout, options.dedup, options.compress)
 
   log('Preview generation complete.\n')
-  return { success: true, outputPath, pagesData }
+  return { success: true, outputPath: pagesPath, pagesData }
 }
 
 // Direct invocation: `tsx tools/generate-preview.ts`
 const isDirectRun = process.argv[1]?.replace(/\\/g, '/').endsWith('tools/generate-preview.ts')
   || process.argv[1]?.replace(/\\/g, '/').endsWith('tools/generate-preview')
-if (isDirectRun) {
+const contextMocksOutput = process.argv.find(arg => arg.startsWith('--write-context-mocks='))?.slice('--write-context-mocks='.length)
+if (isDirectRun && contextMocksOutput) {
+  writeContextMocksFile(path.resolve(contextMocksOutput))
+}
+else if (isDirectRun && process.argv.includes('--train-archive')) {
+  const packageRoot = process.cwd()
+  const result = trainRendererArchive({
+    packageRoot,
+    jarPath: path.join(packageRoot, 'tools', 'preview-renderer', 'preview-renderer.jar'),
+  })
+  if (!result.success) {
+    process.stderr.write(`${result.error}\n`)
+    process.exitCode = 1
+  }
+}
+else if (isDirectRun) {
   generatePreview({
     packageRoot: process.cwd(),
+    metrics: process.argv.includes('--metrics'),
+    locales: process.argv.find(arg => arg.startsWith('--locales='))?.slice('--locales='.length).split(','),
   }).then((result) => {
     if (!result.success) {
       process.exitCode = 1
@@ -0,0 +1,82 @@
+import type { Buffer } from 'node:buffer'
+import type { IncomingMessage, ServerResponse } from 'node:http'
+import { createHash } from 'node:crypto'
+import fs from 'node:fs'
+import path from 'node:path'
+
+interface TaggedFile {
+  bytes: Buffer
+  etag: string
+  mtimeMs: number
+}
+
+const taggedFileHashes = new Map<string, { identity: string, hash: string }>()
+
+/**
+ * Reads a file through a single descriptor and tags it with the SHA-256 of exactly the bytes read. Pages files are
+ * replaced by rename, so one descriptor always sees one complete version. The hash is kept per file identity
+ * (inode, size and mtime), so an unchanged file is not rehashed on every request.
+ */
+function readTaggedFile(filePath: string): TaggedFile | null {
+  let fd: number
+  try {
+    fd = fs.openSync(filePath, 'r')
+  }
+  catch {
+    return null
+  }
+  try {
+    const stat = fs.fstatSync(fd)
+    if (!stat.isFile()) {
+      return null
+    }
+    const bytes = fs.readFileSync(fd)
+    const identity = `${stat.dev}:${stat.ino}:${stat.size}:${stat.mtimeMs}`
+    let cached = taggedFileHashes.get(filePath)
+    if (cached?.identity !== identity) {
+      cached = { identity, hash: createHash('sha256').update(bytes).digest('hex') }
+      taggedFileHashes.set(filePath, cached)
+    }
+    return { bytes, etag: `"${cached.hash}"`, mtimeMs: stat.mtimeMs }
+  }
+  finally {
+    fs.closeSync(fd)
+  }
+}
+
+/**
+ * Serves a generated JSON file (pages.json, pages-delta.json), or the precompressed `.gz` written next to it when the
+ * client accepts gzip and the copy is not older than the file. The strong ETag is the hash of the bytes sent, so
+ * each encoding has its own tag and a regeneration caught halfway never pairs old content with a new tag.
+ * A matching If-None-Match gets a 304.
+ */
+export function sendPagesJson(req: IncomingMessage, res: ServerResponse, pagesJsonPath: string) {
+  const acceptsGzip = /\bgzip\b/.test(String(req.headers['accept-encoding'] ?? ''))
+  const gzip = acceptsGzip ? readTaggedFile(`${pagesJsonPath}.gz`) : null
+  const plainMtimeMs = fs.statSync(pagesJsonPath, { throwIfNoEntry: false })?.mtimeMs
+  const useGzip = gzip !== null && plainMtimeMs !== undefined && gzip.mtimeMs >= plainMtimeMs
+  const body = useGzip ? gzip : readTaggedFile(pagesJsonPath)
+  if (!body) {
+    res.writeHead(404, { 'Content-Type': 'application/json' })
+    res.end(JSON.stringify({ error: `${path.basename(pagesJsonPath)} not generated yet` }))
+    return
+  }
+
+  const headers: Record<string, string> = {
+    'Content-Type': 'application/json',
+    'Cache-Control': 'no-cache',
+    'Vary': 'Accept-Encoding',
+    'ETag': body.etag,
+  }
+  const ifNoneMatch = String(req.headers['if-none-match'] ?? '')
+  if (ifNoneMatch.split(',').some(tag => tag.trim().replace(/^W\//, '') === body.etag)) {
+    res.writeHead(304, headers)
+    res.end()
+    return
+  }
+  if (useGzip) {
+    headers['Content-Encoding'] = 'gzip'
+  }
+  res.writeHead(200, headers)
+  res.end(body.bytes)
+}
@@ -0,0 +1,108 @@
+package com.keycloaktheme.preview.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.keycloaktheme.preview.ContextBuilder;
+import com.keycloaktheme.preview.VariantLoader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+// Inputs shared by the benchmarks. Upstream Keycloak themes come from `npm run sync:keycloak`, presets and
+// overlays from the bundled public/keycloak-dev-resources/themes, both located by walking up from the working
+// directory. -Dpreview.inputRoot, -Dpreview.overrideRoot and -Dpreview.contextMocks override each of them.
+// The bundled context-mocks.json is written from tools/kc-base-mocks.ts by resolveContextMocks when the benchmarks
+// are built, so they render with the same mocks as the editor.
+final class BenchmarkFixtures {
+  static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  private BenchmarkFixtures() {
+  }
+
+  static Path inputRoot() {
+    return resolveRoot("preview.inputRoot", "public/keycloak-upstream", "dist/keycloak-upstream");
+  }
+
+  static Path overrideRoot() {
+    return resolveRoot("preview.overrideRoot", "public/keycloak-dev-resources/themes", "dist/keycloak-dev-resources/themes");
+  }
+
+  static Path contextMocks() throws IOException {
+    String configured = System.getProperty("preview.contextMocks");
+    if (configured != null && !configured.trim().isEmpty()) {
+      return Paths.get(configured.trim());
+    }
+    Path copy = Files.createTempFile("preview-benchmark-mocks", ".json");
+    copy.toFile().deleteOnExit();
+    try (InputStream resource = BenchmarkFixtures.class.getResourceAsStream("/context-mocks.json")) {
+      if (resource == null) {
+        throw new IllegalStateException("context-mocks.json is missing; build the benchmarks with Maven or pass -Dpreview.contextMocks");
+      }
+      Files.copy(resource, copy, StandardCopyOption.REPLACE_EXISTING);
+    }
+    return copy;
+  }
+
+  static ContextBuilder.ContextOverrides contextOverrides(ContextBuilder contextBuilder) throws IOException {
+    return contextBuilder.readContextOverrides(contextMocks());
+  }
+
+  // Mirrors the renderer's context lookup: pages without their own mock fall back to login.ftl.
+  static Map<String, Object> pageContext(ContextBuilder contextBuilder, ContextBuilder.ContextOverrides overrides, String pageKey) {
+    Map<String, Object> context = contextBuilder.getPageContext(overrides, pageKey);
+    return context.isEmpty() ? contextBuilder.getPageContext(overrides, "login.ftl") : context;
+  }
+
+  static Variant variant(String id) {
+    Path inputRoot = inputRoot();
+    if (id.equals("base") || id.equals("v2")) {
+      return new Variant(id, inputRoot.resolve(id), null);
+    }
+    Path presetLogin = overrideRoot().resolve(id).resolve("login");
+    if (!Files.isDirectory(presetLogin)) {
+      throw new IllegalArgumentException("Unknown benchmark variant: " + id);
+    }
+    return new Variant(id, inputRoot.resolve("base"), presetLogin);
+  }
+
+  static VariantLoader.VariantInputs loadInputs(VariantLoader loader, Variant variant) throws IOException {
+    VariantLoader.VariantInputs inputs = loader.loadVariantInputs(
+        variant.baseThemeDir, inputRoot().resolve("base"), variant.overlayDir, null
+    );
+    if (inputs == null) {
+      throw new IllegalStateException("No login templates found for variant " + variant.id + " in " + variant.baseThemeDir);
+    }
+    return inputs;
+  }
+
+  private static Path resolveRoot(String property, String... candidates) {
+    String configured = System.getProperty(property);
+    if (configured != null && !configured.trim().isEmpty()) {
+      return Paths.get(configured.trim()).toAbsolutePath().normalize();
+    }
+    for (Path dir = Paths.get("").toAbsolutePath(); dir != null; dir = dir.getParent()) {
+      for (String candidate : candidates) {
+        Path resolved = dir.resolve(candidate);
+        if (Files.isDirectory(resolved)) {
+          return resolved;
+        }
+      }
+    }
+    throw new IllegalStateException("Unable to locate " + candidates[0] + " (run `npm run sync:keycloak` or pass -D" + property + ")");
+  }
+
+  static final class Variant {
+    final String id;
+    final Path baseThemeDir;
+    final Path overlayDir;
+
+    private Variant(String id, Path baseThemeDir, Path overlayDir) {
+      this.id = id;
+      this.baseThemeDir = baseThemeDir;
+      this.overlayDir = overlayDir;
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package com.keycloaktheme.preview.benchmarks;
+
+import com.keycloaktheme.preview.ContextBuilder;
+import com.keycloaktheme.preview.ContextModel;
+import freemarker.template.Configuration;
+import freemarker.template.DefaultObjectWrapperBuilder;
+import freemarker.template.ObjectWrapper;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateModel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The per-render model over the login.ftl and invalid-state mocks: building the overlays, then the lookups
+// a template makes through them. The deepCopy* benchmarks keep the path this replaced as a baseline: every
+// render used to deep-copy the page mock and deep-merge the state mock into the copy, with the helpers that
+// were removed from ContextBuilder.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContextModelBenchmark {
+  private final ObjectWrapper objectWrapper = new DefaultObjectWrapperBuilder(Configuration.VERSION_2_3_32).build();
+  private Map<String, Object> loginContext;
+  private Map<String, Object> stateContext;
+
+  @Setup
+  public void setUp() throws Exception {
+    ContextBuilder contextBuilder = new ContextBuilder(BenchmarkFixtures.OBJECT_MAPPER);
+    ContextBuilder.ContextOverrides overrides = BenchmarkFixtures.contextOverrides(contextBuilder);
+    loginContext = contextBuilder.getPageContext(overrides, "login.ftl");
+    stateContext = contextBuilder.getPageContext(overrides, "login.ftl@invalid-state");
+  }
+
+  @Benchmark
+  public ContextModel buildDefault() {
+    return build(loginContext);
+  }
+
+  @Benchmark
+  public TemplateModel buildStateAndResolveUrl() throws Exception {
+    return ((TemplateHashModel) build(stateContext).get("url")).get("resourcesPath");
+  }
+
+  @Benchmark
+  public Map<String, Object> deepCopyDefault() {
+    return deepCopyMap(loginContext);
+  }
+
+  @Benchmark
+  public Map<String, Object> deepCopyThenMergeState() {
+    Map<String, Object> target = deepCopyMap(loginContext);
+    deepMergeMap(target, stateContext);
+    return target;
+  }
+
+  @SuppressWarnings("unchecked")
+  private ContextModel build(Map<String, Object> context) {
+    return new ContextModel(context, objectWrapper)
+        .put("pageId", "login")
+        .put("url", new ContextModel((Map<String, Object>) context.get("url"), objectWrapper)
+            .put("resourcesPath", "/keycloak-dev-resources/themes/v2/login/resources"));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void deepMergeMap(Map<String, Object> target, Map<String, Object> source) {
+    for (Map.Entry<String, Object> entry : source.entrySet()) {
+      Object sourceValue = entry.getValue();
+      Object targetValue = target.get(entry.getKey());
+      if (sourceValue instanceof Map && targetValue instanceof Map) {
+        deepMergeMap((Map<String, Object>) targetValue, (Map<String, Object>) sourceValue);
+        continue;
+      }
+      target.put(entry.getKey(), deepCopyValue(sourceValue));
+    }
+  }
+
+  private static Map<String, Object> deepCopyMap(Map<String, Object> source) {
+    Map<String, Object> copy = new LinkedHashMap<String, Object>();
+    for (Map.Entry<String, Object> entry : source.entrySet()) {
+      copy.put(entry.getKey(), deepCopyValue(entry.getValue()));
+    }
+    return copy;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Object deepCopyValue(Object value) {
+    if (value instanceof Map) {
+      return deepCopyMap((Map<String, Object>) value);
+    }
+    if (value instanceof List) {
+      List<Object> copy = new ArrayList<Object>();
+      for (Object item : (List<?>) value) {
+        copy.add(deepCopyValue(item));
+      }
+      return copy;
+    }
+    return value;
+  }
+}
@@ -0,0 +1,75 @@
+package com.keycloaktheme.preview.benchmarks;
+
+import com.keycloaktheme.preview.PreviewRendererMain;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// A full CLI run over every built-in variant plus the given number of user themes extending keycloak.v2.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EndToEndBenchmark {
+  @Param({"1", "4"})
+  public int userThemes;
+
+  @Param({"1", "4"})
+  public int threads;
+
+  private Path workDir;
+  private String[] args;
+
+  @Setup
+  public void setUp() throws IOException {
+    workDir = Files.createTempDirectory("preview-benchmark");
+    Path userThemeRoot = workDir.resolve("themes");
+    for (int i = 1; i <= userThemes; i++) {
+      Path loginDir = userThemeRoot.resolve("theme-" + i).resolve("login");
+      Files.createDirectories(loginDir);
+      Files.write(loginDir.resolve("theme.properties"), "parent=keycloak.v2\n".getBytes(StandardCharsets.UTF_8));
+    }
+    Path overrideRoot = BenchmarkFixtures.overrideRoot();
+    args = new String[] {
+        "--input=" + BenchmarkFixtures.inputRoot(),
+        "--overrides=" + overrideRoot,
+        "--presets=" + overrideRoot,
+        "--context-mocks=" + BenchmarkFixtures.contextMocks(),
+        "--user-theme=" + userThemeRoot,
+        "--output=" + workDir.resolve("output"),
+        "--threads=" + threads,
+    };
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    try (Stream<Path> paths = Files.walk(workDir)) {
+      for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  @Benchmark
+  public void render() throws Exception {
+    PreviewRendererMain.main(args);
+  }
+}
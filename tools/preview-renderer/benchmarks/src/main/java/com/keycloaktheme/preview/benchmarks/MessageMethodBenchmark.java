@@ -0,0 +1,59 @@
+package com.keycloaktheme.preview.benchmarks;
+
+import com.keycloaktheme.preview.ContextObjects;
+import com.keycloaktheme.preview.VariantLoader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The shapes templates call most: a plain key, a key with a MessageFormat argument, and an advancedMsg
+// string with embedded ${key} expressions.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageMethodBenchmark {
+  private static final List<String> PLAIN_KEY = Collections.singletonList("loginAccountTitle");
+  private static final List<String> KEY_WITH_ARGUMENT = Arrays.asList("invalidPasswordMinLengthMessage", "8");
+  private static final List<String> ADVANCED_EXPRESSION = Collections.singletonList("${loginAccountTitle} - ${doLogIn}");
+
+  private ContextObjects.MessageMethod messageMethod;
+  private ContextObjects.AdvancedMessageMethod advancedMessageMethod;
+
+  @Setup
+  public void setUp() throws Exception {
+    VariantLoader.VariantInputs inputs = BenchmarkFixtures.loadInputs(
+        new VariantLoader(BenchmarkFixtures.overrideRoot()), BenchmarkFixtures.variant("v2")
+    );
+    messageMethod = new ContextObjects.MessageMethod(inputs.getCompiledMessages());
+    advancedMessageMethod = new ContextObjects.AdvancedMessageMethod(inputs.getCompiledMessages());
+  }
+
+  @Benchmark
+  public Object msgPlainKey() throws Exception {
+    return messageMethod.exec(PLAIN_KEY);
+  }
+
+  @Benchmark
+  public Object msgWithArgument() throws Exception {
+    return messageMethod.exec(KEY_WITH_ARGUMENT);
+  }
+
+  @Benchmark
+  public Object advancedMsg() {
+    return advancedMessageMethod.exec(ADVANCED_EXPRESSION);
+  }
+}
@@ -0,0 +1,64 @@
+package com.keycloaktheme.preview.benchmarks;
+
+import com.keycloaktheme.preview.ContextBuilder;
+import com.keycloaktheme.preview.PageRenderer;
+import com.keycloaktheme.preview.VariantLoader;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// cold builds a fresh PageRenderer per call (configuration, loader chain, template parsing);
+// warm reuses one whose configuration and template cache are already populated.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderPageBenchmark {
+  @Param({"login.ftl", "register.ftl", "error.ftl"})
+  public String page;
+
+  @Param({"v2", "modern-card"})
+  public String variantId;
+
+  private ContextBuilder contextBuilder;
+  private BenchmarkFixtures.Variant variant;
+  private VariantLoader.VariantInputs inputs;
+  private Map<String, Object> context;
+  private PageRenderer warmRenderer;
+
+  @Setup
+  public void setUp() throws Exception {
+    contextBuilder = new ContextBuilder(BenchmarkFixtures.OBJECT_MAPPER);
+    variant = BenchmarkFixtures.variant(variantId);
+    inputs = BenchmarkFixtures.loadInputs(new VariantLoader(BenchmarkFixtures.overrideRoot()), variant);
+    context = BenchmarkFixtures.pageContext(contextBuilder, BenchmarkFixtures.contextOverrides(contextBuilder), page);
+    warmRenderer = new PageRenderer();
+    render(warmRenderer);
+  }
+
+  @Benchmark
+  public String cold() throws Exception {
+    return render(new PageRenderer());
+  }
+
+  @Benchmark
+  public String warm() throws Exception {
+    return render(warmRenderer);
+  }
+
+  private String render(PageRenderer renderer) throws Exception {
+    return renderer.renderPage(page, page.replace(".ftl", ".html"), variant.id, variant.overlayDir, null, inputs, context);
+  }
+}
@@ -0,0 +1,47 @@
+package com.keycloaktheme.preview.benchmarks;
+
+import com.keycloaktheme.preview.VariantLoader;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// cold reads properties, messages and template listings from disk; warm only revalidates the source fingerprint.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VariantLoaderBenchmark {
+  @Param({"base", "v2", "modern-card"})
+  public String variantId;
+
+  private BenchmarkFixtures.Variant variant;
+  private VariantLoader warmLoader;
+
+  @Setup
+  public void setUp() throws Exception {
+    variant = BenchmarkFixtures.variant(variantId);
+    warmLoader = new VariantLoader(BenchmarkFixtures.overrideRoot());
+    BenchmarkFixtures.loadInputs(warmLoader, variant);
+  }
+
+  @Benchmark
+  public VariantLoader.VariantInputs cold() throws Exception {
+    return BenchmarkFixtures.loadInputs(new VariantLoader(BenchmarkFixtures.overrideRoot()), variant);
+  }
+
+  @Benchmark
+  public VariantLoader.VariantInputs warm() throws Exception {
+    return BenchmarkFixtures.loadInputs(warmLoader, variant);
+  }
+}
@@ -6,6 +6,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -38,79 +39,51 @@ public final class ContextBuilder {
       if (key == null || key.trim().isEmpty()) {
         continue;
       }
-      pages.put(key.trim(), asMap(entry.getValue()));
+      pages.put(key.trim(), freezeMap(asMap(entry.getValue())));
     }
 
     return new ContextOverrides(pages);
   }
 
-  public Map<String, Object> buildPageContextOverride(ContextOverrides overrides, String pageKey) {
-    Map<String, Object> merged = new LinkedHashMap<String, Object>();
+  // The mock for one page or state as rendered: shared by every render and never copied.
+  public Map<String, Object> getPageContext(ContextOverrides overrides, String pageKey) {
     Map<String, Object> pageOverride = overrides.getPages().get(pageKey);
-    if (pageOverride != null && !pageOverride.isEmpty()) {
-      deepMergeMap(merged, pageOverride);
-    }
-    return merged;
-  }
-
-  public void deepMergeMap(Map<String, Object> target, Map<String, Object> source) {
-    if (source == null || source.isEmpty()) {
-      return;
-    }
-
-    for (Map.Entry<String, Object> entry : source.entrySet()) {
-      String key = entry.getKey();
-      Object sourceValue = entry.getValue();
-      Object targetValue = target.get(key);
-
-      if (sourceValue instanceof Map && targetValue instanceof Map) {
-        @SuppressWarnings("unchecked")
-        Map<String, Object> targetChild = (Map<String, Object>) targetValue;
-        @SuppressWarnings("unchecked")
-        Map<String, Object> sourceChild = (Map<String, Object>) sourceValue;
-        deepMergeMap(targetChild, sourceChild);
-        continue;
-      }
-
-      target.put(key, deepCopyValue(sourceValue));
-    }
+    return pageOverride == null ? Collections.<String, Object>emptyMap() : pageOverride;
   }
 
-  public Map<String, Object> deepCopyMap(Map<String, Object> source) {
-    Map<String, Object> copy = new LinkedHashMap<String, Object>();
-    if (source == null) {
-      return copy;
-    }
-
-    for (Map.Entry<String, Object> entry : source.entrySet()) {
-      copy.put(entry.getKey(), deepCopyValue(entry.getValue()));
+  // Pages without a mock of their own get the login page's: most extend the login template and need url, realm, etc.
+  public Map<String, Object> getDefaultPageContext(ContextOverrides overrides, String pageTemplate) {
+    Map<String, Object> defaultContext = getPageContext(overrides, pageTemplate);
+    if (defaultContext.isEmpty() && !pageTemplate.equals("login.ftl")) {
+      defaultContext = getPageContext(overrides, "login.ftl");
     }
-    return copy;
-  }
-
-  private List<Object> deepCopyList(List<?> source) {
-    List<Object> copy = new ArrayList<Object>();
-    if (source == null) {
-      return copy;
-    }
-
-    for (Object item : source) {
-      copy.add(deepCopyValue(item));
-    }
-    return copy;
+    return defaultContext;
   }
 
+  // Mocks are read concurrently by every render, so they are made immutable once when loaded.
   @SuppressWarnings("unchecked")
-  private Object deepCopyValue(Object value) {
+  private Object freezeValue(Object value) {
     if (value instanceof Map) {
-      return deepCopyMap((Map<String, Object>) value);
+      return freezeMap((Map<String, Object>) value);
     }
     if (value instanceof List) {
-      return deepCopyList((List<?>) value);
+      List<Object> frozen = new ArrayList<Object>();
+      for (Object item : (List<?>) value) {
+        frozen.add(freezeValue(item));
+      }
+      return Collections.unmodifiableList(frozen);
     }
     return value;
   }
 
+  private Map<String, Object> freezeMap(Map<String, Object> source) {
+    Map<String, Object> frozen = new LinkedHashMap<String, Object>();
+    for (Map.Entry<String, Object> entry : source.entrySet()) {
+      frozen.put(entry.getKey(), freezeValue(entry.getValue()));
+    }
+    return Collections.unmodifiableMap(frozen);
+  }
+
   private Map<String, Object> asMap(Object value) {
     if (!(value instanceof Map)) {
       return new LinkedHashMap<String, Object>();
@@ -134,5 +107,17 @@ public final class ContextBuilder {
     public Map<String, Map<String, Object>> getPages() {
       return pages;
     }
+
+    // Names of the page's @state mocks, in mock file order.
+    public List<String> getStates(String pageTemplate) {
+      List<String> states = new ArrayList<String>();
+      String stateKeyPrefix = pageTemplate + "@";
+      for (String pageKey : pages.keySet()) {
+        if (pageKey.startsWith(stateKeyPrefix)) {
+          states.add(pageKey.substring(stateKeyPrefix.length()));
+        }
+      }
+      return states;
+    }
   }
 }
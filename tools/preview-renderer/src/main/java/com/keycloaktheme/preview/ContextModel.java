@@ -0,0 +1,71 @@
+package com.keycloaktheme.preview;
+
+import freemarker.template.ObjectWrapper;
+import freemarker.template.SimpleCollection;
+import freemarker.template.TemplateCollectionModel;
+import freemarker.template.TemplateHashModelEx;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Read-only template view of a shared, immutable mock map with a few per-render entries layered on top.
+// Renders never copy the mock tree: entries they need to replace (msg, auth, url.resourcesPath, ...) live in
+// the overlay, and nested overrides are themselves ContextModels over the corresponding mock sub-map.
+public final class ContextModel implements TemplateHashModelEx {
+  private final Map<String, Object> base;
+  private final Map<String, Object> overlay = new LinkedHashMap<String, Object>();
+  private final ObjectWrapper objectWrapper;
+
+  public ContextModel(Map<String, Object> base, ObjectWrapper objectWrapper) {
+    this.base = base;
+    this.objectWrapper = objectWrapper;
+  }
+
+  public ContextModel put(String key, Object value) {
+    overlay.put(key, value);
+    return this;
+  }
+
+  @Override
+  public TemplateModel get(String key) throws TemplateModelException {
+    return objectWrapper.wrap(overlay.containsKey(key) ? overlay.get(key) : base.get(key));
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return base.isEmpty() && overlay.isEmpty();
+  }
+
+  @Override
+  public int size() {
+    return keyList().size();
+  }
+
+  @Override
+  public TemplateCollectionModel keys() {
+    return new SimpleCollection(keyList(), objectWrapper);
+  }
+
+  @Override
+  public TemplateCollectionModel values() {
+    List<Object> values = new ArrayList<Object>();
+    for (String key : keyList()) {
+      values.add(overlay.containsKey(key) ? overlay.get(key) : base.get(key));
+    }
+    return new SimpleCollection(values, objectWrapper);
+  }
+
+  // Mock keys keep their order; keys only present in the overlay follow.
+  private List<String> keyList() {
+    List<String> keys = new ArrayList<String>(base.keySet());
+    for (String key : overlay.keySet()) {
+      if (!base.containsKey(key)) {
+        keys.add(key);
+      }
+    }
+    return keys;
+  }
+}
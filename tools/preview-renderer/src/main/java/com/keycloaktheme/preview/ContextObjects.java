@@ -3,22 +3,205 @@ package com.keycloaktheme.preview;
 import freemarker.template.TemplateMethodModelEx;
 import freemarker.template.TemplateModelException;
 import java.text.MessageFormat;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public final class ContextObjects {
   private ContextObjects() {
   }
 
+  // Resolved messages for one bundle, shared by every page of a variant and safe for concurrent renders.
+  // Single-key lookups are unescaped once and MessageFormat patterns are parsed once, for keys the bundle
+  // defines. advancedMsg strings are expanded once per distinct input, up to MAX_EXPANSIONS inputs: templates
+  // also pass runtime values through advancedMsg, and those must not grow a cache that lives with the bundle.
+  public static final class CompiledMessages {
+    static final int MAX_EXPANSIONS = 1024;
+
+    private final MessageBundle messages;
+    private final Locale locale;
+    private final Map<String, String> literals = new ConcurrentHashMap<String, String>();
+    private final Map<String, CompiledFormat> formats = new ConcurrentHashMap<String, CompiledFormat>();
+    private final Map<String, String> expansions = new ConcurrentHashMap<String, String>();
+
+    public CompiledMessages(MessageBundle messages, Locale locale) {
+      this.messages = messages;
+      this.locale = locale;
+    }
+
+    private String pattern(String key) {
+      String pattern = messages.get(key);
+      return pattern != null || messages.containsKey(key) ? pattern : key;
+    }
+
+    private String literal(String key) {
+      if (!messages.containsKey(key)) {
+        return key.replace("''", "'");
+      }
+      return literals.computeIfAbsent(key, missing -> pattern(missing).replace("''", "'"));
+    }
+
+    private String format(String key, Object[] values) {
+      if (!messages.containsKey(key)) {
+        return CompiledFormat.compile(key, locale).format(values);
+      }
+      return formats.computeIfAbsent(key, missing -> CompiledFormat.compile(pattern(missing), locale)).format(values);
+    }
+
+    private String expand(String value) {
+      String expanded = expansions.get(value);
+      if (expanded != null) {
+        return expanded;
+      }
+      expanded = expandExpressions(value);
+      // Concurrent renders can overshoot the cap by a few entries; it only has to stay bounded.
+      if (expansions.size() < MAX_EXPANSIONS) {
+        expansions.putIfAbsent(value, expanded);
+      }
+      return expanded;
+    }
+
+    int cachedEntries() {
+      return literals.size() + formats.size() + expansions.size();
+    }
+
+    // Replaces each ${key} with its message; unknown keys keep the whole expression.
+    private String expandExpressions(String value) {
+      StringBuilder output = null;
+      int copiedUpTo = 0;
+      int start = value.indexOf("${");
+      while (start >= 0) {
+        int end = value.indexOf('}', start + 2);
+        if (end < 0) {
+          break;
+        }
+        if (end == start + 2) {
+          start = value.indexOf("${", start + 1);
+          continue;
+        }
+        String key = value.substring(start + 2, end).trim();
+        String message = messages.get(key);
+        if (output == null) {
+          output = new StringBuilder(value.length());
+        }
+        output.append(value, copiedUpTo, start).append(message == null ? value.substring(start, end + 1) : message);
+        copiedUpTo = end + 1;
+        start = value.indexOf("${", copiedUpTo);
+      }
+      if (output == null) {
+        return value;
+      }
+      return output.append(value, copiedUpTo, value.length()).toString();
+    }
+  }
+
+  // A MessageFormat pattern with only plain {n} arguments is kept as literal segments and argument indexes,
+  // which formats string arguments exactly like MessageFormat without sharing its mutable state. Anything
+  // else (typed arguments, unmatched braces) keeps a MessageFormat, used under a lock.
+  static final class CompiledFormat {
+    private static final int MAX_ARGUMENT_DIGITS = 4;
+
+    private final List<Object> segments;
+    private final String pattern;
+    private final Locale locale;
+    private final MessageFormat fallback;
+
+    private CompiledFormat(List<Object> segments, String pattern, Locale locale) {
+      this.segments = segments;
+      this.pattern = pattern;
+      this.locale = locale;
+      this.fallback = null;
+    }
+
+    private CompiledFormat(String pattern, Locale locale) {
+      this.segments = null;
+      this.pattern = pattern;
+      this.locale = locale;
+      MessageFormat format;
+      try {
+        format = new MessageFormat(pattern, locale);
+      } catch (IllegalArgumentException error) {
+        // Reported when formatted, the same way an uncached MessageFormat would.
+        format = null;
+      }
+      this.fallback = format;
+    }
+
+    static CompiledFormat compile(String pattern, Locale locale) {
+      List<Object> segments = new ArrayList<Object>();
+      StringBuilder literal = new StringBuilder();
+      boolean inQuote = false;
+      for (int i = 0; i < pattern.length(); i++) {
+        char c = pattern.charAt(i);
+        if (c == '\'') {
+          if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '\'') {
+            literal.append(c);
+            i++;
+          } else {
+            inQuote = !inQuote;
+          }
+        } else if (c == '{' && !inQuote) {
+          int close = pattern.indexOf('}', i + 1);
+          String argument = close < 0 ? "" : pattern.substring(i + 1, close);
+          if (argument.isEmpty() || argument.length() > MAX_ARGUMENT_DIGITS || !isDigits(argument)) {
+            return new CompiledFormat(pattern, locale);
+          }
+          if (literal.length() > 0) {
+            segments.add(literal.toString());
+            literal.setLength(0);
+          }
+          segments.add(Integer.valueOf(argument));
+          i = close;
+        } else {
+          literal.append(c);
+        }
+      }
+      if (literal.length() > 0) {
+        segments.add(literal.toString());
+      }
+      return new CompiledFormat(segments, pattern, locale);
+    }
+
+    private static boolean isDigits(String value) {
+      for (int i = 0; i < value.length(); i++) {
+        if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    String format(Object[] values) {
+      if (segments == null) {
+        if (fallback == null) {
+          return new MessageFormat(pattern, locale).format(values);
+        }
+        synchronized (fallback) {
+          return fallback.format(values);
+        }
+      }
+      StringBuilder output = new StringBuilder();
+      for (Object segment : segments) {
+        if (segment instanceof String) {
+          output.append((String) segment);
+          continue;
+        }
+        int index = (Integer) segment;
+        // MessageFormat leaves arguments without a value as written.
+        output.append(index < values.length ? values[index] : "{" + index + "}");
+      }
+      return output.toString();
+    }
+  }
+
   public static final class MessageMethod implements TemplateMethodModelEx {
-    private final Map<String, String> messages;
+    private final CompiledMessages messages;
 
-    public MessageMethod(Map<String, String> messages) {
+    public MessageMethod(CompiledMessages messages) {
       this.messages = messages;
     }
 
@@ -28,14 +211,15 @@ public final class ContextObjects {
         return "";
       }
       String key = String.valueOf(arguments.get(0));
-      String pattern = messages.containsKey(key) ? messages.get(key) : key;
       if (arguments.size() == 1) {
-        return pattern.replace("''", "'");
+        return messages.literal(key);
+      }
+      Object[] values = new Object[arguments.size() - 1];
+      for (int i = 1; i < arguments.size(); i++) {
+        Object value = arguments.get(i);
+        values[i - 1] = value == null ? "" : value.toString();
       }
-      Object[] values = arguments.subList(1, arguments.size()).stream()
-          .map(value -> value == null ? "" : value.toString())
-          .toArray();
-      return new MessageFormat(pattern, Locale.ENGLISH).format(values);
+      return messages.format(key, values);
     }
   }
 
@@ -47,10 +231,9 @@ public final class ContextObjects {
   }
 
   public static final class AdvancedMessageMethod implements TemplateMethodModelEx {
-    private static final Pattern MESSAGE_EXPRESSION = Pattern.compile("\\$\\{([^}]+)\\}");
-    private final Map<String, String> messages;
+    private final CompiledMessages messages;
 
-    public AdvancedMessageMethod(Map<String, String> messages) {
+    public AdvancedMessageMethod(CompiledMessages messages) {
       this.messages = messages;
     }
 
@@ -59,25 +242,7 @@ public final class ContextObjects {
       if (arguments.isEmpty()) {
         return "";
       }
-
-      String value = String.valueOf(arguments.get(0));
-      Matcher matcher = MESSAGE_EXPRESSION.matcher(value);
-      StringBuffer output = new StringBuffer();
-      boolean replaced = false;
-
-      while (matcher.find()) {
-        replaced = true;
-        String key = matcher.group(1).trim();
-        String message = messages.getOrDefault(key, matcher.group(0));
-        matcher.appendReplacement(output, Matcher.quoteReplacement(message));
-      }
-
-      if (!replaced) {
-        return value;
-      }
-
-      matcher.appendTail(output);
-      return output.toString();
+      return messages.expand(String.valueOf(arguments.get(0)));
     }
   }
 
@@ -0,0 +1,319 @@
+package com.keycloaktheme.preview;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+// Rewrites rendered HTML in one pass while the template writes it: data-editor-* attributes are dropped,
+// the first <body> gets data-page-id, and <script> elements can be removed. Only tags are buffered; text,
+// comments and script/style bodies stream straight through to the target.
+public final class HtmlPostProcessor extends Writer {
+  private static final String EDITOR_ATTRIBUTE_PREFIX = "data-editor-";
+  private static final String PAGE_ID_ATTRIBUTE = "data-page-id";
+
+  private enum State {
+    TEXT,
+    TAG,
+    COMMENT,
+    RAW_TEXT,
+    RAW_END_TAG
+  }
+
+  private final Writer target;
+  private final String pageIdValue;
+  private final boolean stripScripts;
+  private final StringBuilder buffer = new StringBuilder();
+  private final char[] chunk = new char[1024];
+  private final char[] single = new char[1];
+  private State state = State.TEXT;
+  private char quote;
+  private char lastSignificant;
+  // Name of the script/style element whose body is being passed through (or discarded).
+  private String rawTextElement;
+  private boolean discardRawText;
+  private int commentDashes;
+  private boolean bodySeen;
+
+  public HtmlPostProcessor(Writer target, String pageIdValue, boolean stripScripts) {
+    this.target = target;
+    this.pageIdValue = pageIdValue;
+    this.stripScripts = stripScripts;
+  }
+
+  @Override
+  public void write(char[] chars, int offset, int length) throws IOException {
+    int end = offset + length;
+    int i = offset;
+    while (i < end) {
+      if (state == State.TEXT) {
+        // Copy the run of text up to the next '<' in one call.
+        int runStart = i;
+        while (i < end && chars[i] != '<') {
+          i++;
+        }
+        target.write(chars, runStart, i - runStart);
+        if (i < end) {
+          buffer.setLength(0);
+          buffer.append('<');
+          quote = 0;
+          lastSignificant = '<';
+          state = State.TAG;
+          i++;
+        }
+        continue;
+      }
+      accept(chars[i++]);
+    }
+  }
+
+  // FreeMarker writes most text as strings; they are copied a chunk at a time into one reused array.
+  @Override
+  public void write(String text, int offset, int length) throws IOException {
+    int end = offset + length;
+    for (int start = offset; start < end; start += chunk.length) {
+      int count = Math.min(chunk.length, end - start);
+      text.getChars(start, start + count, chunk, 0);
+      write(chunk, 0, count);
+    }
+  }
+
+  @Override
+  public void write(int c) throws IOException {
+    single[0] = (char) c;
+    write(single, 0, 1);
+  }
+
+  private void accept(char c) throws IOException {
+    switch (state) {
+      case TAG:
+        acceptTagChar(c);
+        break;
+      case COMMENT:
+        target.write(c);
+        if (c == '>' && commentDashes >= 2) {
+          state = State.TEXT;
+        }
+        commentDashes = c == '-' ? commentDashes + 1 : 0;
+        break;
+      case RAW_TEXT:
+        acceptRawTextChar(c);
+        break;
+      case RAW_END_TAG:
+        if (!discardRawText) {
+          target.write(c);
+        }
+        if (c == '>') {
+          state = State.TEXT;
+        }
+        break;
+      default:
+        throw new IllegalStateException("Unexpected state " + state);
+    }
+  }
+
+  private void acceptTagChar(char c) throws IOException {
+    // "<" not followed by a name, "/", "!" or "?" is literal text, as in "a < b".
+    if (buffer.length() == 1 && !Character.isLetter(c) && c != '/' && c != '!' && c != '?') {
+      target.append(buffer);
+      buffer.setLength(0);
+      state = State.TEXT;
+      write(c);
+      return;
+    }
+    buffer.append(c);
+    if (buffer.length() == 4 && buffer.toString().equals("<!--")) {
+      target.append(buffer);
+      buffer.setLength(0);
+      commentDashes = 0;
+      state = State.COMMENT;
+      return;
+    }
+    if (quote != 0) {
+      if (c == quote) {
+        quote = 0;
+      }
+    } else if ((c == '"' || c == '\'') && lastSignificant == '=') {
+      quote = c;
+    } else if (c == '>') {
+      state = State.TEXT;
+      processTag();
+    }
+    if (!Character.isWhitespace(c)) {
+      lastSignificant = c;
+    }
+  }
+
+  // Inside script/style only the matching end tag matters; candidates are held back until they match or fail.
+  private void acceptRawTextChar(char c) throws IOException {
+    if (buffer.length() == 0) {
+      if (c == '<') {
+        buffer.append(c);
+      } else if (!discardRawText) {
+        target.write(c);
+      }
+      return;
+    }
+    String endTag = "</" + rawTextElement;
+    if (buffer.length() < endTag.length()) {
+      if (Character.toLowerCase(c) == endTag.charAt(buffer.length())) {
+        buffer.append(c);
+        return;
+      }
+    } else if (Character.isWhitespace(c) || c == '/' || c == '>') {
+      if (!discardRawText) {
+        target.append(buffer);
+      }
+      buffer.setLength(0);
+      state = State.RAW_END_TAG;
+      accept(c);
+      return;
+    }
+    if (!discardRawText) {
+      target.append(buffer);
+    }
+    buffer.setLength(0);
+    acceptRawTextChar(c);
+  }
+
+  private void processTag() throws IOException {
+    char first = buffer.charAt(1);
+    if (first == '/' || first == '!' || first == '?') {
+      target.append(buffer);
+      buffer.setLength(0);
+      return;
+    }
+    int nameEnd = 1;
+    while (nameEnd < buffer.length() && !Character.isWhitespace(buffer.charAt(nameEnd))
+        && buffer.charAt(nameEnd) != '/' && buffer.charAt(nameEnd) != '>') {
+      nameEnd++;
+    }
+    String name = buffer.substring(1, nameEnd).toLowerCase(Locale.ROOT);
+
+    if (name.equals("script") || name.equals("style")) {
+      rawTextElement = name;
+      discardRawText = stripScripts && name.equals("script");
+      state = State.RAW_TEXT;
+      if (discardRawText) {
+        buffer.setLength(0);
+        return;
+      }
+    }
+
+    String tag = removeAttributes(buffer, EDITOR_ATTRIBUTE_PREFIX, true, false);
+    if (name.equals("body") && !bodySeen && pageIdValue != null) {
+      bodySeen = true;
+      tag = removeAttributes(new StringBuilder(tag), PAGE_ID_ATTRIBUTE, false, true);
+      tag = tag.substring(0, tag.length() - 1) + " " + PAGE_ID_ATTRIBUTE + "=\"" + pageIdValue + "\">";
+    }
+    buffer.setLength(0);
+    target.write(tag);
+  }
+
+  // Drops whitespace-led attributes named exactly `name` (or starting with it when prefix is set) that carry a
+  // quoted value. Unquoted or valueless forms are left alone, matching what the editor markup produces.
+  private static String removeAttributes(CharSequence tag, String name, boolean prefix, boolean ignoreCase) {
+    StringBuilder result = null;
+    int copiedUpTo = 0;
+    int length = tag.length();
+    char quote = 0;
+    for (int i = 0; i < length; i++) {
+      char c = tag.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+        continue;
+      }
+      if (c == '"' || c == '\'') {
+        quote = c;
+        continue;
+      }
+      if (!Character.isWhitespace(c) || !regionMatches(tag, i + 1, name, ignoreCase)) {
+        continue;
+      }
+      int j = i + 1 + name.length();
+      if (prefix) {
+        int nameStart = j;
+        while (j < length && isAttributeNameChar(tag.charAt(j))) {
+          j++;
+        }
+        if (j == nameStart) {
+          continue;
+        }
+      }
+      if (!prefix) {
+        while (j < length && Character.isWhitespace(tag.charAt(j))) {
+          j++;
+        }
+      }
+      if (j >= length || tag.charAt(j) != '=') {
+        continue;
+      }
+      j++;
+      if (!prefix) {
+        while (j < length && Character.isWhitespace(tag.charAt(j))) {
+          j++;
+        }
+      }
+      if (j >= length || (tag.charAt(j) != '"' && tag.charAt(j) != '\'')) {
+        continue;
+      }
+      int close = indexOf(tag, tag.charAt(j), j + 1);
+      if (close < 0) {
+        continue;
+      }
+      if (result == null) {
+        result = new StringBuilder(length);
+      }
+      result.append(tag, copiedUpTo, i);
+      copiedUpTo = close + 1;
+      i = close;
+    }
+    if (result == null) {
+      return tag.toString();
+    }
+    return result.append(tag, copiedUpTo, length).toString();
+  }
+
+  private static boolean regionMatches(CharSequence text, int offset, String expected, boolean ignoreCase) {
+    if (offset + expected.length() > text.length()) {
+      return false;
+    }
+    for (int i = 0; i < expected.length(); i++) {
+      char actual = text.charAt(offset + i);
+      if (ignoreCase ? Character.toLowerCase(actual) != expected.charAt(i) : actual != expected.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isAttributeNameChar(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '-';
+  }
+
+  private static int indexOf(CharSequence text, char c, int from) {
+    for (int i = from; i < text.length(); i++) {
+      if (text.charAt(i) == c) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    target.flush();
+  }
+
+  // Whatever is still held back (an unterminated tag or end-tag candidate) is written out unchanged,
+  // except inside a script that is being removed.
+  @Override
+  public void close() throws IOException {
+    if (buffer.length() > 0 && !(state == State.RAW_TEXT && discardRawText)) {
+      target.append(buffer);
+    }
+    buffer.setLength(0);
+    target.flush();
+  }
+}
@@ -0,0 +1,15 @@
+package com.keycloaktheme.preview;
+
+import java.util.concurrent.ExecutorService;
+
+// Executor for blocking file reads (theme properties, messages, template listings and sources). This Java 8
+// version has none, so callers use their own pools or read in order. The jdk21 build profile packages a
+// multi-release variant (src/main/java21) that runs each task on its own virtual thread.
+public final class IoExecutors {
+  private IoExecutors() {
+  }
+
+  public static ExecutorService newIoExecutor() {
+    return null;
+  }
+}
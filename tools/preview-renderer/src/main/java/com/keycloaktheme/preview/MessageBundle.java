@@ -0,0 +1,174 @@
+package com.keycloaktheme.preview;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+// Immutable message (or properties) bundle stored as parallel key/value arrays with an open-addressing index,
+// instead of one LinkedHashMap entry per message. A variant's bundle is a chain of layers: each overlay only
+// references the arrays of the file it adds, so the thousands of upstream messages exist once per loader no
+// matter how many variants sit on top of them. Iterates like a LinkedHashMap built with successive putAll calls.
+public final class MessageBundle extends AbstractMap<String, String> {
+  private static final MessageBundle EMPTY = new MessageBundle(null, new String[0], new String[0], new int[2]);
+
+  private final MessageBundle parent;
+  private final String[] keys;
+  private final String[] values;
+  // Slot -> own entry index + 1; 0 marks an empty slot. The length is a power of two at least twice the entries.
+  private final int[] slots;
+  private final int size;
+
+  private MessageBundle(MessageBundle parent, String[] keys, String[] values, int[] slots) {
+    this.parent = parent;
+    this.keys = keys;
+    this.values = values;
+    this.slots = slots;
+    int size = parent == null ? 0 : parent.size;
+    for (String key : keys) {
+      if (parent == null || !parent.containsKey(key)) {
+        size++;
+      }
+    }
+    this.size = size;
+  }
+
+  public static MessageBundle empty() {
+    return EMPTY;
+  }
+
+  // Keys and values go through stringPool, so text repeated across files (base and v2 share most messages)
+  // is held once.
+  public static MessageBundle of(Map<String, String> entries, StringPool stringPool) {
+    if (entries.isEmpty()) {
+      return EMPTY;
+    }
+    String[] keys = new String[entries.size()];
+    String[] values = new String[entries.size()];
+    int capacity = Integer.highestOneBit(Math.max(2, entries.size() * 2 - 1)) << 1;
+    int[] slots = new int[capacity];
+    int index = 0;
+    for (Map.Entry<String, String> entry : entries.entrySet()) {
+      keys[index] = stringPool.intern(entry.getKey());
+      values[index] = stringPool.intern(entry.getValue());
+      int slot = spread(keys[index].hashCode()) & (capacity - 1);
+      while (slots[slot] != 0) {
+        slot = (slot + 1) & (capacity - 1);
+      }
+      slots[slot] = ++index;
+    }
+    return new MessageBundle(null, keys, values, slots);
+  }
+
+  // Layers a single-file bundle over this one; the layer's arrays are shared, not copied.
+  public MessageBundle overlay(MessageBundle layer) {
+    if (layer.parent != null) {
+      throw new IllegalArgumentException("Only a bundle without a parent can be layered");
+    }
+    if (layer.keys.length == 0 || this == EMPTY) {
+      return layer.keys.length == 0 ? this : layer;
+    }
+    return new MessageBundle(this, layer.keys, layer.values, layer.slots);
+  }
+
+  @Override
+  public String get(Object key) {
+    for (MessageBundle bundle = this; bundle != null; bundle = bundle.parent) {
+      int index = bundle.indexOf(key);
+      if (index >= 0) {
+        return bundle.values[index];
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    for (MessageBundle bundle = this; bundle != null; bundle = bundle.parent) {
+      if (bundle.indexOf(key) >= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Set<Map.Entry<String, String>> entrySet() {
+    return new AbstractSet<Map.Entry<String, String>>() {
+      @Override
+      public Iterator<Map.Entry<String, String>> iterator() {
+        return new EntryIterator();
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  private int indexOf(Object key) {
+    if (!(key instanceof String) || keys.length == 0) {
+      return -1;
+    }
+    int mask = slots.length - 1;
+    for (int slot = spread(key.hashCode()) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+      int index = slots[slot] - 1;
+      if (keys[index].equals(key)) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  // Parent entries first (with this layer's values where it overrides them), then keys new in this layer.
+  private final class EntryIterator implements Iterator<Map.Entry<String, String>> {
+    private final Iterator<Map.Entry<String, String>> parentEntries =
+        parent == null ? null : parent.entrySet().iterator();
+    private int ownIndex;
+    private Map.Entry<String, String> next;
+
+    @Override
+    public boolean hasNext() {
+      if (next != null) {
+        return true;
+      }
+      if (parentEntries != null && parentEntries.hasNext()) {
+        Map.Entry<String, String> entry = parentEntries.next();
+        int index = indexOf(entry.getKey());
+        next = index < 0 ? entry : new SimpleImmutableEntry<String, String>(entry.getKey(), values[index]);
+        return true;
+      }
+      while (ownIndex < keys.length) {
+        String key = keys[ownIndex];
+        String value = values[ownIndex++];
+        if (parent == null || !parent.containsKey(key)) {
+          next = new SimpleImmutableEntry<String, String>(key, value);
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public Map.Entry<String, String> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Map.Entry<String, String> entry = next;
+      next = null;
+      return entry;
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package com.keycloaktheme.preview;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import java.util.Locale;
+
+// Encoding of the single-file pages output, chosen with --format. CBOR holds the same document as pages.json
+// (including dedup $ref entries) but writes every string with a length header (long ones as length-prefixed
+// chunks), so the HTML is neither escaped nor unescaped. The editor decodes it with src/features/preview/lib/cbor.ts.
+public enum OutputFormat {
+  JSON("pages.json"),
+  CBOR("pages.cbor");
+
+  private final String fileName;
+
+  OutputFormat(String fileName) {
+    this.fileName = fileName;
+  }
+
+  public static OutputFormat parse(String value) {
+    try {
+      return valueOf(value.trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException error) {
+      throw new IllegalArgumentException("Invalid --format value: " + value + " (expected json or cbor)");
+    }
+  }
+
+  public String getFileName() {
+    return fileName;
+  }
+
+  public boolean isText() {
+    return this == JSON;
+  }
+
+  // A mapper reading and writing this format; PagesJsonWriter streams through its factory.
+  public ObjectMapper createMapper() {
+    return new ObjectMapper(createFactory());
+  }
+
+  private JsonFactory createFactory() {
+    switch (this) {
+      case CBOR:
+        return new CBORFactory();
+      default:
+        return new JsonFactory();
+    }
+  }
+}
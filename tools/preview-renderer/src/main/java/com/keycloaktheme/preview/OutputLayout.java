@@ -0,0 +1,77 @@
+package com.keycloaktheme.preview;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Where a render or merge writes each locale's pages, in the layout and format the arguments ask for. The first
+// locale is written to the output root itself; the others get the same layout under locales/<tag>/.
+final class OutputLayout {
+  private static final String LOCALES_FILE_NAME = "locales.json";
+
+  private final RendererArguments arguments;
+  private final ObjectMapper objectMapper;
+  private final ObjectMapper pagesMapper;
+
+  OutputLayout(RendererArguments arguments, ObjectMapper objectMapper) {
+    this.arguments = arguments;
+    this.objectMapper = objectMapper;
+    this.pagesMapper = arguments.format.isText() ? objectMapper : arguments.format.createMapper();
+  }
+
+  List<String> getLocales() {
+    return arguments.locales;
+  }
+
+  Path getRoot(String locale) {
+    return getLocaleRoot(arguments.outputRoot, locale);
+  }
+
+  Path getLocaleRoot(Path root, String locale) {
+    return locale.equals(arguments.locales.get(0))
+        ? root
+        : root.resolve("locales").resolve(locale);
+  }
+
+  Path getPagesPath(Path root) {
+    return arguments.layout.equals("single")
+        ? root.resolve(arguments.format.getFileName())
+        : root.resolve(ShardedPagesWriter.DIRECTORY_NAME).resolve(ShardedPagesWriter.MANIFEST_FILE_NAME);
+  }
+
+  PagesWriter openPagesWriter(Path root) throws IOException {
+    if (arguments.layout.equals("single")) {
+      return new PagesJsonWriter(
+          pagesMapper,
+          root.resolve(arguments.format.getFileName()),
+          arguments.keycloakTag,
+          arguments.dedup,
+          arguments.compress
+      );
+    }
+    return new ShardedPagesWriter(
+        objectMapper, root, arguments.keycloakTag, arguments.layout.equals("page"), arguments.compress
+    );
+  }
+
+  // locales.json maps each rendered locale to its pages file, relative to the output root.
+  void writeLocalesManifest() throws IOException {
+    if (arguments.locales.size() == 1) {
+      Files.deleteIfExists(arguments.outputRoot.resolve(LOCALES_FILE_NAME));
+      return;
+    }
+    Map<String, String> files = new LinkedHashMap<String, String>();
+    for (String locale : arguments.locales) {
+      files.put(locale, arguments.outputRoot.relativize(getPagesPath(getRoot(locale))).toString().replace('\\', '/'));
+    }
+    Map<String, Object> manifest = new LinkedHashMap<String, Object>();
+    manifest.put("defaultLocale", arguments.locales.get(0));
+    manifest.put("locales", files);
+    Files.createDirectories(arguments.outputRoot);
+    Files.write(arguments.outputRoot.resolve(LOCALES_FILE_NAME), objectMapper.writeValueAsBytes(manifest));
+  }
+}
@@ -0,0 +1,111 @@
+package com.keycloaktheme.preview;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+// Immutable view of a parent map with a second map layered on top, without copying either. Iterates like a
+// LinkedHashMap built by putAll (or putIfAbsent when the parent wins): parent keys in order, then keys only
+// the layer has. Both maps must not change afterwards; VariantLoader only layers frozen, shared maps.
+public final class OverlayMap extends AbstractMap<String, String> {
+  private final Map<String, String> parent;
+  private final Map<String, String> layer;
+  private final boolean parentWins;
+  private final int size;
+
+  private OverlayMap(Map<String, String> parent, Map<String, String> layer, boolean parentWins) {
+    this.parent = parent;
+    this.layer = layer;
+    this.parentWins = parentWins;
+    int added = 0;
+    for (String key : layer.keySet()) {
+      if (!parent.containsKey(key)) {
+        added++;
+      }
+    }
+    this.size = parent.size() + added;
+  }
+
+  // Entries of layer replace those of parent.
+  public static Map<String, String> override(Map<String, String> parent, Map<String, String> layer) {
+    return layer.isEmpty() ? parent : new OverlayMap(parent, layer, false);
+  }
+
+  // Entries of layer only fill keys parent does not have.
+  public static Map<String, String> fill(Map<String, String> parent, Map<String, String> layer) {
+    return layer.isEmpty() ? parent : new OverlayMap(parent, layer, true);
+  }
+
+  @Override
+  public String get(Object key) {
+    if (parentWins) {
+      String value = parent.get(key);
+      return value != null || parent.containsKey(key) ? value : layer.get(key);
+    }
+    String value = layer.get(key);
+    return value != null || layer.containsKey(key) ? value : parent.get(key);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return parent.containsKey(key) || layer.containsKey(key);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Set<Map.Entry<String, String>> entrySet() {
+    return new AbstractSet<Map.Entry<String, String>>() {
+      @Override
+      public Iterator<Map.Entry<String, String>> iterator() {
+        return new EntryIterator();
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  private final class EntryIterator implements Iterator<Map.Entry<String, String>> {
+    private final Iterator<String> parentKeys = parent.keySet().iterator();
+    private final Iterator<String> layerKeys = layer.keySet().iterator();
+    private String nextKey;
+
+    @Override
+    public boolean hasNext() {
+      if (nextKey != null) {
+        return true;
+      }
+      if (parentKeys.hasNext()) {
+        nextKey = parentKeys.next();
+        return true;
+      }
+      while (layerKeys.hasNext()) {
+        String key = layerKeys.next();
+        if (!parent.containsKey(key)) {
+          nextKey = key;
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public Map.Entry<String, String> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      String key = nextKey;
+      nextKey = null;
+      return new SimpleImmutableEntry<String, String>(key, get(key));
+    }
+  }
+}
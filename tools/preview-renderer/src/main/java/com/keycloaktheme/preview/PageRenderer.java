@@ -5,30 +5,52 @@ import freemarker.cache.MultiTemplateLoader;
 import freemarker.cache.TemplateLoader;
 import freemarker.core.HTMLOutputFormat;
 import freemarker.template.Configuration;
+import freemarker.template.DefaultObjectWrapperBuilder;
+import freemarker.template.ObjectWrapper;
 import freemarker.template.Template;
 import freemarker.template.TemplateExceptionHandler;
 import java.io.IOException;
+import java.io.Reader;
 import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 public final class PageRenderer {
-  private static final Pattern BODY_TAG_PATTERN = Pattern.compile(
-      "(<body\\b)([^>]*)(>)", Pattern.CASE_INSENSITIVE
-  );
-  private static final Pattern DATA_PAGE_ID_ATTR = Pattern.compile(
-      "\\sdata-page-id\\s*=\\s*(['\"])[^'\"]*\\1", Pattern.CASE_INSENSITIVE
-  );
+  // Files probed through the loader chain by the render running on the current thread, hits and misses alike:
+  // a miss in a higher-priority directory becomes a dependency once that file is created.
+  private static final ThreadLocal<Set<String>> LOADED_FILES = new ThreadLocal<Set<String>>();
+  // Shared by every Configuration, so values wrapped inside a ContextModel behave like top-level ones.
+  private static final ObjectWrapper OBJECT_WRAPPER = new DefaultObjectWrapperBuilder(Configuration.VERSION_2_3_32).build();
 
-  private final ContextBuilder contextBuilder;
+  private final RenderMetrics metrics;
+  private final boolean stripScripts;
+  private final RenderBudget budget;
+  private final Map<List<Path>, Configuration> configurations = new ConcurrentHashMap<List<Path>, Configuration>();
 
-  public PageRenderer(ContextBuilder contextBuilder) {
-    this.contextBuilder = contextBuilder;
+  public PageRenderer() {
+    this(null, false);
+  }
+
+  public PageRenderer(RenderMetrics metrics, boolean stripScripts) {
+    this(metrics, stripScripts, null);
+  }
+
+  // Without a budget renders are not timed or capped.
+  public PageRenderer(RenderMetrics metrics, boolean stripScripts, RenderBudget budget) {
+    this.metrics = metrics;
+    this.stripScripts = stripScripts;
+    this.budget = budget;
   }
 
   public String renderPage(
@@ -38,45 +60,148 @@ public final class PageRenderer {
       Path overlayDir,
       Path userOverlayDir,
       VariantLoader.VariantInputs inputs,
-      Map<String, Object> pageContextOverride
+      Map<String, Object> pageContext
   ) throws Exception {
-    Configuration configuration = createConfiguration(overlayDir, userOverlayDir, inputs);
-    Template template = configuration.getTemplate(pageTemplateName);
-    Map<String, Object> model = buildModel(
+    return renderPage(pageTemplateName, pageId, variantId, overlayDir, userOverlayDir, inputs, pageContext, null);
+  }
+
+  public String renderPage(
+      String pageTemplateName,
+      String pageId,
+      String variantId,
+      Path overlayDir,
+      Path userOverlayDir,
+      VariantLoader.VariantInputs inputs,
+      Map<String, Object> pageContext,
+      Set<String> loadedFiles
+  ) throws Exception {
+    RenderMetrics.Span span = metrics == null ? null : metrics.start();
+    ContextModel model = buildModel(
         pageId,
         variantId,
         inputs.getThemeProperties(),
-        inputs.getMessages(),
-        pageContextOverride
+        inputs.getCompiledMessages(),
+        inputs.getLocale(),
+        pageContext
     );
+    span = record(variantId, pageTemplateName, RenderMetrics.CONTEXT, span);
 
+    Configuration configuration = getConfiguration(overlayDir, userOverlayDir, inputs);
     StringWriter writer = new StringWriter();
-    template.process(model, writer);
+    RenderBudget.Watch watch = budget == null ? null : budget.start(variantId + "/" + pageTemplateName);
+    HtmlPostProcessor postProcessor = new HtmlPostProcessor(
+        watch == null ? writer : watch.limit(writer), resolveDataPageId(pageId), stripScripts
+    );
+    try {
+      LOADED_FILES.set(loadedFiles);
+      try {
+        Template template = configuration.getTemplate(pageTemplateName);
+        span = record(variantId, pageTemplateName, RenderMetrics.GET_TEMPLATE, span);
+        template.process(model, postProcessor);
+      } finally {
+        LOADED_FILES.remove();
+        // Failed renders are timed too; a template that throws late can still be the slow one.
+        span = record(variantId, pageTemplateName, RenderMetrics.PROCESS, span);
+      }
+      postProcessor.close();
+    } catch (Exception error) {
+      // Whatever the interrupt surfaced as, report it as the timeout it is.
+      if (watch != null && watch.isTimedOut()) {
+        throw watch.timeout(error);
+      }
+      throw error;
+    } catch (StackOverflowError error) {
+      if (watch != null) {
+        throw watch.stackOverflow(error);
+      }
+      throw error;
+    } finally {
+      if (watch != null) {
+        watch.stop();
+      }
+    }
     String html = writer.toString();
-    html = stripEditorMarkers(html);
-    html = ensureDataPageId(html, pageId);
+    record(variantId, pageTemplateName, RenderMetrics.POST_PROCESS, span);
     return html;
   }
 
-  private Configuration createConfiguration(Path overlayDir, Path userOverlayDir, VariantLoader.VariantInputs inputs) throws IOException {
-    List<TemplateLoader> loaders = new ArrayList<TemplateLoader>();
+  // Reads a page template's source through the variant's loader chain ahead of its render, so the blocking
+  // read overlaps other work. Parsing (and reporting a broken template) is left to the render itself.
+  public void prefetchTemplateSource(
+      String pageTemplateName,
+      Path overlayDir,
+      Path userOverlayDir,
+      VariantLoader.VariantInputs inputs
+  ) {
+    try {
+      TemplateLoader templateLoader = getConfiguration(overlayDir, userOverlayDir, inputs).getTemplateLoader();
+      Object source = templateLoader.findTemplateSource(pageTemplateName);
+      if (source == null) {
+        return;
+      }
+      try (Reader reader = templateLoader.getReader(source, StandardCharsets.UTF_8.name())) {
+        char[] buffer = new char[8192];
+        while (reader.read(buffer) >= 0) {
+        }
+      } finally {
+        templateLoader.closeTemplateSource(source);
+      }
+    } catch (IOException ignored) {
+    }
+  }
+
+  private RenderMetrics.Span record(String variantId, String pageTemplateName, String phase, RenderMetrics.Span span) {
+    return metrics == null ? null : metrics.record(variantId, pageTemplateName, phase, span);
+  }
+
+  // One Configuration per loader chain, so every page and state of a variant (and every variant sharing
+  // the same chain) reuses the parsed layout and macro templates.
+  private Configuration getConfiguration(Path overlayDir, Path userOverlayDir, VariantLoader.VariantInputs inputs) throws IOException {
+    List<Path> loaderDirs = resolveLoaderDirs(overlayDir, userOverlayDir, inputs);
+    Configuration configuration = configurations.get(loaderDirs);
+    if (configuration != null) {
+      return configuration;
+    }
+    configuration = createConfiguration(loaderDirs);
+    Configuration existing = configurations.putIfAbsent(loaderDirs, configuration);
+    return existing == null ? configuration : existing;
+  }
+
+  private List<Path> resolveLoaderDirs(Path overlayDir, Path userOverlayDir, VariantLoader.VariantInputs inputs) {
+    List<Path> loaderDirs = new ArrayList<Path>();
     if (userOverlayDir != null && Files.exists(userOverlayDir)) {
-      loaders.add(new FileTemplateLoader(userOverlayDir.toFile()));
+      loaderDirs.add(userOverlayDir.toAbsolutePath().normalize());
     }
     if (overlayDir != null && Files.exists(overlayDir)) {
-      loaders.add(new FileTemplateLoader(overlayDir.toFile()));
+      loaderDirs.add(overlayDir.toAbsolutePath().normalize());
     }
     if (inputs.getLocalOverrideLoginDir() != null && Files.exists(inputs.getLocalOverrideLoginDir())) {
-      loaders.add(new FileTemplateLoader(inputs.getLocalOverrideLoginDir().toFile()));
+      loaderDirs.add(inputs.getLocalOverrideLoginDir().toAbsolutePath().normalize());
     }
-    loaders.add(new FileTemplateLoader(inputs.getBaseThemeLoginDir().toFile()));
+    loaderDirs.add(inputs.getBaseThemeLoginDir().toAbsolutePath().normalize());
     if (Files.exists(inputs.getInheritedBaseLoginDir())
         && !inputs.getInheritedBaseLoginDir().equals(inputs.getBaseThemeLoginDir())) {
-      loaders.add(new FileTemplateLoader(inputs.getInheritedBaseLoginDir().toFile()));
+      loaderDirs.add(inputs.getInheritedBaseLoginDir().toAbsolutePath().normalize());
     }
+    return Collections.unmodifiableList(loaderDirs);
+  }
 
-    Configuration configuration = new Configuration(Configuration.VERSION_2_3_32);
-    configuration.setTemplateLoader(new MultiTemplateLoader(loaders.toArray(new TemplateLoader[0])));
+  private Configuration createConfiguration(List<Path> loaderDirs) throws IOException {
+    List<TemplateLoader> loaders = new ArrayList<TemplateLoader>();
+    for (Path loaderDir : loaderDirs) {
+      loaders.add(new RecordingTemplateLoader(loaderDir));
+    }
+    MultiTemplateLoader templateLoader = new MultiTemplateLoader(loaders.toArray(new TemplateLoader[0]));
+    // Not sticky: a template newly added to a higher-priority directory must win over the cached source.
+    templateLoader.setSticky(false);
+
+    Configuration configuration = budget == null
+        ? new Configuration(Configuration.VERSION_2_3_32)
+        : new InterruptibleConfiguration();
+    configuration.setTemplateLoader(templateLoader);
+    configuration.setObjectWrapper(OBJECT_WRAPPER);
+    // Re-check template sources on every lookup; edited files are re-parsed, unchanged ones stay cached.
+    configuration.setTemplateUpdateDelayMilliseconds(0);
     configuration.setDefaultEncoding("UTF-8");
     configuration.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
     configuration.setLogTemplateExceptions(false);
@@ -86,74 +211,186 @@ public final class PageRenderer {
     return configuration;
   }
 
-  private Map<String, Object> buildModel(
+  private ContextModel buildModel(
       String pageId,
       String variantId,
       Map<String, String> properties,
-      Map<String, String> messages,
-      Map<String, Object> pageContextOverride
+      ContextObjects.CompiledMessages messages,
+      String locale,
+      Map<String, Object> pageContext
   ) {
-    Map<String, Object> model = contextBuilder.deepCopyMap(pageContextOverride);
-    model.put("properties", properties);
-    model.put("msg", new ContextObjects.MessageMethod(messages));
-    model.put("advancedMsg", new ContextObjects.AdvancedMessageMethod(messages));
-    model.put("kcSanitize", new ContextObjects.PassthroughMethod());
-    model.put("pageId", pageId.replace(".html", ""));
-
-    Object urlValue = model.get("url");
+    ContextModel model = new ContextModel(pageContext, OBJECT_WRAPPER)
+        .put("properties", properties)
+        .put("msg", new ContextObjects.MessageMethod(messages))
+        .put("advancedMsg", new ContextObjects.AdvancedMessageMethod(messages))
+        .put("kcSanitize", new ContextObjects.PassthroughMethod())
+        .put("pageId", pageId.replace(".html", ""));
+
+    Object urlValue = pageContext.get("url");
     if (urlValue instanceof Map) {
       @SuppressWarnings("unchecked")
       Map<String, Object> rawUrl = (Map<String, Object>) urlValue;
-      rawUrl.put("resourcesPath", resolveVariantResourcesPath(variantId));
+      model.put("url", new ContextModel(rawUrl, OBJECT_WRAPPER).put("resourcesPath", resolveVariantResourcesPath(variantId)));
     }
 
-    Object messagesPerFieldValue = model.get("messagesPerField");
+    Object messagesPerFieldValue = pageContext.get("messagesPerField");
     if (messagesPerFieldValue instanceof Map) {
       @SuppressWarnings("unchecked")
       Map<String, Object> rawMessagesPerField = (Map<String, Object>) messagesPerFieldValue;
       model.put("messagesPerField", ContextObjects.MessagesPerFieldContext.fromMap(rawMessagesPerField));
-    } else if (!(messagesPerFieldValue instanceof ContextObjects.MessagesPerFieldContext)) {
+    } else {
       model.put("messagesPerField", new ContextObjects.MessagesPerFieldContext());
     }
 
-    Object authValue = model.get("auth");
+    Object authValue = pageContext.get("auth");
     if (authValue instanceof Map) {
       @SuppressWarnings("unchecked")
       Map<String, Object> rawAuth = (Map<String, Object>) authValue;
       model.put("auth", ContextObjects.AuthContext.fromMap(rawAuth));
-    } else if (!(authValue instanceof ContextObjects.AuthContext)) {
+    } else {
       model.put("auth", new ContextObjects.AuthContext());
     }
 
-    Object totpValue = model.get("totp");
+    Object totpValue = pageContext.get("totp");
     if (totpValue instanceof Map) {
       @SuppressWarnings("unchecked")
       Map<String, Object> rawTotp = (Map<String, Object>) totpValue;
-      rawTotp.put("policy", new ContextObjects.TotpPolicyContext());
+      model.put("totp", new ContextModel(rawTotp, OBJECT_WRAPPER).put("policy", new ContextObjects.TotpPolicyContext()));
+    }
+
+    // The mocks describe an English session; for other locales the page declares the rendered language.
+    if (!locale.equals(VariantLoader.DEFAULT_LOCALE)) {
+      model.put("lang", locale);
+      Object localeValue = pageContext.get("locale");
+      if (localeValue instanceof Map) {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> rawLocale = (Map<String, Object>) localeValue;
+        model.put("locale", new ContextModel(rawLocale, OBJECT_WRAPPER)
+            .put("currentLanguageTag", locale)
+            .put("current", resolveLocaleLabel(rawLocale, locale)));
+      }
     }
 
     return model;
   }
 
-  private String ensureDataPageId(String html, String pageId) {
-    String expectedId = "login-" + pageId.replaceAll("\\.html$", "");
-    Matcher bodyMatcher = BODY_TAG_PATTERN.matcher(html);
-    if (!bodyMatcher.find()) {
-      return html;
+  // Label of the locale in the mock's supported list, or the tag itself when it is not listed.
+  private String resolveLocaleLabel(Map<String, Object> rawLocale, String locale) {
+    Object supported = rawLocale.get("supported");
+    if (supported instanceof List) {
+      for (Object entry : (List<?>) supported) {
+        if (entry instanceof Map && locale.equals(((Map<?, ?>) entry).get("languageTag"))) {
+          Object label = ((Map<?, ?>) entry).get("label");
+          return label == null ? locale : String.valueOf(label);
+        }
+      }
     }
-    String attrs = bodyMatcher.group(2);
-    // Strip any existing data-page-id attribute
-    String cleanedAttrs = DATA_PAGE_ID_ATTR.matcher(attrs).replaceAll("");
-    String replacement = bodyMatcher.group(1) + cleanedAttrs + " data-page-id=\"" + expectedId + "\"" + bodyMatcher.group(3);
-    return bodyMatcher.replaceFirst(Matcher.quoteReplacement(replacement));
+    return locale;
   }
 
-  private String stripEditorMarkers(String html) {
-    return html
-        .replaceAll("\\sdata-editor-[\\w-]+=(\"[^\"]*\"|'[^']*')", "");
+  private String resolveDataPageId(String pageId) {
+    return "login-" + (pageId.endsWith(".html") ? pageId.substring(0, pageId.length() - ".html".length()) : pageId);
   }
 
   private String resolveVariantResourcesPath(String variantId) {
     return "/keycloak-dev-resources/themes/" + variantId + "/login/resources";
   }
+
+  // Adds FreeMarker's thread-interruption checks to each template the first time it is handed out, including
+  // templates pulled in by #import and #include, so the budget watchdog can also stop loops that print nothing.
+  // A template is instrumented before any thread can process it.
+  //
+  // The checks are only reachable through freemarker.core._CoreAPI, which FreeMarker marks as internal and may
+  // change in any release (the pom pins the version for that reason). The method is looked up reflectively;
+  // when it is missing, renders are still stopped by the output writer's deadline and size checks, just not
+  // inside loops that print nothing.
+  private static final class InterruptibleConfiguration extends Configuration {
+    private static final Method ADD_INTERRUPTED_CHECKS = findAddThreadInterruptedChecks();
+
+    private final Set<Template> instrumented = Collections.newSetFromMap(new WeakHashMap<Template, Boolean>());
+
+    private InterruptibleConfiguration() {
+      super(Configuration.VERSION_2_3_32);
+    }
+
+    @Override
+    public Template getTemplate(
+        String name,
+        Locale locale,
+        Object customLookupCondition,
+        String encoding,
+        boolean parseAsFTL,
+        boolean ignoreMissing
+    ) throws IOException {
+      Template template = super.getTemplate(name, locale, customLookupCondition, encoding, parseAsFTL, ignoreMissing);
+      if (template != null) {
+        synchronized (instrumented) {
+          if (ADD_INTERRUPTED_CHECKS != null && instrumented.add(template)) {
+            addThreadInterruptedChecks(template);
+          }
+        }
+      }
+      return template;
+    }
+
+    private static void addThreadInterruptedChecks(Template template) throws IOException {
+      try {
+        ADD_INTERRUPTED_CHECKS.invoke(null, template);
+      } catch (IllegalAccessException error) {
+        throw new IllegalStateException(error);
+      } catch (InvocationTargetException error) {
+        Throwable cause = error.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw new IOException("Could not add interruption checks to " + template.getName(), cause);
+      }
+    }
+
+    private static Method findAddThreadInterruptedChecks() {
+      try {
+        return Class.forName("freemarker.core._CoreAPI").getMethod("addThreadInterruptedChecks", Template.class);
+      } catch (ReflectiveOperationException | LinkageError error) {
+        System.err.println("Warning: this FreeMarker version has no _CoreAPI.addThreadInterruptedChecks; "
+            + "render timeouts only stop templates that write output.");
+        return null;
+      }
+    }
+  }
+
+  // The template update delay is 0, so every getTemplate, #import and #include goes through
+  // findTemplateSource even when the parsed template is already cached.
+  private static final class RecordingTemplateLoader implements TemplateLoader {
+    private final Path loaderDir;
+    private final FileTemplateLoader delegate;
+
+    private RecordingTemplateLoader(Path loaderDir) throws IOException {
+      this.loaderDir = loaderDir;
+      this.delegate = new FileTemplateLoader(loaderDir.toFile());
+    }
+
+    @Override
+    public Object findTemplateSource(String name) throws IOException {
+      Set<String> loadedFiles = LOADED_FILES.get();
+      if (loadedFiles != null) {
+        loadedFiles.add(loaderDir.resolve(name).normalize().toString());
+      }
+      return delegate.findTemplateSource(name);
+    }
+
+    @Override
+    public long getLastModified(Object templateSource) {
+      return delegate.getLastModified(templateSource);
+    }
+
+    @Override
+    public Reader getReader(Object templateSource, String encoding) throws IOException {
+      return delegate.getReader(templateSource, encoding);
+    }
+
+    @Override
+    public void closeTemplateSource(Object templateSource) throws IOException {
+      delegate.closeTemplateSource(templateSource);
+    }
+  }
 }
@@ -0,0 +1,132 @@
+package com.keycloaktheme.preview;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Streams the pages.json envelope one page at a time, so rendered HTML can be dropped once written.
+// Output goes to a sibling temp file that replaces pages.json only after the document is complete.
+// With dedup, a state whose HTML was already written becomes {"$ref": [variant, page, state]} pointing at the
+// first occurrence; only content hashes are kept, so deduplication does not hold rendered HTML either.
+// With compress, the JSON is written compact, with pages.json.gz and pages.json.sha256 beside it (see
+// PrecompressedOutput). The same envelope is written in CBOR when objectMapper reads and writes it (see
+// OutputFormat); binary output is never pretty-printed.
+public final class PagesJsonWriter implements PagesWriter {
+  private final Path outputPath;
+  private final Path tempPath;
+  private final JsonGenerator generator;
+  private final PrecompressedOutput compressed;
+  private final boolean pretty;
+  private final Map<String, List<String>> firstOccurrences;
+  private String openVariantId;
+  private boolean finished;
+
+  public PagesJsonWriter(ObjectMapper objectMapper, Path outputPath, String keycloakTag, boolean dedup) throws IOException {
+    this(objectMapper, outputPath, keycloakTag, dedup, false);
+  }
+
+  public PagesJsonWriter(
+      ObjectMapper objectMapper,
+      Path outputPath,
+      String keycloakTag,
+      boolean dedup,
+      boolean compress
+  ) throws IOException {
+    Files.createDirectories(outputPath.toAbsolutePath().getParent());
+    this.outputPath = outputPath;
+    this.firstOccurrences = dedup ? new HashMap<String, List<String>>() : null;
+    this.tempPath = outputPath.resolveSibling(outputPath.getFileName() + ".tmp");
+    this.compressed = compress ? new PrecompressedOutput(tempPath) : null;
+    this.generator = objectMapper.getFactory().createGenerator(
+        compress ? compressed : Files.newOutputStream(tempPath), JsonEncoding.UTF8
+    );
+    this.pretty = !compress && JsonFactory.FORMAT_NAME_JSON.equals(objectMapper.getFactory().getFormatName());
+    if (pretty) {
+      generator.useDefaultPrettyPrinter();
+    }
+    generator.writeStartObject();
+    generator.writeStringField("generatedAt", Instant.now().toString());
+    generator.writeStringField("keycloakTag", keycloakTag);
+    generator.writeObjectFieldStart("variants");
+  }
+
+  // A variant's object is opened by its first page.
+  @Override
+  public void writePage(String variantId, String pageId, Map<String, String> states) throws IOException {
+    if (!variantId.equals(openVariantId)) {
+      if (openVariantId != null) {
+        generator.writeEndObject();
+      }
+      generator.writeObjectFieldStart(variantId);
+      openVariantId = variantId;
+    }
+    generator.writeObjectFieldStart(pageId);
+    for (Map.Entry<String, String> state : states.entrySet()) {
+      if (firstOccurrences != null) {
+        String contentHash = RenderIndex.sha256(state.getValue().getBytes(StandardCharsets.UTF_8));
+        List<String> firstOccurrence = firstOccurrences.get(contentHash);
+        if (firstOccurrence != null) {
+          generator.writeObjectFieldStart(state.getKey());
+          generator.writeArrayFieldStart("$ref");
+          for (String part : firstOccurrence) {
+            generator.writeString(part);
+          }
+          generator.writeEndArray();
+          generator.writeEndObject();
+          continue;
+        }
+        firstOccurrences.put(contentHash, Arrays.asList(variantId, pageId, state.getKey()));
+      }
+      generator.writeStringField(state.getKey(), state.getValue());
+    }
+    generator.writeEndObject();
+  }
+
+  @Override
+  public void finish() throws IOException {
+    if (openVariantId != null) {
+      generator.writeEndObject();
+    }
+    generator.writeEndObject();
+    generator.writeEndObject();
+    if (pretty) {
+      generator.writeRaw('\n');
+    }
+    generator.close();
+    finished = true;
+    if (compressed != null) {
+      compressed.publish(outputPath);
+      return;
+    }
+    PrecompressedOutput.deleteSidecars(outputPath);
+    try {
+      Files.move(tempPath, outputPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException error) {
+      Files.move(tempPath, outputPath, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (finished) {
+      return;
+    }
+    generator.close();
+    if (compressed != null) {
+      compressed.discard();
+    }
+    Files.deleteIfExists(tempPath);
+  }
+}
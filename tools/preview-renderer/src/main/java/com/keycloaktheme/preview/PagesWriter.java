@@ -0,0 +1,12 @@
+package com.keycloaktheme.preview;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+// Sink for rendered pages. Pages arrive grouped by variant, in render order; nothing is published until finish().
+public interface PagesWriter extends Closeable {
+  void writePage(String variantId, String pageId, Map<String, String> states) throws IOException;
+
+  void finish() throws IOException;
+}
@@ -0,0 +1,109 @@
+package com.keycloaktheme.preview;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPOutputStream;
+
+// Writes an artifact, a gzip copy of it (<file>.gz) and the SHA-256 of its uncompressed bytes in one pass, so
+// a server can send the .gz with Content-Encoding: gzip and the hash as a strong ETag without compressing or
+// hashing per request. Everything goes to temp siblings first; publish() moves the artifact into place first
+// and the hash last, so a new hash never appears before the artifact it describes. Between the moves the old
+// hash still sits next to the new artifact, so a server should tag the bytes it actually sends.
+public final class PrecompressedOutput extends OutputStream {
+  public static final String GZIP_SUFFIX = ".gz";
+  public static final String HASH_SUFFIX = ".sha256";
+
+  private final Path tempPath;
+  private final Path gzipTempPath;
+  private final OutputStream plain;
+  private final GZIPOutputStream gzip;
+  private final MessageDigest digest;
+  private String hash;
+
+  public PrecompressedOutput(Path tempPath) throws IOException {
+    this.tempPath = tempPath;
+    this.gzipTempPath = tempPath.resolveSibling(tempPath.getFileName() + GZIP_SUFFIX);
+    try {
+      this.digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException error) {
+      throw new IllegalStateException("SHA-256 not available", error);
+    }
+    this.plain = Files.newOutputStream(tempPath);
+    this.gzip = new GZIPOutputStream(Files.newOutputStream(gzipTempPath), 64 * 1024);
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    plain.write(b);
+    gzip.write(b);
+    digest.update((byte) b);
+  }
+
+  @Override
+  public void write(byte[] buffer, int offset, int length) throws IOException {
+    plain.write(buffer, offset, length);
+    gzip.write(buffer, offset, length);
+    digest.update(buffer, offset, length);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    plain.flush();
+    gzip.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (hash != null) {
+      return;
+    }
+    hash = RenderIndex.toHex(digest.digest());
+    try {
+      plain.close();
+    } finally {
+      gzip.close();
+    }
+  }
+
+  // Only valid once closed.
+  public String getHash() {
+    return hash;
+  }
+
+  // Replaces outputPath and its sidecars with what was written. The stream must be closed.
+  public void publish(Path outputPath) throws IOException {
+    String hash = getHash();
+    Path hashTempPath = tempPath.resolveSibling(tempPath.getFileName() + HASH_SUFFIX);
+    Files.write(hashTempPath, hash.getBytes(StandardCharsets.UTF_8));
+    move(tempPath, outputPath);
+    move(gzipTempPath, outputPath.resolveSibling(outputPath.getFileName() + GZIP_SUFFIX));
+    move(hashTempPath, outputPath.resolveSibling(outputPath.getFileName() + HASH_SUFFIX));
+  }
+
+  public void discard() throws IOException {
+    close();
+    Files.deleteIfExists(tempPath);
+    Files.deleteIfExists(gzipTempPath);
+  }
+
+  // Without compression the sidecars of an earlier compressed run would describe stale content.
+  public static void deleteSidecars(Path outputPath) throws IOException {
+    Files.deleteIfExists(outputPath.resolveSibling(outputPath.getFileName() + GZIP_SUFFIX));
+    Files.deleteIfExists(outputPath.resolveSibling(outputPath.getFileName() + HASH_SUFFIX));
+  }
+
+  private static void move(Path source, Path target) throws IOException {
+    try {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException error) {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+}
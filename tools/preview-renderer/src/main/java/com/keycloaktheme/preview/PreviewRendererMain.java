@@ -6,70 +6,347 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public final class PreviewRendererMain {
-  private final Arguments arguments;
+  private static final String DISCOVERY_INDEX_FILE_NAME = "theme-discovery.json";
+
+  private final RendererArguments arguments;
   private final ObjectMapper objectMapper;
+  private final OutputLayout output;
   private final ContextBuilder contextBuilder;
   private final VariantLoader variantLoader;
   private final PageRenderer pageRenderer;
-
-  private PreviewRendererMain(Arguments arguments) {
+  private final ExecutorService executor;
+  private final ExecutorService ioExecutor;
+  private final RenderCache renderCache;
+  private final RenderMetrics metrics;
+  private final RenderBudget budget;
+  private final ThemeDiscovery themeDiscovery;
+  private final Map<String, RenderSnapshot> previousRenders = new HashMap<String, RenderSnapshot>();
+  // Weak, so inputs VariantLoader has replaced drop out with their hash.
+  private final Map<VariantLoader.VariantInputs, String> inputsHashes = new WeakHashMap<VariantLoader.VariantInputs, String>();
+
+  private PreviewRendererMain(RendererArguments arguments) {
     this.arguments = arguments;
     this.objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    this.output = new OutputLayout(arguments, objectMapper);
     this.contextBuilder = new ContextBuilder(objectMapper);
-    this.variantLoader = new VariantLoader(arguments.overrideRoot);
-    this.pageRenderer = new PageRenderer(contextBuilder);
+    this.ioExecutor = IoExecutors.newIoExecutor();
+    this.variantLoader = new VariantLoader(arguments.overrideRoot, ioExecutor);
+    this.metrics = arguments.metrics ? new RenderMetrics() : null;
+    this.budget = new RenderBudget(arguments.renderTimeoutMillis, arguments.maxPageChars);
+    this.pageRenderer = new PageRenderer(metrics, arguments.stripScripts, budget);
+    this.executor = arguments.threads > 1 ? createExecutor(arguments.threads) : null;
+    this.renderCache = arguments.cacheDir == null ? null : new RenderCache(objectMapper, arguments.cacheDir);
+    this.themeDiscovery = new ThemeDiscovery(
+        objectMapper,
+        arguments.discoveryIgnore,
+        arguments.cacheDir == null ? null : arguments.cacheDir.resolve(DISCOVERY_INDEX_FILE_NAME),
+        ioExecutor != null ? ioExecutor : executor
+    );
   }
 
   public static void main(String[] args) throws Exception {
-    Arguments arguments = Arguments.from(args);
+    run(RendererArguments.from(args, System.getenv()));
+  }
+
+  static void run(RendererArguments arguments) throws Exception {
     PreviewRendererMain renderer = new PreviewRendererMain(arguments);
-    renderer.render();
+    try {
+      if (arguments.serve) {
+        new RendererServer(renderer, arguments, renderer.objectMapper, renderer.contextBuilder, renderer.output)
+            .serve(System.in, System.out);
+        return;
+      }
+      if (arguments.mergeRoots != null) {
+        new ShardMerger(renderer.objectMapper, renderer.output).merge(arguments.mergeRoots);
+        System.out.println("Merged " + arguments.mergeRoots.size() + " shard(s) into " + arguments.outputRoot);
+        return;
+      }
+      renderer.render(arguments.contextMocksPath, arguments.incremental ? arguments.changedFiles : null);
+      System.out.println("Generated preview artifacts in " + arguments.outputRoot);
+    } finally {
+      renderer.close();
+    }
+  }
+
+  private static ExecutorService createExecutor(int threads) {
+    AtomicInteger threadCount = new AtomicInteger();
+    return Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "preview-render-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
   }
 
-  private void render() throws Exception {
+  private void close() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    if (ioExecutor != null) {
+      ioExecutor.shutdownNow();
+    }
+    budget.close();
+  }
+
+  VariantLoader.VariantInputs loadVariantInputs(VariantSpec variant, String locale) throws IOException {
+    return variantLoader.loadVariantInputs(
+        variant.baseThemeDir,
+        arguments.inputRoot.resolve("base"),
+        variant.overlayDir,
+        variant.userOverlayDir,
+        locale
+    );
+  }
+
+  // changedFiles == null renders everything; otherwise pages whose recorded inputs are untouched are reused.
+  void render(Path contextMocksPath, Set<String> changedFiles) throws Exception {
     if (!Files.exists(arguments.inputRoot)) {
       throw new IllegalStateException("Input root not found: " + arguments.inputRoot);
     }
 
-    Map<String, Object> pagesOutput = new LinkedHashMap<String, Object>();
+    if (metrics != null) {
+      metrics.reset();
+    }
+    ContextBuilder.ContextOverrides contextOverrides = contextBuilder.readContextOverrides(contextMocksPath);
 
-    ContextBuilder.ContextOverrides contextOverrides = contextBuilder.readContextOverrides(arguments.contextMocksPath);
+    RenderMetrics.Span discoverySpan = metrics == null ? null : metrics.start();
+    List<VariantSpec> variants = getVariants();
+    if (metrics != null) {
+      metrics.record(null, null, RenderMetrics.DISCOVERY, discoverySpan);
+    }
 
-    for (VariantSpec variant : getVariants()) {
-      VariantLoader.VariantInputs inputs = variantLoader.loadVariantInputs(
-          variant.baseThemeDir,
-          arguments.inputRoot.resolve("base"),
-          variant.overlayDir,
-          variant.userOverlayDir
-      );
+    for (String locale : arguments.locales) {
+      renderLocale(locale, variants, contextOverrides, changedFiles);
+    }
+    output.writeLocalesManifest();
+    if (metrics != null) {
+      metrics.write(objectMapper, arguments.outputRoot.resolve(RenderMetrics.FILE_NAME), arguments.metricsTop);
+    }
+    if (renderCache != null) {
+      int removed = renderCache.prune();
+      if (removed > 0) {
+        System.err.println("Render cache: removed " + removed + " least recently used entries.");
+      }
+    }
+  }
+
+  private void renderLocale(
+      String locale,
+      List<VariantSpec> variants,
+      ContextBuilder.ContextOverrides contextOverrides,
+      Set<String> changedFiles
+  ) throws Exception {
+    Path outputRoot = output.getRoot(locale);
+    Map<String, RenderIndex.VariantEntry> indexEntries = new LinkedHashMap<String, RenderIndex.VariantEntry>();
+    RenderSnapshot previous = changedFiles == null ? null : loadPreviousRender(locale);
+
+    List<Future<VariantLoader.VariantInputs>> pendingInputs = new ArrayList<Future<VariantLoader.VariantInputs>>();
+    for (VariantSpec variant : variants) {
+      pendingInputs.add(submitIo(() -> {
+        RenderMetrics.Span span = metrics == null ? null : metrics.start();
+        VariantLoader.VariantInputs inputs = loadVariantInputs(variant, locale);
+        if (metrics != null) {
+          metrics.record(variant.id, null, RenderMetrics.LOAD_INPUTS, span);
+        }
+        return inputs;
+      }));
+    }
+
+    // Pages are scheduled a few ahead of the writer and collected in order, so the output stays deterministic.
+    List<VariantRenderJob> variantJobs = new ArrayList<VariantRenderJob>();
+    List<PageRenderJob> pageQueue = new ArrayList<PageRenderJob>();
+    Map<String, List<String>> workList = new LinkedHashMap<String, List<String>>();
+    for (int i = 0; i < variants.size(); i++) {
+      VariantSpec variant = variants.get(i);
+      VariantLoader.VariantInputs inputs = await(pendingInputs.get(i));
       if (inputs == null) {
         continue;
       }
+      List<String> pageIds = new ArrayList<String>();
+      for (String pageTemplate : inputs.getPageTemplates()) {
+        pageIds.add(pageTemplate.replace(".ftl", ".html"));
+      }
+      workList.put(variant.id, pageIds);
+
+      String sources = describeSources(variant, locale);
+      String inputsHash = hashInputs(inputs);
+      RenderIndex.VariantEntry previousEntry = previous == null ? null : previous.index.getVariants().get(variant.id);
+      if (previousEntry != null
+          && (!sources.equals(previousEntry.getSources()) || !inputsHash.equals(previousEntry.getInputsHash()))) {
+        previousEntry = null;
+      }
+      Map<String, Map<String, String>> previousPages = previousEntry == null ? null : previous.variants.get(variant.id);
+
+      VariantRenderJob job = new VariantRenderJob(variant, sources, inputsHash, prepareVariantPages(
+          variant, inputs, sources, inputsHash, contextOverrides, previousEntry, previousPages, changedFiles
+      ));
+      variantJobs.add(job);
+      pageQueue.addAll(job.pages);
+      prefetchTemplateSources(variant, inputs, job.pages);
+    }
+
+    boolean keepSnapshot = arguments.serve || arguments.incremental;
+    Map<String, Map<String, Map<String, String>>> pagesOutput = new LinkedHashMap<String, Map<String, Map<String, String>>>();
+    int lookahead = executor == null ? 0 : arguments.threads * 2;
+    int started = 0;
+    int collected = 0;
+    int reusedPages = 0;
+    int cachedPages = 0;
+    try (PagesWriter writer = output.openPagesWriter(outputRoot)) {
+      for (VariantRenderJob job : variantJobs) {
+        Map<String, Map<String, String>> variantPages = new LinkedHashMap<String, Map<String, String>>();
+        List<String> skippedTemplates = new ArrayList<String>();
+        Map<String, RenderIndex.PageEntry> pageEntries = new LinkedHashMap<String, RenderIndex.PageEntry>();
+
+        for (PageRenderJob page : job.pages) {
+          while (started < pageQueue.size() && started <= collected + lookahead) {
+            start(pageQueue.get(started++));
+          }
 
-      VariantRenderResult result = renderVariantPages(variant, inputs, contextOverrides);
-      logSkippedTemplates(variant.id, result.skippedTemplates);
+          Map<String, String> pageStates;
+          RenderIndex.PageEntry pageEntry;
+          if (page.reused != null) {
+            pageStates = page.reusedStates;
+            pageEntry = page.reused;
+            reusedPages++;
+          } else if (page.cached != null) {
+            pageStates = page.cached.getStates();
+            pageEntry = new RenderIndex.PageEntry(
+                new TreeSet<String>(page.cached.getFiles().keySet()), page.mockHashes, page.cached.getSkipped()
+            );
+            cachedPages++;
+          } else {
+            List<String> pageSkipped = new ArrayList<String>();
+            pageStates = collectPageWithStates(page, pageSkipped);
+            pageEntry = new RenderIndex.PageEntry(new TreeSet<String>(page.loadedFiles), page.mockHashes, pageSkipped);
+            if (page.cacheKey != null && !page.budgetExceeded) {
+              renderCache.store(page.cacheKey, pageEntry.getFiles(), pageStates, pageSkipped);
+            }
+          }
+          page.release();
+          collected++;
 
-      if (!result.variantPages.isEmpty()) {
-        pagesOutput.put(variant.id, result.variantPages);
+          skippedTemplates.addAll(pageEntry.getSkipped());
+          // A budget overrun depends on the machine's load, so the page is rendered again next time.
+          if (!page.budgetExceeded) {
+            pageEntries.put(page.pageTemplate, pageEntry);
+          }
+          if (pageStates != null && !pageStates.isEmpty()) {
+            RenderMetrics.Span outputSpan = metrics == null ? null : metrics.start();
+            writer.writePage(job.variant.id, page.pageId, pageStates);
+            if (metrics != null) {
+              metrics.record(job.variant.id, page.pageTemplate, RenderMetrics.OUTPUT, outputSpan);
+            }
+            if (keepSnapshot) {
+              variantPages.put(page.pageId, pageStates);
+            }
+          }
+        }
+
+        logSkippedTemplates(describeVariant(job.variant, locale), skippedTemplates);
+        if (!variantPages.isEmpty()) {
+          pagesOutput.put(job.variant.id, variantPages);
+        }
+        indexEntries.put(job.variant.id, new RenderIndex.VariantEntry(job.sources, job.inputsHash, pageEntries));
       }
+      RenderMetrics.Span finishSpan = metrics == null ? null : metrics.start();
+      writer.finish();
+      if (metrics != null) {
+        metrics.record(null, null, RenderMetrics.OUTPUT, finishSpan);
+      }
+    }
+
+    String localeSuffix = arguments.locales.size() > 1 ? " [" + locale + "]" : "";
+    if (changedFiles != null) {
+      System.err.println("Incremental render" + localeSuffix + ": reused " + reusedPages + " of " + pageQueue.size() + " page(s)"
+          + (previous == null ? " (no previous render found)." : "."));
+    }
+    if (renderCache != null) {
+      System.err.println("Render cache" + localeSuffix + ": " + cachedPages + " of " + (pageQueue.size() - reusedPages)
+          + " page(s) served from " + arguments.cacheDir);
+    }
+    logNearBudget(localeSuffix);
+
+    RenderIndex index = new RenderIndex(indexEntries);
+    if (keepSnapshot) {
+      previousRenders.put(locale, new RenderSnapshot(index, pagesOutput));
+    } else {
+      previousRenders.remove(locale);
+    }
+    if (arguments.incremental) {
+      index.write(objectMapper, outputRoot.resolve(RenderIndex.FILE_NAME));
+    }
+    if (arguments.shard != null) {
+      arguments.shard.write(objectMapper, outputRoot, locale, workList);
+    } else {
+      Files.deleteIfExists(outputRoot.resolve(RenderShard.FILE_NAME));
+    }
+  }
+
+  // A fresh process only has render-index.json; the published pages file may have been rewritten by the caller.
+  private RenderSnapshot loadPreviousRender(String locale) {
+    RenderSnapshot previousRender = previousRenders.get(locale);
+    if (previousRender != null) {
+      return previousRender;
+    }
+    RenderIndex index = RenderIndex.read(objectMapper, output.getRoot(locale).resolve(RenderIndex.FILE_NAME));
+    return index == null
+        ? null
+        : new RenderSnapshot(index, Collections.<String, Map<String, Map<String, String>>>emptyMap());
+  }
+
+  private String hashInputs(VariantLoader.VariantInputs inputs) {
+    String hash = inputsHashes.get(inputs);
+    if (hash == null) {
+      hash = RenderIndex.hash(objectMapper, Arrays.asList(
+          inputs.getThemeProperties(), inputs.getMessages(), inputs.getPageTemplates()
+      ));
+      inputsHashes.put(inputs, hash);
+    }
+    return hash;
+  }
+
+  // Any change to the directories a variant is assembled from invalidates the whole variant.
+  private String describeSources(VariantSpec variant, String locale) {
+    StringBuilder sources = new StringBuilder();
+    for (Path dir : Arrays.asList(variant.baseThemeDir, variant.overlayDir, variant.userOverlayDir)) {
+      sources.append(dir == null ? "-" : dir.toAbsolutePath().normalize() + (Files.exists(dir) ? "" : "(missing)")).append('|');
+    }
+    if (arguments.stripScripts) {
+      sources.append("strip-scripts|");
+    }
+    if (!locale.equals(VariantLoader.DEFAULT_LOCALE)) {
+      sources.append("locale=").append(locale).append('|');
     }
+    return sources.toString();
+  }
 
-    writeOutputs(pagesOutput);
-    System.out.println("Generated preview artifacts in " + arguments.outputRoot);
+  private String describeVariant(VariantSpec variant, String locale) {
+    return arguments.locales.size() > 1 ? variant.id + " [" + locale + "]" : variant.id;
   }
 
-  private List<VariantSpec> getVariants() throws IOException {
-    Map<String, Path> availableThemeDirs = discoverAvailableThemeDirs();
+  List<VariantSpec> getVariants() throws IOException {
+    List<Path> userThemeDirs = themeDiscovery.discover(arguments.userThemeRoot);
+    Map<String, Path> availableThemeDirs = discoverAvailableThemeDirs(userThemeDirs);
 
     List<VariantSpec> variants = new ArrayList<VariantSpec>(Arrays.asList(
         new VariantSpec("base", resolveBaseThemeDir("base", availableThemeDirs), null, null),
@@ -78,7 +355,7 @@ public final class PreviewRendererMain {
         new VariantSpec("horizontal-card", resolveBaseThemeDir("base", availableThemeDirs), arguments.presetRoot.resolve("horizontal-card").resolve("login"), null)
     ));
 
-    for (Path userThemeDir : arguments.userThemeDirs) {
+    for (Path userThemeDir : userThemeDirs) {
       Path userLogin = userThemeDir.resolve("login");
       Path userThemeProps = userLogin.resolve("theme.properties");
       String parentTheme = "base";
@@ -116,12 +393,12 @@ public final class PreviewRendererMain {
     return variants;
   }
 
-  private Map<String, Path> discoverAvailableThemeDirs() throws IOException {
+  private Map<String, Path> discoverAvailableThemeDirs(List<Path> userThemeDirs) throws IOException {
     Map<String, Path> result = new LinkedHashMap<String, Path>();
     addThemeDirsFromRoot(arguments.inputRoot, result);
     addThemeDirsFromRoot(arguments.overrideRoot, result);
-    for (Path userThemeDir : arguments.userThemeDirs) {
-      addThemeDir(userThemeDir, result);
+    for (Path userThemeDir : userThemeDirs) {
+      result.putIfAbsent(userThemeDir.getFileName().toString(), userThemeDir);
     }
     return result;
   }
@@ -198,90 +475,216 @@ public final class PreviewRendererMain {
     return suffix.isEmpty() ? "base" : suffix;
   }
 
-  private VariantRenderResult renderVariantPages(
+  private List<PageRenderJob> prepareVariantPages(
       VariantSpec variant,
       VariantLoader.VariantInputs inputs,
-      ContextBuilder.ContextOverrides contextOverrides
+      String sources,
+      String inputsHash,
+      ContextBuilder.ContextOverrides contextOverrides,
+      RenderIndex.VariantEntry previousEntry,
+      Map<String, Map<String, String>> previousPages,
+      Set<String> changedFiles
   ) {
-    Map<String, Map<String, String>> variantPages = new LinkedHashMap<String, Map<String, String>>();
-    List<String> skippedTemplates = new ArrayList<String>();
-
+    List<PageRenderJob> jobs = new ArrayList<PageRenderJob>();
     for (String pageTemplate : inputs.getPageTemplates()) {
+      if (arguments.shard != null && !arguments.shard.owns(variant.id, pageTemplate)) {
+        continue;
+      }
       String pageId = pageTemplate.replace(".ftl", ".html");
-
-      Map<String, String> pageStates = renderPageWithStates(
-          variant, inputs, contextOverrides, pageTemplate, pageId, skippedTemplates
-      );
-
-      if (pageStates != null && !pageStates.isEmpty()) {
-        variantPages.put(pageId, pageStates);
+      Map<String, String> mockHashes = hashPageMocks(contextOverrides, pageTemplate);
+
+      RenderIndex.PageEntry previousPage = previousEntry == null ? null : previousEntry.getPages().get(pageTemplate);
+      Map<String, String> previousStates = previousPages == null ? null : previousPages.get(pageId);
+      boolean reusable = previousPage != null
+          && previousPage.getMocks().equals(mockHashes)
+          && !previousPage.dependsOnAny(changedFiles)
+          && (previousStates != null || !previousPage.getSkipped().isEmpty());
+      if (reusable) {
+        jobs.add(new PageRenderJob(pageTemplate, pageId, previousStates, previousPage));
+      } else {
+        String cacheKey = renderCache == null
+            ? null
+            : renderCache.key(variant.id, sources, inputsHash, pageTemplate, pageId, mockHashes);
+        jobs.add(preparePageWithStates(variant, inputs, contextOverrides, pageTemplate, pageId, mockHashes, cacheKey));
       }
     }
+    return jobs;
+  }
 
-    return new VariantRenderResult(variantPages, skippedTemplates);
+  private Map<String, String> hashPageMocks(ContextBuilder.ContextOverrides contextOverrides, String pageTemplate) {
+    Map<String, String> hashes = new LinkedHashMap<String, String>();
+    Map<String, Map<String, Object>> pages = contextOverrides.getPages();
+    Map<String, Object> ownMock = pages.get(pageTemplate);
+    hashes.put(pageTemplate, RenderIndex.hash(objectMapper, ownMock));
+    if ((ownMock == null || ownMock.isEmpty()) && !pageTemplate.equals("login.ftl")) {
+      hashes.put("login.ftl", RenderIndex.hash(objectMapper, pages.get("login.ftl")));
+    }
+    String stateKeyPrefix = pageTemplate + "@";
+    for (Map.Entry<String, Map<String, Object>> page : pages.entrySet()) {
+      if (page.getKey().startsWith(stateKeyPrefix)) {
+        hashes.put(page.getKey(), RenderIndex.hash(objectMapper, page.getValue()));
+      }
+    }
+    return hashes;
   }
 
-  private Map<String, String> renderPageWithStates(
+  private PageRenderJob preparePageWithStates(
       VariantSpec variant,
       VariantLoader.VariantInputs inputs,
       ContextBuilder.ContextOverrides contextOverrides,
       String pageTemplate,
       String pageId,
-      List<String> skippedTemplates
+      Map<String, String> mockHashes,
+      String cacheKey
   ) {
-    Map<String, Object> defaultContext = contextBuilder.buildPageContextOverride(contextOverrides, pageTemplate);
-    // If no page-specific mock exists, fall back to the login page context.
-    // Most custom pages extend the login template and need url, realm, etc.
-    if (defaultContext.isEmpty() && !pageTemplate.equals("login.ftl")) {
-      defaultContext = contextBuilder.buildPageContextOverride(contextOverrides, "login.ftl");
+    Set<String> loadedFiles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    FutureTask<String> defaultHtml = new FutureTask<String>(() -> {
+      RenderMetrics.Span span = metrics == null ? null : metrics.start();
+      Map<String, Object> defaultContext = contextBuilder.getDefaultPageContext(contextOverrides, pageTemplate);
+      if (metrics != null) {
+        metrics.record(variant.id, pageTemplate, RenderMetrics.CONTEXT, span);
+      }
+      return renderPage(variant, inputs, pageTemplate, pageId, defaultContext, loadedFiles);
+    });
+
+    Map<String, FutureTask<String>> stateHtml = new LinkedHashMap<String, FutureTask<String>>();
+    for (String state : contextOverrides.getStates(pageTemplate)) {
+      String pageKey = pageTemplate + "@" + state;
+      stateHtml.put(state, new FutureTask<String>(() -> {
+        RenderMetrics.Span span = metrics == null ? null : metrics.start();
+        Map<String, Object> stateContext = contextBuilder.getPageContext(contextOverrides, pageKey);
+        if (metrics != null) {
+          metrics.record(variant.id, pageTemplate, RenderMetrics.CONTEXT, span);
+        }
+        return renderPage(variant, inputs, pageTemplate, pageId, stateContext, loadedFiles);
+      }));
     }
 
+    return new PageRenderJob(pageTemplate, pageId, defaultHtml, stateHtml, loadedFiles, mockHashes, cacheKey);
+  }
+
+  String renderPage(
+      VariantSpec variant,
+      VariantLoader.VariantInputs inputs,
+      String pageTemplate,
+      String pageId,
+      Map<String, Object> context,
+      Set<String> loadedFiles
+  ) throws Exception {
+    return pageRenderer.renderPage(
+        pageTemplate, pageId, variant.id, variant.overlayDir, variant.userOverlayDir, inputs, context, loadedFiles
+    );
+  }
+
+  private Map<String, String> collectPageWithStates(PageRenderJob job, List<String> skippedTemplates)
+      throws InterruptedException {
     String defaultHtml;
     try {
-      defaultHtml = pageRenderer.renderPage(
-          pageTemplate, pageId, variant.id, variant.overlayDir, variant.userOverlayDir, inputs, defaultContext
-      );
+      defaultHtml = await(job.defaultHtml);
+    } catch (InterruptedException error) {
+      throw error;
     } catch (Exception error) {
-      skippedTemplates.add(pageTemplate + ": " + summarizeError(error));
+      job.budgetExceeded |= isBudgetExceeded(error);
+      skippedTemplates.add(job.pageTemplate + ": " + summarizeError(error));
       return null;
     }
 
     if (defaultHtml.trim().isEmpty()) {
-      skippedTemplates.add(pageTemplate + ": renders empty output (macro-only template)");
+      skippedTemplates.add(job.pageTemplate + ": renders empty output (macro-only template)");
       return null;
     }
 
     Map<String, String> states = new LinkedHashMap<String, String>();
     states.put("default", defaultHtml);
 
-    String stateKeyPrefix = pageTemplate + "@";
-    for (String pageKey : contextOverrides.getPages().keySet()) {
-      if (!pageKey.startsWith(stateKeyPrefix)) {
-        continue;
-      }
-      String stateId = pageKey.substring(stateKeyPrefix.length());
+    for (Map.Entry<String, FutureTask<String>> state : job.stateHtml.entrySet()) {
       try {
-        Map<String, Object> stateContext = contextBuilder.buildPageContextOverride(contextOverrides, pageKey);
-        String stateHtml = pageRenderer.renderPage(
-            pageTemplate, pageId, variant.id, variant.overlayDir, variant.userOverlayDir, inputs, stateContext
-        );
+        String stateHtml = await(state.getValue());
         if (!stateHtml.trim().isEmpty()) {
-          states.put(stateId, stateHtml);
+          states.put(state.getKey(), stateHtml);
         }
+      } catch (InterruptedException stateError) {
+        throw stateError;
       } catch (Exception stateError) {
-        skippedTemplates.add(pageTemplate + "/" + stateId + ": " + summarizeError(stateError));
+        job.budgetExceeded |= isBudgetExceeded(stateError);
+        skippedTemplates.add(job.pageTemplate + "/" + state.getKey() + ": " + summarizeError(stateError));
       }
     }
 
     return states;
   }
 
-  private void logSkippedTemplates(String variantId, List<String> skippedTemplates) {
+  // Without a pool the page's tasks run inline just before it is collected, so the sequential path streams too.
+  private void start(PageRenderJob job) {
+    if (job.reused != null) {
+      return;
+    }
+    if (job.cacheKey != null) {
+      job.cached = renderCache.lookup(job.cacheKey);
+      if (job.cached != null) {
+        return;
+      }
+    }
+    List<FutureTask<String>> tasks = new ArrayList<FutureTask<String>>();
+    tasks.add(job.defaultHtml);
+    tasks.addAll(job.stateHtml.values());
+    for (FutureTask<String> task : tasks) {
+      if (executor == null) {
+        task.run();
+      } else {
+        executor.execute(task);
+      }
+    }
+  }
+
+  private void prefetchTemplateSources(VariantSpec variant, VariantLoader.VariantInputs inputs, List<PageRenderJob> pages) {
+    if (ioExecutor == null) {
+      return;
+    }
+    for (PageRenderJob page : pages) {
+      if (page.reused == null && page.cacheKey == null) {
+        ioExecutor.execute(() -> pageRenderer.prefetchTemplateSource(
+            page.pageTemplate, variant.overlayDir, variant.userOverlayDir, inputs
+        ));
+      }
+    }
+  }
+
+  <T> Future<T> submitIo(Callable<T> task) {
+    return ioExecutor == null ? submit(task) : ioExecutor.submit(task);
+  }
+
+  private <T> Future<T> submit(Callable<T> task) {
+    if (executor == null) {
+      FutureTask<T> future = new FutureTask<T>(task);
+      future.run();
+      return future;
+    }
+    return executor.submit(task);
+  }
+
+  // Unwraps the task's own exception so skipped-template summaries read the same as a direct call.
+  static <T> T await(Future<T> future) throws Exception {
+    try {
+      return future.get();
+    } catch (ExecutionException error) {
+      Throwable cause = error.getCause();
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      throw error;
+    }
+  }
+
+  private void logSkippedTemplates(String variantLabel, List<String> skippedTemplates) {
     if (skippedTemplates.isEmpty()) {
       return;
     }
 
-    System.err.println("Skipped " + skippedTemplates.size() + " template(s) for variant " + variantId + " due to unsupported preview context.");
+    System.err.println("Skipped " + skippedTemplates.size() + " template(s) for variant " + variantLabel + " due to unsupported preview context.");
     int sampleCount = Math.min(3, skippedTemplates.size());
     for (int i = 0; i < sampleCount; i++) {
       System.err.println("  - " + skippedTemplates.get(i));
@@ -291,7 +694,35 @@ public final class PreviewRendererMain {
     }
   }
 
-  private String summarizeError(Exception error) {
+  // Renders that finished but used more than half of --render-timeout; the next slowdown would skip them.
+  void logNearBudget(String localeSuffix) {
+    List<String> nearBudget = budget.drainNearBudget();
+    if (nearBudget.isEmpty()) {
+      return;
+    }
+
+    Collections.sort(nearBudget);
+    System.err.println("Render budget" + localeSuffix + ": " + nearBudget.size() + " render(s) used more than half of the "
+        + budget.getTimeoutMillis() + " ms budget.");
+    int sampleCount = Math.min(3, nearBudget.size());
+    for (int i = 0; i < sampleCount; i++) {
+      System.err.println("  - " + nearBudget.get(i));
+    }
+    if (nearBudget.size() > sampleCount) {
+      System.err.println("  - ... and " + (nearBudget.size() - sampleCount) + " more");
+    }
+  }
+
+  private static boolean isBudgetExceeded(Throwable error) {
+    for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+      if (cause instanceof RenderBudget.BudgetExceededException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  static String summarizeError(Exception error) {
     String message = error.getMessage();
     if (message == null || message.trim().isEmpty()) {
       return error.getClass().getSimpleName();
@@ -304,30 +735,11 @@ public final class PreviewRendererMain {
     return firstLine;
   }
 
-  private void writeOutputs(Map<String, Object> pagesOutput) throws IOException {
-    Files.createDirectories(arguments.outputRoot);
-    writeJson(arguments.outputRoot.resolve("pages.json"), buildPagesOutputEnvelope(pagesOutput));
-  }
-
-  private Map<String, Object> buildPagesOutputEnvelope(Map<String, Object> pageVariants) {
-    Map<String, Object> output = new LinkedHashMap<String, Object>();
-    output.put("generatedAt", Instant.now().toString());
-    output.put("keycloakTag", arguments.keycloakTag);
-    output.put("variants", pageVariants);
-    return output;
-  }
-
-  private void writeJson(Path outputPath, Map<String, Object> value) throws IOException {
-    Files.createDirectories(outputPath.getParent());
-    String json = objectMapper.writeValueAsString(value) + "\n";
-    Files.write(outputPath, json.getBytes(StandardCharsets.UTF_8));
-  }
-
-  private static final class VariantSpec {
-    private final String id;
-    private final Path baseThemeDir;
-    private final Path overlayDir;
-    private final Path userOverlayDir;
+  static final class VariantSpec {
+    final String id;
+    final Path baseThemeDir;
+    final Path overlayDir;
+    final Path userOverlayDir;
 
     private VariantSpec(String id, Path baseThemeDir, Path overlayDir, Path userOverlayDir) {
       this.id = id;
@@ -337,130 +749,80 @@ public final class PreviewRendererMain {
     }
   }
 
-  private static final class VariantRenderResult {
-    private final Map<String, Map<String, String>> variantPages;
-    private final List<String> skippedTemplates;
+  private static final class VariantRenderJob {
+    private final VariantSpec variant;
+    private final String sources;
+    private final String inputsHash;
+    private final List<PageRenderJob> pages;
+
+    private VariantRenderJob(VariantSpec variant, String sources, String inputsHash, List<PageRenderJob> pages) {
+      this.variant = variant;
+      this.sources = sources;
+      this.inputsHash = inputsHash;
+      this.pages = pages;
+    }
+  }
 
-    private VariantRenderResult(
-        Map<String, Map<String, String>> variantPages,
-        List<String> skippedTemplates
-    ) {
-      this.variantPages = variantPages;
-      this.skippedTemplates = skippedTemplates;
-    }
-  }
-
-  private static final class Arguments {
-    private final Path inputRoot;
-    private final Path overrideRoot;
-    private final Path presetRoot;
-    private final Path outputRoot;
-    private final Path contextMocksPath;
-    private final Path userThemeRoot;
-    private final List<Path> userThemeDirs;
-    private final String keycloakTag;
-
-    private Arguments(
-        Path inputRoot,
-        Path overrideRoot,
-        Path presetRoot,
-        Path outputRoot,
-        Path contextMocksPath,
-        Path userThemeRoot,
-        List<Path> userThemeDirs,
-        String keycloakTag
+  private static final class PageRenderJob {
+    private final String pageTemplate;
+    private final String pageId;
+    private FutureTask<String> defaultHtml;
+    private Map<String, FutureTask<String>> stateHtml;
+    private final Set<String> loadedFiles;
+    private final Map<String, String> mockHashes;
+    private final String cacheKey;
+    private RenderCache.Entry cached;
+    private boolean budgetExceeded;
+    private Map<String, String> reusedStates;
+    private final RenderIndex.PageEntry reused;
+
+    private PageRenderJob(
+        String pageTemplate,
+        String pageId,
+        FutureTask<String> defaultHtml,
+        Map<String, FutureTask<String>> stateHtml,
+        Set<String> loadedFiles,
+        Map<String, String> mockHashes,
+        String cacheKey
     ) {
-      this.inputRoot = inputRoot;
-      this.overrideRoot = overrideRoot;
-      this.presetRoot = presetRoot;
-      this.outputRoot = outputRoot;
-      this.contextMocksPath = contextMocksPath;
-      this.userThemeRoot = userThemeRoot;
-      this.userThemeDirs = userThemeDirs;
-      this.keycloakTag = keycloakTag;
+      this.pageTemplate = pageTemplate;
+      this.pageId = pageId;
+      this.defaultHtml = defaultHtml;
+      this.stateHtml = stateHtml;
+      this.loadedFiles = loadedFiles;
+      this.mockHashes = mockHashes;
+      this.cacheKey = cacheKey;
+      this.reusedStates = null;
+      this.reused = null;
     }
 
-    private static final int MAX_DISCOVERY_DEPTH = 5;
-
-    private static List<Path> discoverThemeDirs(Path dir) {
-      return discoverThemeDirs(dir, MAX_DISCOVERY_DEPTH, true);
+    private PageRenderJob(String pageTemplate, String pageId, Map<String, String> reusedStates, RenderIndex.PageEntry reused) {
+      this.pageTemplate = pageTemplate;
+      this.pageId = pageId;
+      this.defaultHtml = null;
+      this.stateHtml = null;
+      this.loadedFiles = null;
+      this.mockHashes = null;
+      this.cacheKey = null;
+      this.reusedStates = reusedStates;
+      this.reused = reused;
     }
 
-    private static List<Path> discoverThemeDirs(Path dir, int depth, boolean includeCurrent) {
-      List<Path> result = new ArrayList<Path>();
-      if (dir == null || depth <= 0 || !Files.isDirectory(dir)) {
-        return result;
-      }
-      if (includeCurrent && Files.exists(dir.resolve("login").resolve("theme.properties"))) {
-        result.add(dir);
-      }
-      try {
-        for (Path child : Files.newDirectoryStream(dir)) {
-          if (Files.isDirectory(child)) {
-            String name = child.getFileName().toString();
-            if (name.startsWith(".") || name.equals("node_modules") || name.equals("dist") || name.equals("build") || name.equals("target")) {
-              continue;
-            }
-            result.addAll(discoverThemeDirs(child, depth - 1, true));
-          }
-        }
-      } catch (IOException ignored) {
-      }
-      return result;
+    private void release() {
+      defaultHtml = null;
+      stateHtml = null;
+      cached = null;
+      reusedStates = null;
     }
+  }
 
-    private static Arguments from(String[] args) {
-      Map<String, String> values = new HashMap<String, String>();
-      for (int i = 0; i < args.length; i++) {
-        String key = args[i];
-        if (!key.startsWith("--")) {
-          continue;
-        }
-
-        int separatorIndex = key.indexOf('=');
-        if (separatorIndex > 2) {
-          values.put(key.substring(2, separatorIndex), key.substring(separatorIndex + 1));
-          continue;
-        }
-
-        String value = i + 1 < args.length ? args[i + 1] : "";
-        if (!value.startsWith("--")) {
-          values.put(key.substring(2), value);
-          i++;
-        }
-      }
-
-      Path inputRoot = Paths.get(values.getOrDefault("input", "public/keycloak-upstream"));
-      Path overrideRoot = Paths.get(values.getOrDefault("overrides", "public/keycloak-dev-resources/themes"));
-      Path presetRoot = Paths.get(values.getOrDefault("presets", "public/keycloak-dev-resources/themes"));
-      Path outputRoot = Paths.get(values.getOrDefault("output", "src/features/preview/generated"));
-
-      String contextMocks = values.get("context-mocks");
-      if (contextMocks == null || contextMocks.trim().isEmpty()) {
-        throw new IllegalArgumentException("Missing required argument: --context-mocks=<path-to-json>");
-      }
-      Path contextMocksPath = Paths.get(contextMocks.trim());
-
-      Path userThemeRoot = null;
-      List<Path> userThemeDirs = new ArrayList<Path>();
-      String userThemeValue = values.get("user-theme");
-      if (userThemeValue != null && !userThemeValue.trim().isEmpty()) {
-        userThemeRoot = Paths.get(userThemeValue.trim()).toAbsolutePath().normalize();
-        userThemeDirs = discoverThemeDirs(userThemeRoot);
-      }
+  private static final class RenderSnapshot {
+    private final RenderIndex index;
+    private final Map<String, Map<String, Map<String, String>>> variants;
 
-      String keycloakTag = values.getOrDefault("tag", "26.x");
-
-      return new Arguments(
-          inputRoot,
-          overrideRoot,
-          presetRoot,
-          outputRoot,
-          contextMocksPath,
-          userThemeRoot,
-          userThemeDirs,
-          keycloakTag
-      );
+    private RenderSnapshot(RenderIndex index, Map<String, Map<String, Map<String, String>>> variants) {
+      this.index = index;
+      this.variants = variants;
     }
   }
 }
@@ -0,0 +1,180 @@
+package com.keycloaktheme.preview;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Time and output limits for a single page render. Past its deadline a render is interrupted by a watchdog
+// thread, which FreeMarker notices on the next loop iteration (PageRenderer adds the checks to every
+// template); the output writer also checks the deadline and the size on every write, which stops recursive
+// macros that keep printing, and a stack overflow is reported the same way. Either way the render fails with
+// BudgetExceededException and the page is skipped like any other failed render, except that the skip is not
+// cached or reused by incremental runs. Renders that finish but use a large share of the time are kept for the
+// run summary.
+public final class RenderBudget {
+  private static final double NEAR_BUDGET_SHARE = 0.5;
+
+  private final long timeoutMillis;
+  private final int maxOutputChars;
+  private final ScheduledExecutorService watchdog;
+  private final Queue<String> nearBudget = new ConcurrentLinkedQueue<String>();
+
+  public RenderBudget(long timeoutMillis, int maxOutputChars) {
+    this.timeoutMillis = timeoutMillis;
+    this.maxOutputChars = maxOutputChars;
+    this.watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "preview-render-watchdog");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  public long getTimeoutMillis() {
+    return timeoutMillis;
+  }
+
+  // Starts timing a render on the current thread; label names it in the near-budget report.
+  public Watch start(String label) {
+    return new Watch(label, Thread.currentThread());
+  }
+
+  // Renders since the last call that used more than half of the timeout, as "label: N ms".
+  public List<String> drainNearBudget() {
+    List<String> drained = new ArrayList<String>();
+    for (String entry = nearBudget.poll(); entry != null; entry = nearBudget.poll()) {
+      drained.add(entry);
+    }
+    return drained;
+  }
+
+  public void close() {
+    watchdog.shutdownNow();
+  }
+
+  public final class Watch {
+    private final String label;
+    private final Thread thread;
+    private final long startNanos = System.nanoTime();
+    private final long deadlineNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    private final ScheduledFuture<?> alarm;
+    private boolean finished;
+    private boolean timedOut;
+    // Set on the rendering thread when the writer stops the render.
+    private boolean exceeded;
+    private int outputChars;
+
+    private Watch(String label, Thread thread) {
+      this.label = label;
+      this.thread = thread;
+      this.alarm = watchdog.schedule(this::interrupt, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void interrupt() {
+      if (!finished) {
+        timedOut = true;
+        thread.interrupt();
+      }
+    }
+
+    // Must run on the rendering thread. Clears the interrupt the watchdog may have raised, so it does not
+    // leak into the next task on the same pool thread.
+    public void stop() {
+      boolean interrupted;
+      synchronized (this) {
+        finished = true;
+        interrupted = timedOut;
+      }
+      alarm.cancel(false);
+      if (interrupted) {
+        Thread.interrupted();
+      }
+      long elapsed = getElapsedMillis();
+      if (!interrupted && !exceeded && elapsed > timeoutMillis * NEAR_BUDGET_SHARE) {
+        nearBudget.add(label + ": " + elapsed + " ms");
+      }
+    }
+
+    public synchronized boolean isTimedOut() {
+      return timedOut;
+    }
+
+    public BudgetExceededException timeout(Throwable cause) {
+      BudgetExceededException error = new BudgetExceededException(
+          "render exceeded the " + timeoutMillis + " ms budget after " + getElapsedMillis() + " ms"
+      );
+      error.initCause(cause);
+      return error;
+    }
+
+    // Deep macro recursion ends in a StackOverflowError long before the deadline; by the time it is caught the
+    // stack has unwound, so the render fails like any other instead of taking the run down.
+    public BudgetExceededException stackOverflow(StackOverflowError cause) {
+      exceeded = true;
+      BudgetExceededException error = new BudgetExceededException(
+          "render exceeded the stack (runaway recursion?) after " + getElapsedMillis() + " ms"
+      );
+      error.initCause(cause);
+      return error;
+    }
+
+    // Counts written characters against the output cap and checks the deadline between interrupt checks.
+    public Writer limit(Writer target) {
+      return new Writer() {
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+          check(length);
+          target.write(buffer, offset, length);
+        }
+
+        @Override
+        public void write(String text, int offset, int length) throws IOException {
+          check(length);
+          target.write(text, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+          target.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+          target.close();
+        }
+      };
+    }
+
+    private void check(int length) throws BudgetExceededException {
+      outputChars += length;
+      if (outputChars > maxOutputChars) {
+        exceeded = true;
+        throw new BudgetExceededException(
+            "output exceeded " + maxOutputChars + " characters after " + getElapsedMillis() + " ms"
+        );
+      }
+      if (System.nanoTime() > deadlineNanos) {
+        exceeded = true;
+        throw timeout(null);
+      }
+    }
+
+    private long getElapsedMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+  }
+
+  public static final class BudgetExceededException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private BudgetExceededException(String message) {
+      super(message);
+    }
+  }
+}
@@ -0,0 +1,261 @@
+package com.keycloaktheme.preview;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import freemarker.template.Configuration;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+// Content-addressed store of rendered pages that outlives a single run. An entry is located by a key over
+// everything known before rendering (variant inputs, mocks, renderer build) and is only trusted if every
+// template file the original render probed through the loader chain still has the same content.
+// Every edit, mock change and renderer build adds new keys, so the store is kept under a size limit: hits
+// refresh an entry's mtime, and prune() deletes the least recently used entries beyond the limit.
+public final class RenderCache {
+  public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+  private static final String MISSING_FILE = "-";
+  private static final String ENTRY_SUFFIX = ".json";
+  private static final String TEMP_SUFFIX = ".tmp";
+  // Temp files this old belong to a process that died before renaming them.
+  private static final long STALE_TEMP_MILLIS = 60L * 60 * 1000;
+
+  private final ObjectMapper objectMapper;
+  private final ObjectWriter entryWriter;
+  private final Path root;
+  private final String rendererVersion;
+  private final long maxBytes;
+  private final Map<String, FileHash> fileHashes = new ConcurrentHashMap<String, FileHash>();
+  private boolean storeFailed;
+
+  public RenderCache(ObjectMapper objectMapper, Path root) {
+    this(objectMapper, root, DEFAULT_MAX_BYTES);
+  }
+
+  public RenderCache(ObjectMapper objectMapper, Path root, long maxBytes) {
+    this.objectMapper = objectMapper;
+    this.entryWriter = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+    this.root = root;
+    this.rendererVersion = resolveRendererVersion();
+    this.maxBytes = maxBytes;
+  }
+
+  public String key(Object... parts) {
+    List<Object> keyParts = new ArrayList<Object>();
+    keyParts.add(rendererVersion);
+    keyParts.addAll(Arrays.asList(parts));
+    return RenderIndex.hash(objectMapper, keyParts);
+  }
+
+  public Entry lookup(String key) {
+    Path entryPath = entryPath(key);
+    if (!Files.exists(entryPath)) {
+      return null;
+    }
+    Entry entry;
+    try {
+      entry = objectMapper.readValue(entryPath.toFile(), Entry.class);
+    } catch (IOException error) {
+      return null;
+    }
+    for (Map.Entry<String, String> file : entry.files.entrySet()) {
+      if (!hashFile(file.getKey()).equals(file.getValue())) {
+        return null;
+      }
+    }
+    try {
+      Files.setLastModifiedTime(entryPath, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException error) {
+      // Only the eviction order suffers.
+    }
+    return entry;
+  }
+
+  // Deletes the least recently used entries until the rest fit in maxBytes, and temp files left behind by
+  // interrupted stores. Returns the number of entries deleted. Files outside the entry directories (such as
+  // the theme discovery index) are never touched.
+  public int prune() {
+    List<CachedFile> entries = new ArrayList<CachedFile>();
+    long now = System.currentTimeMillis();
+    try (Stream<Path> paths = Files.walk(root, 2)) {
+      for (Path path : (Iterable<Path>) paths::iterator) {
+        if (path.getNameCount() != root.getNameCount() + 2 || !Files.isRegularFile(path)) {
+          continue;
+        }
+        String name = path.getFileName().toString();
+        long modified = Files.getLastModifiedTime(path).toMillis();
+        if (name.endsWith(ENTRY_SUFFIX)) {
+          entries.add(new CachedFile(path, modified, Files.size(path)));
+        } else if (name.endsWith(TEMP_SUFFIX) && now - modified > STALE_TEMP_MILLIS) {
+          Files.deleteIfExists(path);
+        }
+      }
+    } catch (IOException error) {
+      // Entries can disappear under a concurrent prune; whatever was listed is still pruned.
+    }
+
+    Collections.sort(entries, Comparator.comparingLong((CachedFile file) -> file.modified).reversed());
+    long kept = 0L;
+    int removed = 0;
+    for (CachedFile entry : entries) {
+      kept += entry.size;
+      if (kept <= maxBytes) {
+        continue;
+      }
+      try {
+        if (Files.deleteIfExists(entry.path)) {
+          removed++;
+        }
+      } catch (IOException error) {
+        // Retried on the next prune.
+      }
+    }
+    return removed;
+  }
+
+  // A cache that cannot be written is reported once and otherwise ignored; rendering never depends on it.
+  public void store(String key, Collection<String> files, Map<String, String> states, List<String> skipped) {
+    Map<String, String> hashedFiles = new TreeMap<String, String>();
+    for (String file : files) {
+      hashedFiles.put(file, hashFile(file));
+    }
+    Path entryPath = entryPath(key);
+    try {
+      Files.createDirectories(entryPath.getParent());
+      Path tempPath = Files.createTempFile(entryPath.getParent(), key, TEMP_SUFFIX);
+      Files.write(tempPath, entryWriter.writeValueAsBytes(new Entry(hashedFiles, states, skipped)));
+      try {
+        Files.move(tempPath, entryPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException error) {
+        Files.move(tempPath, entryPath, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException error) {
+      if (!storeFailed) {
+        storeFailed = true;
+        System.err.println("Warning: unable to write render cache " + root + ": " + error.getMessage());
+      }
+    }
+  }
+
+  private Path entryPath(String key) {
+    return root.resolve(key.substring(0, 2)).resolve(key + ENTRY_SUFFIX);
+  }
+
+  // Content hashes are memoized per path and recomputed only when mtime or size moves.
+  private String hashFile(String file) {
+    Path path = Paths.get(file);
+    try {
+      if (!Files.isRegularFile(path)) {
+        return MISSING_FILE;
+      }
+      String stamp = Files.getLastModifiedTime(path).toMillis() + ":" + Files.size(path);
+      FileHash cached = fileHashes.get(file);
+      if (cached != null && cached.stamp.equals(stamp)) {
+        return cached.hash;
+      }
+      String hash = RenderIndex.sha256(Files.readAllBytes(path));
+      fileHashes.put(file, new FileHash(stamp, hash));
+      return hash;
+    } catch (IOException error) {
+      return MISSING_FILE;
+    }
+  }
+
+  // Entries written by a different renderer build or FreeMarker version are never matched.
+  private static String resolveRendererVersion() {
+    StringBuilder version = new StringBuilder();
+    version.append(RenderCache.class.getPackage().getImplementationVersion())
+        .append('|').append(Configuration.getVersion());
+    try {
+      CodeSource codeSource = RenderCache.class.getProtectionDomain().getCodeSource();
+      Path location = Paths.get(codeSource.getLocation().toURI());
+      if (Files.isRegularFile(location)) {
+        version.append('|').append(Files.size(location)).append(':').append(Files.getLastModifiedTime(location).toMillis());
+      } else {
+        try (Stream<Path> classes = Files.walk(location)) {
+          long newest = 0L;
+          for (Path classFile : (Iterable<Path>) classes.filter(Files::isRegularFile)::iterator) {
+            newest = Math.max(newest, Files.getLastModifiedTime(classFile).toMillis());
+          }
+          version.append('|').append(newest);
+        }
+      }
+    } catch (IOException | URISyntaxException | RuntimeException error) {
+      version.append("|unknown-build");
+    }
+    return version.toString();
+  }
+
+  private static final class CachedFile {
+    private final Path path;
+    private final long modified;
+    private final long size;
+
+    private CachedFile(Path path, long modified, long size) {
+      this.path = path;
+      this.modified = modified;
+      this.size = size;
+    }
+  }
+
+  private static final class FileHash {
+    private final String stamp;
+    private final String hash;
+
+    private FileHash(String stamp, String hash) {
+      this.stamp = stamp;
+      this.hash = hash;
+    }
+  }
+
+  public static final class Entry {
+    private final Map<String, String> files;
+    private final Map<String, String> states;
+    private final List<String> skipped;
+
+    @JsonCreator
+    public Entry(
+        @JsonProperty("files") Map<String, String> files,
+        @JsonProperty("states") Map<String, String> states,
+        @JsonProperty("skipped") List<String> skipped
+    ) {
+      this.files = files == null ? Collections.<String, String>emptyMap() : files;
+      this.states = states == null ? Collections.<String, String>emptyMap() : states;
+      this.skipped = skipped == null ? Collections.<String>emptyList() : skipped;
+    }
+
+    @JsonProperty("files")
+    public Map<String, String> getFiles() {
+      return files;
+    }
+
+    @JsonProperty("states")
+    public Map<String, String> getStates() {
+      return states;
+    }
+
+    @JsonProperty("skipped")
+    public List<String> getSkipped() {
+      return skipped;
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package com.keycloaktheme.preview;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Records what each rendered page depended on, so a later run can tell which pages are still valid.
+public final class RenderIndex {
+  public static final String FILE_NAME = "render-index.json";
+  private static final int VERSION = 1;
+
+  private final int version;
+  private final Map<String, VariantEntry> variants;
+
+  @JsonCreator
+  public RenderIndex(
+      @JsonProperty("version") int version,
+      @JsonProperty("variants") Map<String, VariantEntry> variants
+  ) {
+    this.version = version;
+    this.variants = variants == null ? new LinkedHashMap<String, VariantEntry>() : variants;
+  }
+
+  public RenderIndex(Map<String, VariantEntry> variants) {
+    this(VERSION, variants);
+  }
+
+  public static RenderIndex read(ObjectMapper objectMapper, Path path) {
+    if (path == null || !Files.exists(path)) {
+      return null;
+    }
+    try {
+      RenderIndex index = objectMapper.readValue(path.toFile(), RenderIndex.class);
+      return index.version == VERSION ? index : null;
+    } catch (IOException error) {
+      System.err.println("Warning: ignoring unreadable render index " + path + ": " + error.getMessage());
+      return null;
+    }
+  }
+
+  public void write(ObjectMapper objectMapper, Path path) throws IOException {
+    Files.createDirectories(path.getParent());
+    Files.write(path, objectMapper.writeValueAsBytes(this));
+  }
+
+  public static String hash(ObjectMapper objectMapper, Object value) {
+    try {
+      byte[] bytes = value instanceof String
+          ? ((String) value).getBytes(StandardCharsets.UTF_8)
+          : objectMapper.writeValueAsBytes(value);
+      return sha256(bytes);
+    } catch (IOException error) {
+      throw new IllegalStateException("Unable to hash render input", error);
+    }
+  }
+
+  public static String sha256(byte[] bytes) {
+    try {
+      return toHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+    } catch (NoSuchAlgorithmException error) {
+      throw new IllegalStateException("SHA-256 not available", error);
+    }
+  }
+
+  public static String toHex(byte[] digest) {
+    StringBuilder hex = new StringBuilder(digest.length * 2);
+    for (byte b : digest) {
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return hex.toString();
+  }
+
+  @JsonProperty("version")
+  public int getVersion() {
+    return version;
+  }
+
+  @JsonProperty("variants")
+  public Map<String, VariantEntry> getVariants() {
+    return variants;
+  }
+
+  public static final class VariantEntry {
+    private final String sources;
+    private final String inputsHash;
+    private final Map<String, PageEntry> pages;
+
+    @JsonCreator
+    public VariantEntry(
+        @JsonProperty("sources") String sources,
+        @JsonProperty("inputsHash") String inputsHash,
+        @JsonProperty("pages") Map<String, PageEntry> pages
+    ) {
+      this.sources = sources;
+      this.inputsHash = inputsHash;
+      this.pages = pages == null ? new LinkedHashMap<String, PageEntry>() : pages;
+    }
+
+    @JsonProperty("sources")
+    public String getSources() {
+      return sources;
+    }
+
+    @JsonProperty("inputsHash")
+    public String getInputsHash() {
+      return inputsHash;
+    }
+
+    @JsonProperty("pages")
+    public Map<String, PageEntry> getPages() {
+      return pages;
+    }
+  }
+
+  public static final class PageEntry {
+    private final Set<String> files;
+    private final Map<String, String> mocks;
+    private final List<String> skipped;
+
+    @JsonCreator
+    public PageEntry(
+        @JsonProperty("files") Set<String> files,
+        @JsonProperty("mocks") Map<String, String> mocks,
+        @JsonProperty("skipped") List<String> skipped
+    ) {
+      this.files = files == null ? Collections.<String>emptySet() : files;
+      this.mocks = mocks == null ? Collections.<String, String>emptyMap() : mocks;
+      this.skipped = skipped == null ? Collections.<String>emptyList() : skipped;
+    }
+
+    @JsonProperty("files")
+    public Set<String> getFiles() {
+      return files;
+    }
+
+    @JsonProperty("mocks")
+    public Map<String, String> getMocks() {
+      return mocks;
+    }
+
+    @JsonProperty("skipped")
+    public List<String> getSkipped() {
+      return skipped;
+    }
+
+    public boolean dependsOnAny(Set<String> changedFiles) {
+      for (String file : changedFiles) {
+        if (files.contains(file)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
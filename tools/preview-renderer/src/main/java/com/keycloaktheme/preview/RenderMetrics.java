@@ -0,0 +1,208 @@
+package com.keycloaktheme.preview;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Wall time and allocation per render phase, broken down by variant and page template. Phases are timed on
+// the thread that runs them, so with a pool the per-phase totals add up to more than the run's elapsed time.
+// Allocation comes from HotSpot's per-thread counters and is omitted on JVMs without them.
+public final class RenderMetrics {
+  public static final String FILE_NAME = "render-metrics.json";
+
+  public static final String DISCOVERY = "discovery";
+  public static final String LOAD_INPUTS = "loadVariantInputs";
+  public static final String CONTEXT = "context";
+  public static final String GET_TEMPLATE = "getTemplate";
+  public static final String PROCESS = "process";
+  public static final String POST_PROCESS = "postProcess";
+  public static final String OUTPUT = "output";
+  private static final List<String> PHASES = Arrays.asList(
+      DISCOVERY, LOAD_INPUTS, CONTEXT, GET_TEMPLATE, PROCESS, POST_PROCESS, OUTPUT
+  );
+  // Phases that make up a page's render cost when ranking the slowest templates.
+  private static final List<String> RENDER_PHASES = Arrays.asList(CONTEXT, GET_TEMPLATE, PROCESS, POST_PROCESS);
+  // Variant / page key for phases that belong to the run or the variant as a whole.
+  private static final String NONE = "";
+
+  private final com.sun.management.ThreadMXBean threadBean;
+  private final Map<String, Map<String, Map<String, PhaseStats>>> stats =
+      new ConcurrentHashMap<String, Map<String, Map<String, PhaseStats>>>();
+  private volatile long startedAt = System.nanoTime();
+
+  public RenderMetrics() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    com.sun.management.ThreadMXBean allocationBean = null;
+    if (bean instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+      allocationBean = (com.sun.management.ThreadMXBean) bean;
+      allocationBean.setThreadAllocatedMemoryEnabled(true);
+    }
+    this.threadBean = allocationBean;
+  }
+
+  // Called at the start of every render, so a long-lived server reports each run on its own.
+  public void reset() {
+    stats.clear();
+    startedAt = System.nanoTime();
+  }
+
+  public Span start() {
+    return new Span(System.nanoTime(), allocatedBytes());
+  }
+
+  // Records the time since span started and returns a span starting now, so consecutive phases chain.
+  public Span record(String variantId, String pageTemplate, String phase, Span span) {
+    Span now = start();
+    stats.computeIfAbsent(variantId == null ? NONE : variantId, key -> new ConcurrentHashMap<String, Map<String, PhaseStats>>())
+        .computeIfAbsent(pageTemplate == null ? NONE : pageTemplate, key -> new ConcurrentHashMap<String, PhaseStats>())
+        .computeIfAbsent(phase, key -> new PhaseStats())
+        .add(now.nanos - span.nanos, span.bytes < 0 || now.bytes < 0 ? -1L : now.bytes - span.bytes);
+    return now;
+  }
+
+  public void write(ObjectMapper objectMapper, Path path, int slowestCount) throws IOException {
+    Map<String, PhaseStats> totals = new LinkedHashMap<String, PhaseStats>();
+    Map<String, Object> variants = new TreeMap<String, Object>();
+    List<PageTotal> pageTotals = new ArrayList<PageTotal>();
+
+    for (Map.Entry<String, Map<String, Map<String, PhaseStats>>> variant : stats.entrySet()) {
+      Map<String, Object> variantReport = new LinkedHashMap<String, Object>();
+      Map<String, Object> pagesReport = new TreeMap<String, Object>();
+      for (Map.Entry<String, Map<String, PhaseStats>> page : variant.getValue().entrySet()) {
+        for (Map.Entry<String, PhaseStats> phase : page.getValue().entrySet()) {
+          totals.computeIfAbsent(phase.getKey(), key -> new PhaseStats()).add(phase.getValue());
+        }
+        if (page.getKey().equals(NONE)) {
+          variantReport.put("phases", describePhases(page.getValue()));
+          continue;
+        }
+        PageTotal pageTotal = new PageTotal(variant.getKey(), page.getKey(), page.getValue());
+        Map<String, Object> pageReport = new LinkedHashMap<String, Object>();
+        pageReport.put("renderMs", toMillis(pageTotal.nanos));
+        pageReport.put("phases", describePhases(page.getValue()));
+        pagesReport.put(page.getKey(), pageReport);
+        if (pageTotal.nanos > 0) {
+          pageTotals.add(pageTotal);
+        }
+      }
+      if (!variant.getKey().equals(NONE)) {
+        variantReport.put("pages", pagesReport);
+        variants.put(variant.getKey(), variantReport);
+      }
+    }
+
+    Collections.sort(pageTotals, Comparator.comparingLong((PageTotal pageTotal) -> pageTotal.nanos).reversed());
+    List<Map<String, Object>> slowest = new ArrayList<Map<String, Object>>();
+    for (PageTotal pageTotal : pageTotals.subList(0, Math.min(slowestCount, pageTotals.size()))) {
+      Map<String, Object> entry = new LinkedHashMap<String, Object>();
+      entry.put("variant", pageTotal.variantId);
+      entry.put("template", pageTotal.pageTemplate);
+      entry.put("renderMs", toMillis(pageTotal.nanos));
+      slowest.add(entry);
+    }
+
+    Map<String, Object> report = new LinkedHashMap<String, Object>();
+    report.put("generatedAt", Instant.now().toString());
+    report.put("elapsedMs", toMillis(System.nanoTime() - startedAt));
+    report.put("allocationTracked", threadBean != null);
+    report.put("phases", describePhases(totals));
+    report.put("slowestTemplates", slowest);
+    report.put("variants", variants);
+
+    Files.createDirectories(path.toAbsolutePath().getParent());
+    Files.write(path, objectMapper.writeValueAsBytes(report));
+
+    StringBuilder summary = new StringBuilder("Render metrics written to " + path);
+    if (!pageTotals.isEmpty()) {
+      PageTotal slowestPage = pageTotals.get(0);
+      summary.append(" (slowest: ").append(slowestPage.variantId).append('/').append(slowestPage.pageTemplate)
+          .append(' ').append(Math.round(toMillis(slowestPage.nanos))).append(" ms)");
+    }
+    System.err.println(summary.append('.'));
+  }
+
+  private Map<String, Object> describePhases(Map<String, PhaseStats> phases) {
+    Map<String, Object> result = new LinkedHashMap<String, Object>();
+    for (String phase : PHASES) {
+      PhaseStats phaseStats = phases.get(phase);
+      if (phaseStats == null) {
+        continue;
+      }
+      Map<String, Object> entry = new LinkedHashMap<String, Object>();
+      entry.put("count", phaseStats.count.sum());
+      entry.put("wallMs", toMillis(phaseStats.nanos.sum()));
+      if (threadBean != null) {
+        entry.put("allocatedBytes", phaseStats.bytes.sum());
+      }
+      result.put(phase, entry);
+    }
+    return result;
+  }
+
+  private long allocatedBytes() {
+    return threadBean == null ? -1L : threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static double toMillis(long nanos) {
+    return Math.round(nanos / 10000.0) / 100.0;
+  }
+
+  public static final class Span {
+    private final long nanos;
+    private final long bytes;
+
+    private Span(long nanos, long bytes) {
+      this.nanos = nanos;
+      this.bytes = bytes;
+    }
+  }
+
+  private static final class PhaseStats {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    private void add(long elapsedNanos, long allocatedBytes) {
+      count.increment();
+      nanos.add(elapsedNanos);
+      bytes.add(Math.max(0L, allocatedBytes));
+    }
+
+    private void add(PhaseStats other) {
+      count.add(other.count.sum());
+      nanos.add(other.nanos.sum());
+      bytes.add(other.bytes.sum());
+    }
+  }
+
+  private static final class PageTotal {
+    private final String variantId;
+    private final String pageTemplate;
+    private final long nanos;
+
+    private PageTotal(String variantId, String pageTemplate, Map<String, PhaseStats> phases) {
+      this.variantId = variantId;
+      this.pageTemplate = pageTemplate;
+      long total = 0L;
+      for (String phase : RENDER_PHASES) {
+        PhaseStats phaseStats = phases.get(phase);
+        total += phaseStats == null ? 0L : phaseStats.nanos.sum();
+      }
+      this.nanos = total;
+    }
+  }
+}
@@ -0,0 +1,207 @@
+package com.keycloaktheme.preview;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// One slice of the variant x page work list, selected with --shard=i/n. A page and all of its states go to the
+// same shard, chosen from a hash of the variant id and page template, so every process splits the list the
+// same way without coordinating. A shard writes its pages to an ordinary single-file pages.json plus
+// shard.json, which records the full work list in render order; merge() walks that list and takes each page
+// from whichever partial file holds it, so the merged output matches a single-process run page for page.
+public final class RenderShard {
+  public static final String FILE_NAME = "shard.json";
+
+  private final int index;
+  private final int count;
+
+  private RenderShard(int index, int count) {
+    this.index = index;
+    this.count = count;
+  }
+
+  // "i/n" with 1 <= i <= n.
+  public static RenderShard parse(String value) {
+    String[] parts = value.trim().split("/");
+    if (parts.length == 2) {
+      try {
+        int index = Integer.parseInt(parts[0].trim());
+        int count = Integer.parseInt(parts[1].trim());
+        if (count > 0 && index >= 1 && index <= count) {
+          return new RenderShard(index, count);
+        }
+      } catch (NumberFormatException ignored) {
+      }
+    }
+    throw new IllegalArgumentException("Invalid --shard value: " + value + " (expected i/n with 1 <= i <= n)");
+  }
+
+  // String.hashCode is specified, so the assignment is the same on every JVM and run.
+  public boolean owns(String variantId, String pageTemplate) {
+    return Math.floorMod((variantId + "/" + pageTemplate).hashCode(), count) == index - 1;
+  }
+
+  @Override
+  public String toString() {
+    return index + "/" + count;
+  }
+
+  // workList maps each variant with inputs to all of its page ids, owned by this shard or not.
+  public void write(ObjectMapper objectMapper, Path outputRoot, String locale, Map<String, List<String>> workList)
+      throws IOException {
+    Map<String, Object> manifest = new LinkedHashMap<String, Object>();
+    manifest.put("index", index);
+    manifest.put("count", count);
+    manifest.put("locale", locale);
+    manifest.put("variants", workList);
+    Files.createDirectories(outputRoot);
+    Files.write(outputRoot.resolve(FILE_NAME), objectMapper.writeValueAsBytes(manifest));
+  }
+
+  // Streams the shards' pages.json files into writer in work-list order; only one page is held at a time.
+  // Fails unless the roots are exactly the shards 1..n of one run for this locale.
+  @SuppressWarnings("unchecked")
+  public static int merge(ObjectMapper objectMapper, List<Path> shardRoots, String locale, PagesWriter writer)
+      throws IOException {
+    Map<String, List<String>> workList = null;
+    Integer count = null;
+    boolean[] seen = null;
+    for (Path root : shardRoots) {
+      Path manifestPath = root.resolve(FILE_NAME);
+      if (!Files.exists(manifestPath)) {
+        throw new IllegalStateException("Not a shard output (no " + FILE_NAME + "): " + root);
+      }
+      Map<String, Object> manifest = objectMapper.readValue(manifestPath.toFile(), Map.class);
+      int shardIndex = ((Number) manifest.get("index")).intValue();
+      int shardCount = ((Number) manifest.get("count")).intValue();
+      if (!locale.equals(manifest.get("locale"))) {
+        throw new IllegalStateException(root + " holds locale " + manifest.get("locale") + ", expected " + locale);
+      }
+      if (count == null) {
+        count = shardCount;
+        seen = new boolean[shardCount];
+        workList = (Map<String, List<String>>) manifest.get("variants");
+      } else if (count != shardCount) {
+        throw new IllegalStateException(root + " is shard " + shardIndex + "/" + shardCount + " of a " + count + "-shard run");
+      } else if (!workList.equals(manifest.get("variants"))) {
+        throw new IllegalStateException(root + " rendered a different work list; all shards must use the same inputs");
+      }
+      if (seen[shardIndex - 1]) {
+        throw new IllegalStateException("Shard " + shardIndex + "/" + shardCount + " given twice: " + root);
+      }
+      seen[shardIndex - 1] = true;
+    }
+    if (count == null || shardRoots.size() != count) {
+      throw new IllegalStateException("Expected " + (count == null ? "at least one" : "all " + count) + " shard(s), got "
+          + shardRoots.size());
+    }
+
+    List<PagesCursor> cursors = new ArrayList<PagesCursor>();
+    try {
+      for (Path root : shardRoots) {
+        cursors.add(new PagesCursor(objectMapper, root.resolve(OutputFormat.JSON.getFileName())));
+      }
+      int pages = 0;
+      for (Map.Entry<String, List<String>> variant : workList.entrySet()) {
+        for (String pageId : variant.getValue()) {
+          for (PagesCursor cursor : cursors) {
+            if (cursor.isAt(variant.getKey(), pageId)) {
+              writer.writePage(variant.getKey(), pageId, cursor.readStates());
+              pages++;
+              break;
+            }
+          }
+        }
+      }
+      for (PagesCursor cursor : cursors) {
+        if (cursor.pageId != null) {
+          throw new IllegalStateException(cursor.path + ": page " + cursor.variantId + "/" + cursor.pageId
+              + " is out of work-list order or listed twice");
+        }
+      }
+      return pages;
+    } finally {
+      for (PagesCursor cursor : cursors) {
+        cursor.close();
+      }
+    }
+  }
+
+  // Reads a pages.json one page at a time; (variantId, pageId) is the next unread page, both null at the end.
+  private static final class PagesCursor implements Closeable {
+    private final Path path;
+    private final JsonParser parser;
+    private String variantId;
+    private String pageId;
+
+    private PagesCursor(ObjectMapper objectMapper, Path path) throws IOException {
+      this.path = path;
+      this.parser = objectMapper.getFactory().createParser(path.toFile());
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new IllegalStateException(path + ": expected a pages.json object");
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        boolean variants = parser.currentName().equals("variants");
+        if (parser.nextToken() == JsonToken.START_OBJECT && variants) {
+          advance();
+          return;
+        }
+        parser.skipChildren();
+      }
+    }
+
+    private boolean isAt(String variantId, String pageId) {
+      return pageId.equals(this.pageId) && variantId.equals(this.variantId);
+    }
+
+    private Map<String, String> readStates() throws IOException {
+      Map<String, String> states = new LinkedHashMap<String, String>();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String state = parser.currentName();
+        if (parser.nextToken() != JsonToken.VALUE_STRING) {
+          throw new IllegalStateException(path + ": " + variantId + "/" + pageId + "/" + state
+              + " is not inline HTML (shards are written without --dedup)");
+        }
+        states.put(state, parser.getText());
+      }
+      advance();
+      return states;
+    }
+
+    // Moves to the next page field, stepping into and out of variant objects on the way.
+    private void advance() throws IOException {
+      pageId = null;
+      JsonToken token;
+      while ((token = parser.nextToken()) != null) {
+        if (token == JsonToken.FIELD_NAME) {
+          String name = parser.currentName();
+          parser.nextToken();
+          if (variantId == null) {
+            variantId = name;
+          } else {
+            pageId = name;
+            return;
+          }
+        } else if (token == JsonToken.END_OBJECT) {
+          if (variantId == null) {
+            return;
+          }
+          variantId = null;
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      parser.close();
+    }
+  }
+}
@@ -0,0 +1,324 @@
+package com.keycloaktheme.preview;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+// Command-line options of PreviewRendererMain.
+final class RendererArguments {
+  final Path inputRoot;
+  final Path overrideRoot;
+  final Path presetRoot;
+  final Path outputRoot;
+  final Path contextMocksPath;
+  final Path userThemeRoot;
+  final String keycloakTag;
+  final boolean serve;
+  final int threads;
+  final boolean incremental;
+  final Set<String> changedFiles;
+  final String layout;
+  final Path cacheDir;
+  final boolean dedup;
+  final boolean metrics;
+  final int metricsTop;
+  final boolean stripScripts;
+  final List<String> locales;
+  final List<String> discoveryIgnore;
+  final int renderTimeoutMillis;
+  final int maxPageChars;
+  final RenderShard shard;
+  final List<Path> mergeRoots;
+  final boolean compress;
+  final OutputFormat format;
+
+  private RendererArguments(
+      Path inputRoot,
+      Path overrideRoot,
+      Path presetRoot,
+      Path outputRoot,
+      Path contextMocksPath,
+      Path userThemeRoot,
+      String keycloakTag,
+      boolean serve,
+      int threads,
+      boolean incremental,
+      Set<String> changedFiles,
+      String layout,
+      Path cacheDir,
+      boolean dedup,
+      boolean metrics,
+      int metricsTop,
+      boolean stripScripts,
+      List<String> locales,
+      List<String> discoveryIgnore,
+      int renderTimeoutMillis,
+      int maxPageChars,
+      RenderShard shard,
+      List<Path> mergeRoots,
+      boolean compress,
+      OutputFormat format
+  ) {
+    this.inputRoot = inputRoot;
+    this.overrideRoot = overrideRoot;
+    this.presetRoot = presetRoot;
+    this.outputRoot = outputRoot;
+    this.contextMocksPath = contextMocksPath;
+    this.userThemeRoot = userThemeRoot;
+    this.keycloakTag = keycloakTag;
+    this.serve = serve;
+    this.threads = threads;
+    this.incremental = incremental;
+    this.changedFiles = changedFiles;
+    this.layout = layout;
+    this.cacheDir = cacheDir;
+    this.dedup = dedup;
+    this.metrics = metrics;
+    this.metricsTop = metricsTop;
+    this.stripScripts = stripScripts;
+    this.locales = locales;
+    this.discoveryIgnore = discoveryIgnore;
+    this.renderTimeoutMillis = renderTimeoutMillis;
+    this.maxPageChars = maxPageChars;
+    this.shard = shard;
+    this.mergeRoots = mergeRoots;
+    this.compress = compress;
+    this.format = format;
+  }
+
+  private static final Pattern LOCALE_PATTERN = Pattern.compile("[A-Za-z]{2,8}(-[A-Za-z0-9]{1,8})*");
+
+  static RendererArguments from(String[] args, Map<String, String> environment) {
+    Map<String, String> values = new HashMap<String, String>();
+    for (int i = 0; i < args.length; i++) {
+      String key = args[i];
+      if (!key.startsWith("--")) {
+        continue;
+      }
+
+      if (key.equals("--serve") || key.equals("--incremental") || key.equals("--dedup")
+          || key.equals("--metrics") || key.equals("--strip-scripts") || key.equals("--compress")) {
+        values.put(key.substring(2), "true");
+        continue;
+      }
+
+      int separatorIndex = key.indexOf('=');
+      if (separatorIndex > 2) {
+        values.put(key.substring(2, separatorIndex), key.substring(separatorIndex + 1));
+        continue;
+      }
+
+      String value = i + 1 < args.length ? args[i + 1] : "";
+      if (!value.startsWith("--")) {
+        values.put(key.substring(2), value);
+        i++;
+      }
+    }
+
+    Path inputRoot = Paths.get(values.getOrDefault("input", "public/keycloak-upstream"));
+    Path overrideRoot = Paths.get(values.getOrDefault("overrides", "public/keycloak-dev-resources/themes"));
+    Path presetRoot = Paths.get(values.getOrDefault("presets", "public/keycloak-dev-resources/themes"));
+    Path outputRoot = Paths.get(values.getOrDefault("output", "src/features/preview/generated"));
+
+    boolean serve = Boolean.parseBoolean(values.getOrDefault("serve", "false"));
+
+    List<Path> mergeRoots = null;
+    String mergeValue = values.get("merge");
+    if (mergeValue != null) {
+      mergeRoots = new ArrayList<Path>();
+      for (String root : mergeValue.split(Pattern.quote(File.pathSeparator))) {
+        if (!root.trim().isEmpty()) {
+          mergeRoots.add(Paths.get(root.trim()));
+        }
+      }
+      if (mergeRoots.isEmpty()) {
+        throw new IllegalArgumentException("Missing shard output directories for --merge");
+      }
+    }
+
+    String contextMocks = values.get("context-mocks");
+    Path contextMocksPath = null;
+    if (contextMocks != null && !contextMocks.trim().isEmpty()) {
+      contextMocksPath = Paths.get(contextMocks.trim());
+    } else if (!serve && mergeRoots == null) {
+      throw new IllegalArgumentException("Missing required argument: --context-mocks=<path-to-json>");
+    }
+
+    Path userThemeRoot = null;
+    String userThemeValue = values.get("user-theme");
+    if (userThemeValue != null && !userThemeValue.trim().isEmpty()) {
+      userThemeRoot = Paths.get(userThemeValue.trim()).toAbsolutePath().normalize();
+    }
+
+    String keycloakTag = values.getOrDefault("tag", "26.x");
+    int threads = parseThreads(values.get("threads"));
+
+    // --changed and --merge list paths separated like a classpath; --changed implies --incremental.
+    Set<String> changedFiles = new HashSet<String>();
+    String changedValue = values.get("changed");
+    if (changedValue != null && !changedValue.trim().isEmpty()) {
+      changedFiles = normalizeChangedFiles(Arrays.asList(changedValue.split(Pattern.quote(File.pathSeparator))));
+    }
+    boolean incremental = Boolean.parseBoolean(values.getOrDefault("incremental", "false")) || changedValue != null;
+
+    String layout = values.getOrDefault("layout", "single").trim();
+    if (!layout.equals("single") && !layout.equals("variant") && !layout.equals("page")) {
+      throw new IllegalArgumentException("Invalid --layout value: " + layout + " (expected single, variant or page)");
+    }
+    boolean dedup = Boolean.parseBoolean(values.getOrDefault("dedup", "false"));
+    boolean compress = Boolean.parseBoolean(values.getOrDefault("compress", "false"));
+    OutputFormat format = OutputFormat.parse(values.getOrDefault("format", "json"));
+    if (!format.isText() && !layout.equals("single")) {
+      throw new IllegalArgumentException("--format=" + values.get("format").trim() + " is only supported with --layout=single");
+    }
+    if (dedup && !layout.equals("single")) {
+      throw new IllegalArgumentException("--dedup is only supported with --layout=single");
+    }
+
+    // render-index.json holds no HTML, so a one-shot incremental run takes unchanged pages from the render cache.
+    String cacheDirValue = values.get("cache-dir");
+    Path cacheDir = cacheDirValue == null || cacheDirValue.trim().isEmpty()
+        ? null
+        : Paths.get(cacheDirValue.trim()).toAbsolutePath().normalize();
+    if (cacheDir == null && incremental && !serve) {
+      cacheDir = createDefaultCacheDir(environment);
+    }
+
+    boolean metrics = Boolean.parseBoolean(values.getOrDefault("metrics", "false"));
+    int metricsTop = parsePositiveInt("metrics-top", values.getOrDefault("metrics-top", "10"));
+
+    boolean stripScripts = Boolean.parseBoolean(values.getOrDefault("strip-scripts", "false"));
+
+    List<String> locales = parseLocales(values.getOrDefault("locales", VariantLoader.DEFAULT_LOCALE));
+
+    List<String> discoveryIgnore = new ArrayList<String>(ThemeDiscovery.DEFAULT_IGNORE_GLOBS);
+    for (String glob : values.getOrDefault("discovery-ignore", "").split(",")) {
+      if (!glob.trim().isEmpty()) {
+        discoveryIgnore.add(glob.trim());
+      }
+    }
+
+    int renderTimeoutMillis = parsePositiveInt("render-timeout", values.getOrDefault("render-timeout", "10000"));
+    int maxPageChars = parsePositiveInt("max-page-chars", values.getOrDefault("max-page-chars", "5000000"));
+
+    String shardValue = values.get("shard");
+    RenderShard shard = shardValue == null || shardValue.trim().isEmpty() ? null : RenderShard.parse(shardValue);
+    if (shard != null && (serve || mergeRoots != null)) {
+      throw new IllegalArgumentException("--shard cannot be combined with --serve or --merge");
+    }
+    if (shard != null && (dedup || !layout.equals("single") || !format.isText())) {
+      throw new IllegalArgumentException(
+          "--shard writes a plain pages.json; pass --layout, --dedup and --format to --merge instead"
+      );
+    }
+
+    return new RendererArguments(
+        inputRoot,
+        overrideRoot,
+        presetRoot,
+        outputRoot,
+        contextMocksPath,
+        userThemeRoot,
+        keycloakTag,
+        serve,
+        threads,
+        incremental,
+        changedFiles,
+        layout,
+        cacheDir,
+        dedup,
+        metrics,
+        metricsTop,
+        stripScripts,
+        locales,
+        Collections.unmodifiableList(discoveryIgnore),
+        renderTimeoutMillis,
+        maxPageChars,
+        shard,
+        mergeRoots == null ? null : Collections.unmodifiableList(mergeRoots),
+        compress,
+        format
+    );
+  }
+
+  // Same location as the editor's fallback when it has no node_modules, so both share the entries.
+  private static Path createDefaultCacheDir(Map<String, String> environment) {
+    String cacheHome = environment.get("XDG_CACHE_HOME");
+    if ((cacheHome == null || cacheHome.isEmpty()) && File.separatorChar == '\\') {
+      cacheHome = environment.get("LOCALAPPDATA");
+    }
+    Path cacheDir = (cacheHome == null || cacheHome.isEmpty()
+        ? Paths.get(System.getProperty("user.home"), ".cache")
+        : Paths.get(cacheHome)).resolve("keycloak-theme-editor").resolve("render-cache").toAbsolutePath().normalize();
+    try {
+      Files.createDirectories(cacheDir);
+      return cacheDir;
+    } catch (IOException error) {
+      System.err.println("Warning: --incremental without --cache-dir could not create " + cacheDir + " ("
+          + error.getMessage() + "); unchanged pages will be rendered again.");
+      return null;
+    }
+  }
+
+  static Set<String> normalizeChangedFiles(Collection<?> paths) {
+    Set<String> changedFiles = new HashSet<String>();
+    for (Object path : paths) {
+      if (path != null && !String.valueOf(path).trim().isEmpty()) {
+        changedFiles.add(Paths.get(String.valueOf(path).trim()).toAbsolutePath().normalize().toString());
+      }
+    }
+    return changedFiles;
+  }
+
+  private static List<String> parseLocales(String value) {
+    Set<String> locales = new LinkedHashSet<String>();
+    for (String part : value.split(",")) {
+      if (!part.trim().isEmpty()) {
+        locales.add(parseLocale(part));
+      }
+    }
+    if (locales.isEmpty()) {
+      throw new IllegalArgumentException("Invalid --locales value: " + value + " (expected at least one language tag)");
+    }
+    return Collections.unmodifiableList(new ArrayList<String>(locales));
+  }
+
+  static String parseLocale(String value) {
+    String locale = value.trim().replace('_', '-');
+    if (!LOCALE_PATTERN.matcher(locale).matches()) {
+      throw new IllegalArgumentException("Invalid locale: " + value.trim() + " (expected a language tag such as en, de or pt-BR)");
+    }
+    return locale;
+  }
+
+  private static int parseThreads(String value) {
+    if (value == null || value.trim().isEmpty()) {
+      return Runtime.getRuntime().availableProcessors();
+    }
+    return parsePositiveInt("threads", value);
+  }
+
+  private static int parsePositiveInt(String name, String value) {
+    try {
+      int parsed = Integer.parseInt(value.trim());
+      if (parsed > 0) {
+        return parsed;
+      }
+    } catch (NumberFormatException ignored) {
+    }
+    throw new IllegalArgumentException("Invalid --" + name + " value: " + value + " (expected a positive integer)");
+  }
+}
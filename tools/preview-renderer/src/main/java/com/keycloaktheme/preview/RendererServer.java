@@ -0,0 +1,248 @@
+package com.keycloaktheme.preview;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+// The --serve protocol: one JSON request per stdin line, one JSON response per stdout line. "index" and "page"
+// render each page state only when it is asked for.
+final class RendererServer {
+  static final int MAX_RENDERED_PAGES = 256;
+
+  private final PreviewRendererMain renderer;
+  private final RendererArguments arguments;
+  private final ObjectMapper objectMapper;
+  private final ContextBuilder contextBuilder;
+  private final OutputLayout output;
+  private PageIndex pageIndex;
+  // Least recently requested first, so a long editor session keeps only the pages it is looking at.
+  private final Map<String, RenderedPage> renderedPages = new LinkedHashMap<String, RenderedPage>(16, 0.75f, true);
+
+  RendererServer(
+      PreviewRendererMain renderer,
+      RendererArguments arguments,
+      ObjectMapper objectMapper,
+      ContextBuilder contextBuilder,
+      OutputLayout output
+  ) {
+    this.renderer = renderer;
+    this.arguments = arguments;
+    this.objectMapper = objectMapper;
+    this.contextBuilder = contextBuilder;
+    this.output = output;
+  }
+
+  void serve(InputStream input, PrintStream out) throws IOException {
+    ObjectWriter responseWriter = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+    BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+    out.println(responseWriter.writeValueAsString(Collections.singletonMap("ready", Boolean.TRUE)));
+    out.flush();
+
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (line.trim().isEmpty()) {
+        continue;
+      }
+
+      Map<String, Object> response = new LinkedHashMap<String, Object>();
+      boolean shutdown = false;
+      long startedAt = System.nanoTime();
+      try {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> request = objectMapper.readValue(line, Map.class);
+        response.put("id", request.get("id"));
+        String command = request.containsKey("command") ? String.valueOf(request.get("command")) : "render";
+        if (command.equals("render")) {
+          Object changed = request.get("changed");
+          renderer.render(
+              resolveContextMocksPath(request),
+              changed instanceof List ? RendererArguments.normalizeChangedFiles((List<?>) changed) : null
+          );
+          response.put("output", output.getPagesPath(arguments.outputRoot).toString());
+        } else if (command.equals("index")) {
+          response.put("locales", arguments.locales);
+          response.put("variants", indexPages(resolveContextMocksPath(request)));
+        } else if (command.equals("page")) {
+          response.put("html", renderRequestedPage(request));
+        } else if (command.equals("shutdown")) {
+          shutdown = true;
+        } else if (!command.equals("ping")) {
+          throw new IllegalArgumentException("Unknown command: " + command);
+        }
+        response.put("ok", Boolean.TRUE);
+      } catch (Exception error) {
+        response.put("ok", Boolean.FALSE);
+        response.put("error", PreviewRendererMain.summarizeError(error));
+      }
+      response.put("elapsedMs", (System.nanoTime() - startedAt) / 1000000L);
+
+      out.println(responseWriter.writeValueAsString(response));
+      out.flush();
+      if (shutdown) {
+        return;
+      }
+    }
+  }
+
+  private Path resolveContextMocksPath(Map<String, Object> request) {
+    Object contextMocks = request.get("contextMocks");
+    Path contextMocksPath = contextMocks == null || String.valueOf(contextMocks).trim().isEmpty()
+        ? arguments.contextMocksPath
+        : Paths.get(String.valueOf(contextMocks).trim());
+    if (contextMocksPath == null) {
+      throw new IllegalArgumentException("Missing contextMocks for " + request.getOrDefault("command", "render") + " request");
+    }
+    return contextMocksPath;
+  }
+
+  private Map<String, Map<String, List<String>>> indexPages(Path contextMocksPath) throws Exception {
+    ContextBuilder.ContextOverrides contextOverrides = contextBuilder.readContextOverrides(contextMocksPath);
+    List<PreviewRendererMain.VariantSpec> variants = renderer.getVariants();
+    List<Future<VariantLoader.VariantInputs>> pendingInputs = new ArrayList<Future<VariantLoader.VariantInputs>>();
+    for (PreviewRendererMain.VariantSpec variant : variants) {
+      pendingInputs.add(renderer.submitIo(() -> renderer.loadVariantInputs(variant, arguments.locales.get(0))));
+    }
+
+    Map<String, PreviewRendererMain.VariantSpec> indexedVariants = new LinkedHashMap<String, PreviewRendererMain.VariantSpec>();
+    Map<String, Map<String, List<String>>> result = new LinkedHashMap<String, Map<String, List<String>>>();
+    for (int i = 0; i < variants.size(); i++) {
+      VariantLoader.VariantInputs inputs = PreviewRendererMain.await(pendingInputs.get(i));
+      if (inputs == null) {
+        continue;
+      }
+      PreviewRendererMain.VariantSpec variant = variants.get(i);
+      Map<String, List<String>> pages = new LinkedHashMap<String, List<String>>();
+      for (String pageTemplate : inputs.getPageTemplates()) {
+        List<String> states = new ArrayList<String>();
+        states.add("default");
+        states.addAll(contextOverrides.getStates(pageTemplate));
+        pages.put(pageTemplate.replace(".ftl", ".html"), states);
+      }
+      indexedVariants.put(variant.id, variant);
+      result.put(variant.id, pages);
+    }
+    pageIndex = new PageIndex(contextOverrides, indexedVariants);
+    renderedPages.clear();
+    return result;
+  }
+
+  // Kept until its inputs, its mock or a file it read changes, or the page index is rebuilt.
+  private String renderRequestedPage(Map<String, Object> request) throws Exception {
+    if (pageIndex == null) {
+      indexPages(resolveContextMocksPath(request));
+    }
+    Object changed = request.get("changed");
+    if (changed instanceof List) {
+      Set<String> changedFiles = RendererArguments.normalizeChangedFiles((List<?>) changed);
+      renderedPages.values().removeIf(page -> !Collections.disjoint(page.loadedFiles, changedFiles));
+    }
+
+    String variantId = getRequiredString(request, "variant");
+    String pageId = getRequiredString(request, "page");
+    String state = request.get("state") == null ? "default" : String.valueOf(request.get("state"));
+    String locale = request.get("locale") == null
+        ? arguments.locales.get(0)
+        : RendererArguments.parseLocale(String.valueOf(request.get("locale")));
+    String pageTemplate = pageId.endsWith(".html") ? pageId.substring(0, pageId.length() - ".html".length()) + ".ftl" : pageId;
+    pageId = pageTemplate.replace(".ftl", ".html");
+
+    PreviewRendererMain.VariantSpec variant = pageIndex.variants.get(variantId);
+    if (variant == null) {
+      throw new IllegalArgumentException("Unknown variant: " + variantId);
+    }
+    VariantLoader.VariantInputs inputs = renderer.loadVariantInputs(variant, locale);
+    if (inputs == null || !inputs.getPageTemplates().contains(pageTemplate)) {
+      throw new IllegalArgumentException("Unknown page " + pageId + " for variant " + variantId);
+    }
+    Map<String, Object> context;
+    if (state.equals("default")) {
+      context = contextBuilder.getDefaultPageContext(pageIndex.contextOverrides, pageTemplate);
+    } else if (pageIndex.contextOverrides.getStates(pageTemplate).contains(state)) {
+      context = contextBuilder.getPageContext(pageIndex.contextOverrides, pageTemplate + "@" + state);
+    } else {
+      throw new IllegalArgumentException("Unknown state " + state + " for page " + pageId);
+    }
+
+    String key = locale + "|" + variantId + "|" + pageId + "|" + state;
+    String contextHash = RenderIndex.hash(objectMapper, context);
+    RenderedPage rendered = renderedPages.get(key);
+    if (rendered != null
+        && rendered.inputs == inputs
+        && rendered.contextHash.equals(contextHash)
+        && rendered.filesFingerprint.equals(VariantLoader.fingerprintFiles(rendered.loadedFiles))) {
+      return rendered.html;
+    }
+    Set<String> loadedFiles = new HashSet<String>();
+    String html = renderer.renderPage(variant, inputs, pageTemplate, pageId, context, loadedFiles);
+    renderer.logNearBudget("");
+    if (html.trim().isEmpty()) {
+      throw new IllegalStateException(pageTemplate + ": renders empty output (macro-only template)");
+    }
+    renderedPages.put(key, new RenderedPage(
+        inputs, contextHash, loadedFiles, VariantLoader.fingerprintFiles(loadedFiles), html
+    ));
+    if (renderedPages.size() > MAX_RENDERED_PAGES) {
+      Iterator<RenderedPage> eldest = renderedPages.values().iterator();
+      eldest.next();
+      eldest.remove();
+    }
+    return html;
+  }
+
+  private static String getRequiredString(Map<String, Object> request, String name) {
+    Object value = request.get(name);
+    if (value == null || String.valueOf(value).trim().isEmpty()) {
+      throw new IllegalArgumentException("Missing " + name + " for " + request.get("command") + " request");
+    }
+    return String.valueOf(value).trim();
+  }
+
+  private static final class PageIndex {
+    private final ContextBuilder.ContextOverrides contextOverrides;
+    private final Map<String, PreviewRendererMain.VariantSpec> variants;
+
+    private PageIndex(ContextBuilder.ContextOverrides contextOverrides, Map<String, PreviewRendererMain.VariantSpec> variants) {
+      this.contextOverrides = contextOverrides;
+      this.variants = variants;
+    }
+  }
+
+  private static final class RenderedPage {
+    private final VariantLoader.VariantInputs inputs;
+    private final String contextHash;
+    private final Set<String> loadedFiles;
+    private final String filesFingerprint;
+    private final String html;
+
+    private RenderedPage(
+        VariantLoader.VariantInputs inputs,
+        String contextHash,
+        Set<String> loadedFiles,
+        String filesFingerprint,
+        String html
+    ) {
+      this.inputs = inputs;
+      this.contextHash = contextHash;
+      this.loadedFiles = loadedFiles;
+      this.filesFingerprint = filesFingerprint;
+      this.html = html;
+    }
+  }
+}
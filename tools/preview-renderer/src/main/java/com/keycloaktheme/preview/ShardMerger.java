@@ -0,0 +1,37 @@
+package com.keycloaktheme.preview;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// The --merge command: combines the outputs of a --shard=i/n run, one root per shard, into the output a single
+// process writes. --layout and --dedup apply here, as the shards themselves always write a plain pages.json.
+final class ShardMerger {
+  private final ObjectMapper objectMapper;
+  private final OutputLayout output;
+
+  ShardMerger(ObjectMapper objectMapper, OutputLayout output) {
+    this.objectMapper = objectMapper;
+    this.output = output;
+  }
+
+  void merge(List<Path> shardRoots) throws IOException {
+    List<String> locales = output.getLocales();
+    for (String locale : locales) {
+      List<Path> localeRoots = new ArrayList<Path>();
+      for (Path shardRoot : shardRoots) {
+        localeRoots.add(output.getLocaleRoot(shardRoot, locale));
+      }
+      int pages;
+      try (PagesWriter writer = output.openPagesWriter(output.getRoot(locale))) {
+        pages = RenderShard.merge(objectMapper, localeRoots, locale, writer);
+        writer.finish();
+      }
+      String localeSuffix = locales.size() > 1 ? " [" + locale + "]" : "";
+      System.err.println("Merged" + localeSuffix + " " + pages + " page(s) from " + shardRoots.size() + " shard(s).");
+    }
+    output.writeLocalesManifest();
+  }
+}
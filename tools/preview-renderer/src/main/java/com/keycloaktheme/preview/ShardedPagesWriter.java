@@ -0,0 +1,234 @@
+package com.keycloaktheme.preview;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// Writes one compact JSON file per variant (or per variant page) under pages/, plus a manifest listing each
+// shard's file and content hash, so clients fetch only what they show and can cache shards by hash.
+// The directory is assembled next to the previous one and swapped in by finish(). With compress, every shard
+// also gets a .gz sibling; the manifest hash of the shard doubles as its ETag.
+//
+// Shard file names are derived from variant and page ids. Ids that are already file-safe keep their name; any
+// other id is sanitized and gets a short hash of the original id appended, so "a/b" and "a_b" never share a
+// file. A name that would still clash with one already written (ids differing only in case, on a
+// case-insensitive file system) fails the run instead of overwriting a shard.
+public final class ShardedPagesWriter implements PagesWriter {
+  public static final String DIRECTORY_NAME = "pages";
+  public static final String MANIFEST_FILE_NAME = "manifest.json";
+  private static final Pattern FILE_SAFE_ID = Pattern.compile("[A-Za-z0-9._-]+");
+
+  private final ObjectMapper objectMapper;
+  private final Path outputDir;
+  private final Path tempDir;
+  private final Path previousDir;
+  private final boolean perPage;
+  private final boolean compress;
+  private final Map<String, Object> manifest = new LinkedHashMap<String, Object>();
+  private final Map<String, Map<String, Object>> manifestVariants = new LinkedHashMap<String, Map<String, Object>>();
+  private String openVariantId;
+  private Shard openShard;
+  private List<String> openShardPages;
+  // Lower-cased, so two names only a case-insensitive file system would merge are caught too.
+  private final Set<String> shardFiles = new HashSet<String>();
+  private boolean finished;
+
+  public ShardedPagesWriter(ObjectMapper objectMapper, Path outputRoot, String keycloakTag, boolean perPage) throws IOException {
+    this(objectMapper, outputRoot, keycloakTag, perPage, false);
+  }
+
+  public ShardedPagesWriter(
+      ObjectMapper objectMapper,
+      Path outputRoot,
+      String keycloakTag,
+      boolean perPage,
+      boolean compress
+  ) throws IOException {
+    this.objectMapper = objectMapper;
+    this.outputDir = outputRoot.resolve(DIRECTORY_NAME);
+    this.tempDir = outputRoot.resolve(DIRECTORY_NAME + ".tmp");
+    this.previousDir = outputRoot.resolve(DIRECTORY_NAME + ".old");
+    this.perPage = perPage;
+    this.compress = compress;
+    deleteRecursively(tempDir);
+    Files.createDirectories(tempDir);
+
+    manifest.put("generatedAt", Instant.now().toString());
+    manifest.put("keycloakTag", keycloakTag);
+    manifest.put("layout", perPage ? "page" : "variant");
+    manifest.put("variants", manifestVariants);
+  }
+
+  @Override
+  public void writePage(String variantId, String pageId, Map<String, String> states) throws IOException {
+    if (!variantId.equals(openVariantId)) {
+      closeVariant();
+      openVariantId = variantId;
+      Map<String, Object> variantEntry = new LinkedHashMap<String, Object>();
+      manifestVariants.put(variantId, variantEntry);
+      if (perPage) {
+        variantEntry.put("pages", new LinkedHashMap<String, Object>());
+      } else {
+        openShard = new Shard(toFileName(variantId) + ".json");
+        openShard.generator.writeStartObject();
+        openShardPages = new ArrayList<String>();
+      }
+    }
+
+    if (perPage) {
+      Shard shard = new Shard(toFileName(variantId) + "/" + toFileName(pageId) + ".json");
+      writeStates(shard.generator, states);
+      shard.close();
+      @SuppressWarnings("unchecked")
+      Map<String, Object> pages = (Map<String, Object>) manifestVariants.get(variantId).get("pages");
+      pages.put(pageId, shard.describe());
+    } else {
+      openShard.generator.writeFieldName(pageId);
+      writeStates(openShard.generator, states);
+      openShardPages.add(pageId);
+    }
+  }
+
+  // The previous directory is renamed aside rather than deleted first, so pages/ is only missing between two
+  // renames, and a failed move puts the previous output back.
+  @Override
+  public void finish() throws IOException {
+    closeVariant();
+    Files.write(tempDir.resolve(MANIFEST_FILE_NAME), objectMapper.writeValueAsBytes(manifest));
+    deleteRecursively(previousDir);
+    boolean hadPrevious = Files.exists(outputDir);
+    if (hadPrevious) {
+      Files.move(outputDir, previousDir);
+    }
+    try {
+      Files.move(tempDir, outputDir);
+    } catch (IOException error) {
+      if (hadPrevious) {
+        try {
+          Files.move(previousDir, outputDir);
+        } catch (IOException restoreError) {
+          error.addSuppressed(restoreError);
+        }
+      }
+      throw error;
+    }
+    finished = true;
+    deleteRecursively(previousDir);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (finished) {
+      return;
+    }
+    if (openShard != null) {
+      openShard.generator.close();
+      openShard = null;
+    }
+    deleteRecursively(tempDir);
+  }
+
+  private void closeVariant() throws IOException {
+    if (openShard == null) {
+      return;
+    }
+    openShard.generator.writeEndObject();
+    openShard.close();
+    Map<String, Object> variantEntry = manifestVariants.get(openVariantId);
+    variantEntry.putAll(openShard.describe());
+    variantEntry.put("pages", openShardPages);
+    openShard = null;
+    openShardPages = null;
+  }
+
+  private static void writeStates(JsonGenerator generator, Map<String, String> states) throws IOException {
+    generator.writeStartObject();
+    for (Map.Entry<String, String> state : states.entrySet()) {
+      generator.writeStringField(state.getKey(), state.getValue());
+    }
+    generator.writeEndObject();
+  }
+
+  // Variant ids of nested user themes contain slashes; shard names stay flat and URL-safe.
+  private static String toFileName(String id) {
+    if (FILE_SAFE_ID.matcher(id).matches() && !id.equals(".") && !id.equals("..")) {
+      return id;
+    }
+    String hash = RenderIndex.sha256(id.getBytes(StandardCharsets.UTF_8)).substring(0, 8);
+    return id.replaceAll("[^A-Za-z0-9._-]", "_") + "-" + hash;
+  }
+
+  private static void deleteRecursively(Path dir) throws IOException {
+    if (!Files.exists(dir)) {
+      return;
+    }
+    try (Stream<Path> paths = Files.walk(dir)) {
+      for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  private final class Shard {
+    private final String file;
+    private final MessageDigest digest;
+    // The whole directory is swapped in at once, so compressed shards are written in place.
+    private final PrecompressedOutput compressed;
+    private final JsonGenerator generator;
+    private String hash;
+
+    private Shard(String file) throws IOException {
+      if (!shardFiles.add(file.toLowerCase(Locale.ROOT))) {
+        throw new IllegalStateException("Two ids map to the same shard file " + file + "; rename one of them");
+      }
+      this.file = file;
+      Path path = tempDir.resolve(file);
+      Files.createDirectories(path.getParent());
+      if (compress) {
+        this.digest = null;
+        this.compressed = new PrecompressedOutput(path);
+        this.generator = objectMapper.getFactory().createGenerator(compressed, JsonEncoding.UTF8);
+        return;
+      }
+      try {
+        this.digest = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException error) {
+        throw new IllegalStateException("SHA-256 not available", error);
+      }
+      this.compressed = null;
+      this.generator = objectMapper.getFactory().createGenerator(
+          new DigestOutputStream(Files.newOutputStream(path), digest), JsonEncoding.UTF8
+      );
+    }
+
+    private void close() throws IOException {
+      generator.close();
+      hash = compressed == null ? RenderIndex.toHex(digest.digest()) : compressed.getHash();
+    }
+
+    private Map<String, Object> describe() {
+      Map<String, Object> entry = new LinkedHashMap<String, Object>();
+      entry.put("file", file);
+      entry.put("hash", hash);
+      return entry;
+    }
+  }
+}
@@ -0,0 +1,26 @@
+package com.keycloaktheme.preview;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+// Canonical instances of the keys and values of parsed properties files, held weakly: a string stays pooled only
+// while some loaded bundle still references it. A long-lived --serve process re-parses every edited messages file,
+// and a strongly held pool would keep each superseded key and value for the rest of the process.
+public final class StringPool {
+  private final Map<String, WeakReference<String>> entries = new WeakHashMap<String, WeakReference<String>>();
+
+  public synchronized String intern(String value) {
+    WeakReference<String> reference = entries.get(value);
+    String existing = reference == null ? null : reference.get();
+    if (existing != null) {
+      return existing;
+    }
+    entries.put(value, new WeakReference<String>(value));
+    return value;
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+}
@@ -0,0 +1,306 @@
+package com.keycloaktheme.preview;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+// Finds theme directories (those containing login/theme.properties) below a root. Each top-level subtree is
+// walked once, in parallel when an executor is given, and themes are recognised from the walk's own visits,
+// so no path is stat'ed twice. The result is kept together with the mtime of every directory the walk listed;
+// while none of those change (an added or removed entry changes its directory's mtime), discovery reuses it
+// without walking. With an index file the result also survives restarts.
+public final class ThemeDiscovery {
+  public static final List<String> DEFAULT_IGNORE_GLOBS = Collections.unmodifiableList(
+      Arrays.asList(".*", "node_modules", "dist", "build", "target")
+  );
+  private static final int VERSION = 1;
+  // Themes are found at most this many levels below the root; the root itself is level 0.
+  private static final int MAX_THEME_DEPTH = 4;
+  private static final EnumSet<FileVisitOption> FOLLOW_LINKS = EnumSet.of(FileVisitOption.FOLLOW_LINKS);
+
+  private final ObjectMapper objectMapper;
+  private final List<String> ignoreGlobs;
+  private final List<PathMatcher> ignoreMatchers = new ArrayList<PathMatcher>();
+  private final Path indexPath;
+  private final ExecutorService executor;
+  private Index index;
+
+  public ThemeDiscovery(ObjectMapper objectMapper, List<String> ignoreGlobs, Path indexPath, ExecutorService executor) {
+    this.objectMapper = objectMapper;
+    this.ignoreGlobs = ignoreGlobs;
+    this.indexPath = indexPath;
+    this.executor = executor;
+    for (String glob : ignoreGlobs) {
+      ignoreMatchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+    }
+  }
+
+  // Theme directories in the order of a depth-first walk over name-sorted entries, the root first.
+  public synchronized List<Path> discover(Path root) throws IOException {
+    if (root == null || !Files.isDirectory(root)) {
+      return Collections.emptyList();
+    }
+    Path normalizedRoot = root.toAbsolutePath().normalize();
+    Index current = index != null ? index : readIndex();
+    if (current == null || !current.describes(normalizedRoot, ignoreGlobs) || !current.isFresh()) {
+      current = walk(normalizedRoot);
+      writeIndex(current);
+    }
+    index = current;
+    List<Path> themes = new ArrayList<Path>();
+    for (String theme : current.themes) {
+      themes.add(Paths.get(theme));
+    }
+    return themes;
+  }
+
+  private Index walk(Path root) throws IOException {
+    Map<String, Long> directories = new TreeMap<String, Long>();
+    List<Path> subtrees = new ArrayList<Path>();
+    Files.walkFileTree(root, FOLLOW_LINKS, 1, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+        directories.put(dir.toString(), attributes.lastModifiedTime().toMillis());
+        return FileVisitResult.CONTINUE;
+      }
+
+      // At the depth limit, directories are reported as plain visits.
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+        if (attributes.isDirectory() && !isIgnored(root, file)) {
+          subtrees.add(file);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException error) {
+        return FileVisitResult.CONTINUE;
+      }
+    });
+
+    List<Future<Subtree>> pending = new ArrayList<Future<Subtree>>();
+    for (Path subtree : subtrees) {
+      pending.add(submit(() -> walkSubtree(root, subtree)));
+    }
+    List<Path> themes = new ArrayList<Path>();
+    for (Future<Subtree> future : pending) {
+      Subtree subtree = await(future);
+      directories.putAll(subtree.directories);
+      themes.addAll(subtree.themes);
+    }
+    Collections.sort(themes, ThemeDiscovery::compareByNames);
+
+    List<String> themeNames = new ArrayList<String>();
+    for (Path theme : themes) {
+      themeNames.add(theme.toString());
+    }
+    return new Index(VERSION, root.toString(), ignoreGlobs, directories, themeNames);
+  }
+
+  // A directory deeper than MAX_THEME_DEPTH is only entered when it is the login/ of a theme at the limit.
+  private Subtree walkSubtree(Path root, Path start) throws IOException {
+    Subtree subtree = new Subtree();
+    int rootDepth = root.getNameCount();
+    int maxDepth = MAX_THEME_DEPTH + 2 - (start.getNameCount() - rootDepth);
+    Files.walkFileTree(start, FOLLOW_LINKS, maxDepth, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+        int depth = dir.getNameCount() - rootDepth;
+        boolean themeLoginDir = depth == MAX_THEME_DEPTH + 1 && dir.getFileName().toString().equals("login");
+        if ((depth > MAX_THEME_DEPTH && !themeLoginDir) || isIgnored(root, dir)) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        subtree.directories.put(dir.toString(), attributes.lastModifiedTime().toMillis());
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+        Path loginDir = file.getParent();
+        if (attributes.isRegularFile()
+            && file.getFileName().toString().equals("theme.properties")
+            && loginDir.getFileName().toString().equals("login")
+            && loginDir.getNameCount() - rootDepth <= MAX_THEME_DEPTH + 1) {
+          subtree.themes.add(loginDir.getParent());
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      // Unreadable directories and symlink loops are left out, as if they were empty.
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException error) {
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return subtree;
+  }
+
+  private boolean isIgnored(Path root, Path dir) {
+    Path relative = root.relativize(dir);
+    for (PathMatcher matcher : ignoreMatchers) {
+      if (matcher.matches(dir.getFileName()) || matcher.matches(relative)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int compareByNames(Path left, Path right) {
+    Iterator<Path> leftNames = left.iterator();
+    Iterator<Path> rightNames = right.iterator();
+    while (leftNames.hasNext() && rightNames.hasNext()) {
+      int compared = leftNames.next().toString().compareTo(rightNames.next().toString());
+      if (compared != 0) {
+        return compared;
+      }
+    }
+    return Boolean.compare(leftNames.hasNext(), rightNames.hasNext());
+  }
+
+  private <T> Future<T> submit(Callable<T> task) {
+    if (executor == null) {
+      FutureTask<T> future = new FutureTask<T>(task);
+      future.run();
+      return future;
+    }
+    return executor.submit(task);
+  }
+
+  private static <T> T await(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException error) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while discovering themes", error);
+    } catch (ExecutionException error) {
+      Throwable cause = error.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException("Theme discovery failed", cause);
+    }
+  }
+
+  private Index readIndex() {
+    if (indexPath == null || !Files.exists(indexPath)) {
+      return null;
+    }
+    try {
+      Index stored = objectMapper.readValue(indexPath.toFile(), Index.class);
+      return stored.version == VERSION ? stored : null;
+    } catch (IOException error) {
+      System.err.println("Warning: ignoring unreadable theme discovery index " + indexPath + ": " + error.getMessage());
+      return null;
+    }
+  }
+
+  private void writeIndex(Index value) {
+    if (indexPath == null) {
+      return;
+    }
+    try {
+      Files.createDirectories(indexPath.toAbsolutePath().getParent());
+      Files.write(indexPath, objectMapper.writeValueAsBytes(value));
+    } catch (IOException error) {
+      System.err.println("Warning: unable to write theme discovery index " + indexPath + ": " + error.getMessage());
+    }
+  }
+
+  private static final class Subtree {
+    private final Map<String, Long> directories = new TreeMap<String, Long>();
+    private final List<Path> themes = new ArrayList<Path>();
+  }
+
+  public static final class Index {
+    private final int version;
+    private final String root;
+    private final List<String> ignore;
+    private final Map<String, Long> directories;
+    private final List<String> themes;
+
+    @JsonCreator
+    public Index(
+        @JsonProperty("version") int version,
+        @JsonProperty("root") String root,
+        @JsonProperty("ignore") List<String> ignore,
+        @JsonProperty("directories") Map<String, Long> directories,
+        @JsonProperty("themes") List<String> themes
+    ) {
+      this.version = version;
+      this.root = root;
+      this.ignore = ignore == null ? Collections.<String>emptyList() : ignore;
+      this.directories = directories == null ? Collections.<String, Long>emptyMap() : directories;
+      this.themes = themes == null ? Collections.<String>emptyList() : themes;
+    }
+
+    private boolean describes(Path otherRoot, List<String> otherIgnore) {
+      return root.equals(otherRoot.toString()) && ignore.equals(otherIgnore);
+    }
+
+    private boolean isFresh() {
+      for (Map.Entry<String, Long> directory : directories.entrySet()) {
+        try {
+          if (Files.getLastModifiedTime(Paths.get(directory.getKey())).toMillis() != directory.getValue()) {
+            return false;
+          }
+        } catch (IOException error) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @JsonProperty("version")
+    public int getVersion() {
+      return version;
+    }
+
+    @JsonProperty("root")
+    public String getRoot() {
+      return root;
+    }
+
+    @JsonProperty("ignore")
+    public List<String> getIgnore() {
+      return ignore;
+    }
+
+    @JsonProperty("directories")
+    public Map<String, Long> getDirectories() {
+      return directories;
+    }
+
+    @JsonProperty("themes")
+    public List<String> getThemes() {
+      return themes;
+    }
+  }
+}
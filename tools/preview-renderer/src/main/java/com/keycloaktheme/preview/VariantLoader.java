@@ -4,25 +4,51 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public final class VariantLoader {
+  // Every bundle chain ends in English, and English is what the context mocks describe.
+  public static final String DEFAULT_LOCALE = "en";
   private static final Set<String> EXCLUDED_PAGE_TEMPLATES = new LinkedHashSet<String>(
       Arrays.asList("template.ftl", "footer.ftl", "field.ftl", "passkeys.ftl", "cli_splash.ftl")
   );
 
   private final Path overrideRoot;
+  private final Map<String, CachedVariantInputs> cachedInputs = new ConcurrentHashMap<String, CachedVariantInputs>();
+  // Parsed properties files shared by every variant built on them, revalidated by mtime and size.
+  private final Map<Path, ParsedProperties> parsedProperties = new ConcurrentHashMap<Path, ParsedProperties>();
+  // Keys and values of the parsed files still in use; themes repeat most of them across messages and variants.
+  private final StringPool stringPool = new StringPool();
+  // Runs a variant's file reads and directory listings concurrently when set (see IoExecutors); otherwise
+  // they happen in order on the calling thread.
+  private final ExecutorService ioExecutor;
 
   public VariantLoader(Path overrideRoot) {
+    this(overrideRoot, null);
+  }
+
+  public VariantLoader(Path overrideRoot, ExecutorService ioExecutor) {
     this.overrideRoot = overrideRoot;
+    this.ioExecutor = ioExecutor;
   }
 
   public VariantInputs loadVariantInputs(
@@ -30,62 +56,169 @@ public final class VariantLoader {
       Path inheritedBaseThemeDir,
       Path overlayDir,
       Path userOverlayDir
+  ) throws IOException {
+    return loadVariantInputs(baseThemeDir, inheritedBaseThemeDir, overlayDir, userOverlayDir, DEFAULT_LOCALE);
+  }
+
+  // locale is a language tag such as "de" or "pt-BR". Its bundles are only read when a variant is first
+  // loaded for it; the English files underneath are parsed once and shared by every locale.
+  public VariantInputs loadVariantInputs(
+      Path baseThemeDir,
+      Path inheritedBaseThemeDir,
+      Path overlayDir,
+      Path userOverlayDir,
+      String locale
+  ) throws IOException {
+    List<String> bundleSuffixes = getBundleSuffixes(locale);
+    String cacheKey = baseThemeDir + "|" + inheritedBaseThemeDir + "|" + overlayDir + "|" + userOverlayDir + "|" + locale;
+    String fingerprint = fingerprintSources(baseThemeDir, inheritedBaseThemeDir, overlayDir, userOverlayDir, bundleSuffixes);
+    CachedVariantInputs cached = cachedInputs.get(cacheKey);
+    if (cached != null && cached.fingerprint.equals(fingerprint)) {
+      return cached.inputs;
+    }
+
+    VariantInputs inputs = readVariantInputs(
+        baseThemeDir, inheritedBaseThemeDir, overlayDir, userOverlayDir, locale, bundleSuffixes
+    );
+    if (inputs == null) {
+      cachedInputs.remove(cacheKey);
+    } else {
+      cachedInputs.put(cacheKey, new CachedVariantInputs(fingerprint, inputs));
+    }
+    return inputs;
+  }
+
+  // Bundle file suffixes from the English fallback to the most specific one: "pt-BR" reads messages_en,
+  // then messages_pt, then messages_pt_BR, each later bundle overriding the keys it defines.
+  private static List<String> getBundleSuffixes(String locale) {
+    Set<String> suffixes = new LinkedHashSet<String>();
+    suffixes.add(DEFAULT_LOCALE);
+    String[] parts = locale.split("[-_]");
+    StringBuilder suffix = new StringBuilder();
+    for (String part : parts) {
+      if (suffix.length() > 0) {
+        suffix.append('_');
+      }
+      suffix.append(part);
+      suffixes.add(suffix.toString());
+    }
+    return new ArrayList<String>(suffixes);
+  }
+
+  private static Path messagesFile(Path dir, String suffix) {
+    return dir.resolve("messages").resolve("messages_" + suffix + ".properties");
+  }
+
+  // Directory stamps cover added/removed templates; file stamps cover edited properties and messages.
+  private String fingerprintSources(
+      Path baseThemeDir,
+      Path inheritedBaseThemeDir,
+      Path overlayDir,
+      Path userOverlayDir,
+      List<String> bundleSuffixes
+  ) {
+    Path baseThemeLoginDir = baseThemeDir.resolve("login");
+    Path localOverrideLoginDir = overrideRoot.resolve(baseThemeDir.getFileName().toString()).resolve("login");
+    Path inheritedBaseLoginDir = inheritedBaseThemeDir.resolve("login");
+
+    StringBuilder fingerprint = new StringBuilder();
+    for (Path loginDir : Arrays.asList(baseThemeLoginDir, localOverrideLoginDir, inheritedBaseLoginDir, overlayDir, userOverlayDir)) {
+      appendStamp(fingerprint, loginDir);
+      if (loginDir != null) {
+        appendStamp(fingerprint, loginDir.resolve("theme.properties"));
+        for (String suffix : bundleSuffixes) {
+          appendStamp(fingerprint, messagesFile(loginDir, suffix));
+        }
+      }
+    }
+    for (String suffix : bundleSuffixes) {
+      appendStamp(fingerprint, messagesFile(baseThemeDir, suffix));
+      appendStamp(fingerprint, messagesFile(inheritedBaseThemeDir, suffix));
+    }
+    return fingerprint.toString();
+  }
+
+  // The same mtime:size stamps as the variant fingerprint, over an arbitrary set of files (missing ones included,
+  // so creating one changes the result).
+  public static String fingerprintFiles(Collection<String> files) {
+    StringBuilder fingerprint = new StringBuilder();
+    for (String file : new TreeSet<String>(files)) {
+      appendStamp(fingerprint, Paths.get(file));
+    }
+    return fingerprint.toString();
+  }
+
+  private static void appendStamp(StringBuilder target, Path path) {
+    target.append(path).append('@');
+    try {
+      if (path != null && Files.exists(path)) {
+        target.append(Files.getLastModifiedTime(path).toMillis()).append(':').append(Files.size(path));
+      }
+    } catch (IOException ignored) {
+    }
+    target.append(';');
+  }
+
+  private VariantInputs readVariantInputs(
+      Path baseThemeDir,
+      Path inheritedBaseThemeDir,
+      Path overlayDir,
+      Path userOverlayDir,
+      String locale,
+      List<String> bundleSuffixes
   ) throws IOException {
     String baseThemeId = baseThemeDir.getFileName().toString();
     Path baseThemeLoginDir = baseThemeDir.resolve("login");
     Path localOverrideLoginDir = overrideRoot.resolve(baseThemeId).resolve("login");
     Path inheritedBaseLoginDir = inheritedBaseThemeDir.resolve("login");
-    Path messagesPath = baseThemeDir.resolve("messages").resolve("messages_en.properties");
-    Path inheritedMessagesPath = inheritedBaseThemeDir.resolve("messages").resolve("messages_en.properties");
     Path themePropertiesPath = baseThemeLoginDir.resolve("theme.properties");
 
     if (!Files.exists(baseThemeLoginDir) || !Files.exists(themePropertiesPath)) {
       return null;
     }
-    if (!Files.exists(messagesPath)) {
-      messagesPath = inheritedMessagesPath;
-    }
-    if (!Files.exists(messagesPath)) {
+    if (!Files.exists(messagesFile(baseThemeDir, DEFAULT_LOCALE)) && !Files.exists(messagesFile(inheritedBaseThemeDir, DEFAULT_LOCALE))) {
       return null;
     }
 
-    Map<String, String> themeProperties = parseJavaProperties(readUtf8(themePropertiesPath));
-    Path overrideThemePropertiesPath = localOverrideLoginDir.resolve("theme.properties");
-    if (Files.exists(overrideThemePropertiesPath)) {
-      Map<String, String> overrideThemeProperties = parseJavaProperties(readUtf8(overrideThemePropertiesPath));
-      for (Map.Entry<String, String> entry : overrideThemeProperties.entrySet()) {
-        themeProperties.putIfAbsent(entry.getKey(), entry.getValue());
-      }
-    }
+    // Each variant's maps are thin layers over the shared parsed files, applied in the same order (and with
+    // the same precedence) as successive put / putIfAbsent calls. A message bundle only adds the arrays of
+    // the files layered on it. All English layers come first, so a key a translation lacks falls back to the
+    // theme's English text.
+    List<Path> propertyLayers = new ArrayList<Path>();
+    propertyLayers.add(themePropertiesPath);
+    propertyLayers.add(localOverrideLoginDir.resolve("theme.properties"));
     if (overlayDir != null) {
-      Path overlayThemePropertiesPath = overlayDir.resolve("theme.properties");
-      if (Files.exists(overlayThemePropertiesPath)) {
-        themeProperties.putAll(parseJavaProperties(readUtf8(overlayThemePropertiesPath)));
-      }
+      propertyLayers.add(overlayDir.resolve("theme.properties"));
     }
     if (userOverlayDir != null) {
-      Path userThemePropertiesPath = userOverlayDir.resolve("theme.properties");
-      if (Files.exists(userThemePropertiesPath)) {
-        themeProperties.putAll(parseJavaProperties(readUtf8(userThemePropertiesPath)));
+      propertyLayers.add(userOverlayDir.resolve("theme.properties"));
+    }
+    List<Path> layers = new ArrayList<Path>(propertyLayers);
+    for (String suffix : bundleSuffixes) {
+      Path messagesPath = messagesFile(baseThemeDir, suffix);
+      layers.add(Files.exists(messagesPath) ? messagesPath : messagesFile(inheritedBaseThemeDir, suffix));
+      layers.add(messagesFile(localOverrideLoginDir, suffix));
+      if (overlayDir != null) {
+        layers.add(messagesFile(overlayDir, suffix));
       }
+      if (userOverlayDir != null) {
+        layers.add(messagesFile(userOverlayDir, suffix));
+      }
+    }
+    List<Callable<MessageBundle>> reads = new ArrayList<Callable<MessageBundle>>();
+    for (Path layer : layers) {
+      reads.add(() -> readProperties(layer));
     }
+    List<MessageBundle> bundles = runAll(reads);
 
-    Map<String, String> messages = parseJavaProperties(readUtf8(messagesPath));
-    Path overrideMessagesPath = localOverrideLoginDir.resolve("messages").resolve("messages_en.properties");
-    if (Files.exists(overrideMessagesPath)) {
-      messages.putAll(parseJavaProperties(readUtf8(overrideMessagesPath)));
+    Map<String, String> themeProperties = bundles.get(0);
+    themeProperties = OverlayMap.fill(themeProperties, bundles.get(1));
+    for (MessageBundle layer : bundles.subList(2, propertyLayers.size())) {
+      themeProperties = OverlayMap.override(themeProperties, layer);
     }
-    if (overlayDir != null) {
-      Path overlayMessagesPath = overlayDir.resolve("messages").resolve("messages_en.properties");
-      if (Files.exists(overlayMessagesPath)) {
-        messages.putAll(parseJavaProperties(readUtf8(overlayMessagesPath)));
-      }
-    }
-    if (userOverlayDir != null) {
-      Path userMessagesPath = userOverlayDir.resolve("messages").resolve("messages_en.properties");
-      if (Files.exists(userMessagesPath)) {
-        messages.putAll(parseJavaProperties(readUtf8(userMessagesPath)));
-      }
+    MessageBundle messages = MessageBundle.empty();
+    for (MessageBundle layer : bundles.subList(propertyLayers.size(), bundles.size())) {
+      messages = messages.overlay(layer);
     }
 
     List<String> pageTemplates = listPageTemplates(
@@ -102,7 +235,8 @@ public final class VariantLoader {
         inheritedBaseLoginDir,
         themeProperties,
         messages,
-        pageTemplates
+        pageTemplates,
+        locale
     );
   }
 
@@ -113,12 +247,14 @@ public final class VariantLoader {
       Path overlayDir,
       Path userOverlayDir
   ) throws IOException {
+    List<Callable<List<String>>> listings = new ArrayList<Callable<List<String>>>();
+    for (Path loginDir : Arrays.asList(userOverlayDir, overlayDir, localOverrideLoginDir, baseThemeLoginDir, inheritedBaseLoginDir)) {
+      listings.add(() -> collectPageTemplateNames(loginDir));
+    }
     Set<String> templates = new LinkedHashSet<String>();
-    templates.addAll(collectPageTemplateNames(userOverlayDir));
-    templates.addAll(collectPageTemplateNames(overlayDir));
-    templates.addAll(collectPageTemplateNames(localOverrideLoginDir));
-    templates.addAll(collectPageTemplateNames(baseThemeLoginDir));
-    templates.addAll(collectPageTemplateNames(inheritedBaseLoginDir));
+    for (List<String> names : runAll(listings)) {
+      templates.addAll(names);
+    }
     if (templates.isEmpty()) {
       return Collections.emptyList();
     }
@@ -140,6 +276,60 @@ public final class VariantLoader {
     }
   }
 
+  // Results come back in task order whichever executor ran them.
+  private <T> List<T> runAll(List<Callable<T>> tasks) throws IOException {
+    List<Future<T>> pending = new ArrayList<Future<T>>();
+    for (Callable<T> task : tasks) {
+      if (ioExecutor == null) {
+        FutureTask<T> future = new FutureTask<T>(task);
+        future.run();
+        pending.add(future);
+      } else {
+        pending.add(ioExecutor.submit(task));
+      }
+    }
+    List<T> results = new ArrayList<T>();
+    for (Future<T> future : pending) {
+      results.add(await(future));
+    }
+    return results;
+  }
+
+  private static <T> T await(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException error) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading variant inputs", error);
+    } catch (ExecutionException error) {
+      Throwable cause = error.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException("Reading variant inputs failed", cause);
+    }
+  }
+
+  // Missing files read as an empty bundle.
+  private MessageBundle readProperties(Path path) throws IOException {
+    Path key = path.toAbsolutePath().normalize();
+    if (!Files.isRegularFile(key)) {
+      parsedProperties.remove(key);
+      return MessageBundle.empty();
+    }
+    String stamp = Files.getLastModifiedTime(key).toMillis() + ":" + Files.size(key);
+    ParsedProperties cached = parsedProperties.get(key);
+    if (cached != null && cached.stamp.equals(stamp)) {
+      return cached.values;
+    }
+    MessageBundle values = MessageBundle.of(parseJavaProperties(readUtf8(key)), stringPool);
+    parsedProperties.put(key, new ParsedProperties(stamp, values));
+    return values;
+  }
+
   private Map<String, String> parseJavaProperties(String text) {
     Map<String, String> result = new LinkedHashMap<String, String>();
     for (String rawLine : text.split("\\R")) {
@@ -162,28 +352,53 @@ public final class VariantLoader {
     return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
   }
 
+  private static final class ParsedProperties {
+    private final String stamp;
+    private final MessageBundle values;
+
+    private ParsedProperties(String stamp, MessageBundle values) {
+      this.stamp = stamp;
+      this.values = values;
+    }
+  }
+
+  private static final class CachedVariantInputs {
+    private final String fingerprint;
+    private final VariantInputs inputs;
+
+    private CachedVariantInputs(String fingerprint, VariantInputs inputs) {
+      this.fingerprint = fingerprint;
+      this.inputs = inputs;
+    }
+  }
+
   public static final class VariantInputs {
     private final Path localOverrideLoginDir;
     private final Path baseThemeLoginDir;
     private final Path inheritedBaseLoginDir;
     private final Map<String, String> themeProperties;
-    private final Map<String, String> messages;
+    private final MessageBundle messages;
+    private final ContextObjects.CompiledMessages compiledMessages;
     private final List<String> pageTemplates;
+    private final String locale;
 
     public VariantInputs(
         Path localOverrideLoginDir,
         Path baseThemeLoginDir,
         Path inheritedBaseLoginDir,
         Map<String, String> themeProperties,
-        Map<String, String> messages,
-        List<String> pageTemplates
+        MessageBundle messages,
+        List<String> pageTemplates,
+        String locale
     ) {
       this.localOverrideLoginDir = localOverrideLoginDir;
       this.baseThemeLoginDir = baseThemeLoginDir;
       this.inheritedBaseLoginDir = inheritedBaseLoginDir;
       this.themeProperties = themeProperties;
       this.messages = messages;
+      this.compiledMessages = new ContextObjects.CompiledMessages(messages, Locale.forLanguageTag(locale));
       this.pageTemplates = pageTemplates;
+      this.locale = locale;
     }
 
     public Path getLocalOverrideLoginDir() {
@@ -202,12 +417,21 @@ public final class VariantLoader {
       return themeProperties;
     }
 
-    public Map<String, String> getMessages() {
+    public MessageBundle getMessages() {
       return messages;
     }
 
+    // Shared by every page rendered from these inputs, so compiled messages are reused across the variant.
+    public ContextObjects.CompiledMessages getCompiledMessages() {
+      return compiledMessages;
+    }
+
     public List<String> getPageTemplates() {
       return pageTemplates;
     }
+
+    public String getLocale() {
+      return locale;
+    }
   }
 }
@@ -0,0 +1,15 @@
+package com.keycloaktheme.preview;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// JDK 21 variant, packaged under META-INF/versions/21 by the jdk21 profile: one virtual thread per read, so
+// every variant's inputs and template sources can be requested at once without sizing a pool.
+public final class IoExecutors {
+  private IoExecutors() {
+  }
+
+  public static ExecutorService newIoExecutor() {
+    return Executors.newVirtualThreadPerTaskExecutor();
+  }
+}
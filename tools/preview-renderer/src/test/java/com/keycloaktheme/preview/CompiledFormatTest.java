@@ -0,0 +1,109 @@
+package com.keycloaktheme.preview;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.text.MessageFormat;
+import java.util.Locale;
+import org.junit.jupiter.api.Test;
+
+// CompiledFormat must produce exactly what a fresh MessageFormat produces for the same pattern and arguments,
+// including the exception when MessageFormat rejects the pattern or an argument.
+class CompiledFormatTest {
+  @Test
+  void plainArguments() {
+    assertSameAsMessageFormat("Hello {0}, you have {1} new messages.", "Ada", "3");
+    assertSameAsMessageFormat("{1}{0}", "a", "b");
+    assertSameAsMessageFormat("{0} and {0} again", "x");
+    assertSameAsMessageFormat("No arguments at all", "unused");
+    assertSameAsMessageFormat("", "unused");
+  }
+
+  @Test
+  void quotedText() {
+    assertSameAsMessageFormat("'{0}' is literal, {0} is not", "value");
+    assertSameAsMessageFormat("'It''s quoted' {0}", "value");
+    assertSameAsMessageFormat("Quote runs to the end: '{0}", "value");
+    assertSameAsMessageFormat("'{'{0}'}'", "braced");
+    assertSameAsMessageFormat("a '' b ''{0}''", "value");
+  }
+
+  @Test
+  void doubledApostrophes() {
+    assertSameAsMessageFormat("It''s {0}''s turn", "Ada");
+    assertSameAsMessageFormat("''''", "unused");
+    assertSameAsMessageFormat("Can''t log in as {0}.", "admin");
+  }
+
+  @Test
+  void typedArguments() {
+    assertSameAsMessageFormat("{0,number}", 1234567);
+    assertSameAsMessageFormat("{0,number,integer} items", 42.7);
+    assertSameAsMessageFormat("{0,number} for {1}", "not a number", "x");
+    assertSameAsMessageFormat("Expires {0,date,yyyy-MM-dd}", new java.util.Date(0L));
+  }
+
+  @Test
+  void nestedBraces() {
+    assertSameAsMessageFormat("{0,choice,0#no files|1#one file|1<{0,number,integer} files}", 0);
+    assertSameAsMessageFormat("{0,choice,0#no files|1#one file|1<{0,number,integer} files}", 5);
+    assertSameAsMessageFormat("{{0}}", "x");
+    assertSameAsMessageFormat("{0}}", "x");
+  }
+
+  @Test
+  void missingArguments() {
+    assertSameAsMessageFormat("{0} of {1}", "one");
+    assertSameAsMessageFormat("{0}");
+    assertSameAsMessageFormat("{2} then {0}", "a", "b");
+  }
+
+  @Test
+  void unusualIndexes() {
+    assertSameAsMessageFormat("{9999}", "x");
+    assertSameAsMessageFormat("{12345}", "x");
+    assertSameAsMessageFormat("{007}", "a", "b", "c", "d", "e", "f", "g", "h");
+    assertSameAsMessageFormat("{-1}", "x");
+    assertSameAsMessageFormat("{ 0 }", "x");
+    assertSameAsMessageFormat("{}", "x");
+    assertSameAsMessageFormat("{a}", "x");
+  }
+
+  @Test
+  void unmatchedBraces() {
+    assertSameAsMessageFormat("Unclosed {0", "x");
+    assertSameAsMessageFormat("Unclosed {", "x");
+    assertSameAsMessageFormat("Stray } brace {0}", "x");
+  }
+
+  @Test
+  void reusedAcrossCalls() {
+    ContextObjects.CompiledFormat format = ContextObjects.CompiledFormat.compile("{0} / {1,number}", Locale.ENGLISH);
+    assertEquals(expected("{0} / {1,number}", "a", 1000), format.format(new Object[] {"a", 1000}));
+    assertEquals(expected("{0} / {1,number}", "b", 2.5), format.format(new Object[] {"b", 2.5}));
+  }
+
+  private static void assertSameAsMessageFormat(String pattern, Object... values) {
+    assertEquals(
+        expected(pattern, values),
+        outcome(() -> ContextObjects.CompiledFormat.compile(pattern, Locale.ENGLISH).format(values)),
+        pattern
+    );
+  }
+
+  private static String expected(String pattern, Object... values) {
+    return outcome(() -> new MessageFormat(pattern, Locale.ENGLISH).format(values));
+  }
+
+  // The formatted text, or the exception type when formatting fails.
+  private static String outcome(Formatting formatting) {
+    try {
+      return formatting.format();
+    } catch (RuntimeException error) {
+      return "threw " + error.getClass().getName();
+    }
+  }
+
+  private interface Formatting {
+    String format();
+  }
+}
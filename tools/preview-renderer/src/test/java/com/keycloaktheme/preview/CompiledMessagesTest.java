@@ -0,0 +1,54 @@
+package com.keycloaktheme.preview;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class CompiledMessagesTest {
+  private static final Map<String, String> ENTRIES = new LinkedHashMap<String, String>();
+
+  static {
+    ENTRIES.put("loginTitle", "Sign in to {0}");
+    ENTRIES.put("doLogIn", "Sign In");
+    ENTRIES.put("quoted", "It''s here");
+    ENTRIES.put("username", "Username");
+  }
+
+  private final ContextObjects.CompiledMessages messages =
+      new ContextObjects.CompiledMessages(MessageBundle.of(ENTRIES, new StringPool()), Locale.ENGLISH);
+  private final ContextObjects.MessageMethod msg = new ContextObjects.MessageMethod(messages);
+  private final ContextObjects.AdvancedMessageMethod advancedMsg = new ContextObjects.AdvancedMessageMethod(messages);
+
+  @Test
+  void resolvesBundleKeysAndFallsBackToTheKey() throws Exception {
+    assertEquals("Sign In", msg.exec(Arrays.asList("doLogIn")));
+    assertEquals("It's here", msg.exec(Arrays.asList("quoted")));
+    assertEquals("Sign in to Acme", msg.exec(Arrays.asList("loginTitle", "Acme")));
+    assertEquals("Don't know", msg.exec(Arrays.asList("Don''t know")));
+    assertEquals("Hello Ada", msg.exec(Arrays.asList("Hello {0}", "Ada")));
+  }
+
+  @Test
+  void expandsMessageExpressions() {
+    assertEquals("Username or email", advancedMsg.exec(Arrays.asList("${username} or email")));
+    assertEquals("Sign In / ${unknown}", advancedMsg.exec(Arrays.asList("${doLogIn} / ${unknown}")));
+    assertEquals("plain ${ text", advancedMsg.exec(Arrays.asList("plain ${ text")));
+  }
+
+  @Test
+  void runtimeValuesDoNotGrowTheCaches() throws Exception {
+    for (int user = 0; user < 5 * ContextObjects.CompiledMessages.MAX_EXPANSIONS; user++) {
+      assertEquals("user" + user, msg.exec(Arrays.asList("user" + user)));
+      assertEquals("Hi user" + user, msg.exec(Arrays.asList("Hi {0}", "user" + user)));
+      assertEquals("user" + user + " Username", advancedMsg.exec(Arrays.asList("user" + user + " ${username}")));
+    }
+
+    assertTrue(messages.cachedEntries() <= ContextObjects.CompiledMessages.MAX_EXPANSIONS + ENTRIES.size(),
+        "caches hold " + messages.cachedEntries() + " entries");
+  }
+}
@@ -0,0 +1,83 @@
+package com.keycloaktheme.preview;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import org.junit.jupiter.api.Test;
+
+class HtmlPostProcessorTest {
+  private static final String PAGE = "<html><head><script>if (a < b) { x = '</div>'; }</script>"
+      + "<style>p > a { color: red }</style></head>"
+      + "<body class=\"login\" data-page-id=\"old\">"
+      + "<div data-editor-id=\"1\" data-editor-label='Title' title=\"a > b\">a < b &amp; c</div>"
+      + "<!-- <div data-editor-id=\"2\"> -->"
+      + "<input data-editor-x=unquoted value='it\"s'>"
+      + "<body data-editor-id=\"3\"></body></body></html>";
+
+  private static final String SCRIPT = "<script>if (a < b) { x = '</div>'; }</script>";
+  private static final String REWRITTEN = "<html><head>" + SCRIPT
+      + "<style>p > a { color: red }</style></head>"
+      + "<body class=\"login\" data-page-id=\"login.html\">"
+      + "<div title=\"a > b\">a < b &amp; c</div>"
+      + "<!-- <div data-editor-id=\"2\"> -->"
+      + "<input data-editor-x=unquoted value='it\"s'>"
+      + "<body></body></body></html>";
+
+  @Test
+  void rewritesTagsAndPassesTextThrough() throws IOException {
+    assertEquals(REWRITTEN, processWhole(PAGE, false));
+  }
+
+  @Test
+  void stripsScripts() throws IOException {
+    assertEquals(REWRITTEN.replace(SCRIPT, ""), processWhole(PAGE, true));
+  }
+
+  @Test
+  void resultDoesNotDependOnHowTheTextIsWritten() throws IOException {
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      large.append(PAGE.replace("<html>", "").replace("</html>", ""));
+    }
+    String html = "<html>" + large + "</html>";
+    String expected = processWhole(html, false);
+    char[] chars = html.toCharArray();
+
+    for (int step : new int[] {1, 3, 7, 1023, 1024, 1025, 5000}) {
+      StringWriter target = new StringWriter();
+      HtmlPostProcessor processor = new HtmlPostProcessor(target, "login.html", false);
+      for (int start = 0; start < html.length(); start += step) {
+        int end = Math.min(html.length(), start + step);
+        if ((start / step) % 3 == 0) {
+          processor.write(html, start, end - start);
+        } else if ((start / step) % 3 == 1) {
+          processor.write(chars, start, end - start);
+        } else {
+          for (int i = start; i < end; i++) {
+            processor.write(html.charAt(i));
+          }
+        }
+      }
+      processor.close();
+      assertEquals(expected, target.toString(), "step " + step);
+    }
+  }
+
+  @Test
+  void writesOnlyTheRequestedRangeOfAString() throws IOException {
+    StringWriter target = new StringWriter();
+    HtmlPostProcessor processor = new HtmlPostProcessor(target, null, false);
+    processor.write("xx<p data-editor-id=\"1\">hi</p>yy", 2, 28);
+    processor.close();
+    assertEquals("<p>hi</p>", target.toString());
+  }
+
+  private static String processWhole(String html, boolean stripScripts) throws IOException {
+    StringWriter target = new StringWriter();
+    HtmlPostProcessor processor = new HtmlPostProcessor(target, "login.html", stripScripts);
+    processor.write(html);
+    processor.close();
+    return target.toString();
+  }
+}
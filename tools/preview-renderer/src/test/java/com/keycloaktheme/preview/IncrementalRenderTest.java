@@ -0,0 +1,81 @@
+package com.keycloaktheme.preview;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IncrementalRenderTest {
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @TempDir
+  Path root;
+
+  @Test
+  void oneShotChangedRunRendersOnlyTheDependentPages() throws Exception {
+    Path login = write("input/base/login/login.ftl", "<#import \"template.ftl\" as layout><@layout.page>login one<#if note??> ${note}</#if></@layout.page>");
+    write("input/base/login/register.ftl", "<#import \"template.ftl\" as layout><@layout.page>register</@layout.page>");
+    write("input/base/login/info.ftl", "<html><body>info</body></html>");
+    write("input/base/login/template.ftl", "<#macro page><html><body><#nested></body></html></#macro>");
+    write("input/base/login/theme.properties", "");
+    write("input/base/messages/messages_en.properties", "");
+    write("mocks.json", "{\"pages\":{\"login.ftl\":{},\"login.ftl@error\":{\"note\":\"x\"}}}");
+    Map<String, String> environment = Collections.singletonMap("XDG_CACHE_HOME", root.resolve("cache").toString());
+
+    String first = render(environment, "--incremental");
+    assertTrue(first.contains("Incremental render: reused 0 of 12 page(s)"), first);
+    assertTrue(first.contains("Render cache: 0 of 12 page(s) served from " + root.resolve("cache")), first);
+
+    Files.write(login, "<#import \"template.ftl\" as layout><@layout.page>login two<#if note??> ${note}</#if></@layout.page>".getBytes(StandardCharsets.UTF_8));
+    String second = render(environment, "--changed=" + login);
+    // Each of the four built-in variants renders login.html again; register.html and info.html come from the cache.
+    assertTrue(second.contains("Render cache: 8 of 12 page(s) served"), second);
+
+    JsonNode variants = objectMapper.readTree(root.resolve("output/pages.json").toFile()).get("variants");
+    assertEquals(4, variants.size());
+    for (JsonNode variant : variants) {
+      assertTrue(variant.get("login.html").get("default").asText().contains("login two"));
+      assertTrue(variant.get("login.html").get("error").asText().contains("login two"));
+      assertTrue(variant.get("register.html").get("default").asText().contains("register"));
+    }
+
+    String third = render(environment, "--changed=" + root.resolve("input/base/login/info.ftl"));
+    assertTrue(third.contains("Render cache: 12 of 12 page(s) served"), third);
+  }
+
+  private String render(Map<String, String> environment, String mode) throws Exception {
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+    PrintStream originalErr = System.err;
+    System.setErr(new PrintStream(log, true, "UTF-8"));
+    try {
+      PreviewRendererMain.run(RendererArguments.from(new String[] {
+          "--input=" + root.resolve("input"),
+          "--overrides=" + root.resolve("overrides"),
+          "--presets=" + root.resolve("presets"),
+          "--context-mocks=" + root.resolve("mocks.json"),
+          "--output=" + root.resolve("output"),
+          mode
+      }, environment));
+    } finally {
+      System.setErr(originalErr);
+    }
+    return new String(log.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private Path write(String relativePath, String content) throws IOException {
+    Path file = root.resolve(relativePath);
+    Files.createDirectories(file.getParent());
+    return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,74 @@
+package com.keycloaktheme.preview;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// The jdk21 profile compiles src/main/java21 into META-INF/versions/21. Tests load classes from a directory,
+// where that overlay is ignored, so the multi-release check packs the compiled classes into a jar the way the
+// jar plugin does and loads IoExecutors from it. Runs only on Java 21 or later (CI builds the renderer on 21).
+class IoExecutorsTest {
+  private static final String CLASS_FILE = "com/keycloaktheme/preview/IoExecutors.class";
+  private static final String OVERLAY_CLASS_FILE = "META-INF/versions/21/" + CLASS_FILE;
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void baseVersionLeavesReadsToTheCaller() {
+    assertNull(IoExecutors.newIoExecutor());
+  }
+
+  @Test
+  void multiReleaseJarRunsReadsOnVirtualThreadsOnJava21() throws Exception {
+    assumeTrue(javaFeatureVersion() >= 21, "needs a Java 21 runtime");
+    Path classes = Paths.get(IoExecutors.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+    Path overlay = classes.resolve(OVERLAY_CLASS_FILE);
+    assertTrue(Files.isRegularFile(overlay), "the jdk21 profile did not compile " + OVERLAY_CLASS_FILE);
+
+    Path jar = tempDir.resolve("preview-renderer.jar");
+    Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    manifest.getMainAttributes().putValue("Multi-Release", "true");
+    try (OutputStream file = Files.newOutputStream(jar); JarOutputStream output = new JarOutputStream(file, manifest)) {
+      for (String entry : new String[] {CLASS_FILE, OVERLAY_CLASS_FILE}) {
+        output.putNextEntry(new JarEntry(entry));
+        Files.copy(classes.resolve(entry), output);
+        output.closeEntry();
+      }
+    }
+
+    try (URLClassLoader loader = new URLClassLoader(new URL[] {jar.toUri().toURL()}, null)) {
+      Class<?> type = loader.loadClass("com.keycloaktheme.preview.IoExecutors");
+      ExecutorService executor = (ExecutorService) type.getMethod("newIoExecutor").invoke(null);
+      assertNotNull(executor, "the multi-release jar did not pick the Java 21 IoExecutors");
+      try {
+        Object virtual = executor.submit(() -> Thread.class.getMethod("isVirtual").invoke(Thread.currentThread())).get();
+        assertEquals(Boolean.TRUE, virtual);
+      } finally {
+        executor.shutdown();
+      }
+    }
+  }
+
+  private static int javaFeatureVersion() {
+    String version = System.getProperty("java.specification.version");
+    return Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version);
+  }
+}
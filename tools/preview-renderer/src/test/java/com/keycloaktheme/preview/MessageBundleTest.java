@@ -0,0 +1,65 @@
+package com.keycloaktheme.preview;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class MessageBundleTest {
+  @Test
+  void layersIterateLikeSuccessivePutAll() {
+    StringPool pool = new StringPool();
+    Map<String, String> base = entries("a", "1", "b", "2", "c", "3");
+    Map<String, String> layer = entries("b", "two", "d", "4");
+
+    MessageBundle bundle = MessageBundle.of(base, pool).overlay(MessageBundle.of(layer, pool));
+
+    Map<String, String> expected = new LinkedHashMap<String, String>(base);
+    expected.putAll(layer);
+    assertEquals(new ArrayList<Map.Entry<String, String>>(expected.entrySet()),
+        new ArrayList<Map.Entry<String, String>>(bundle.entrySet()));
+    assertEquals(4, bundle.size());
+    assertEquals("two", bundle.get("b"));
+    assertNull(bundle.get("missing"));
+  }
+
+  @Test
+  void repeatedTextIsSharedThroughThePool() {
+    StringPool pool = new StringPool();
+    MessageBundle first = MessageBundle.of(entries("loginTitle", new String("Sign in")), pool);
+    MessageBundle second = MessageBundle.of(entries(new String("loginTitle"), new String("Sign in")), pool);
+
+    assertSame(first.keySet().iterator().next(), second.keySet().iterator().next());
+    assertSame(first.get("loginTitle"), second.get("loginTitle"));
+  }
+
+  @Test
+  void poolReleasesTextNoBundleUsesAnymore() throws InterruptedException {
+    StringPool pool = new StringPool();
+    MessageBundle kept = MessageBundle.of(entries("kept", "value"), pool);
+    for (int edit = 0; edit < 1000; edit++) {
+      MessageBundle.of(entries("key" + edit, "edited value " + edit), pool);
+    }
+
+    // Superseded bundles are garbage; only the strings kept alive by `kept` may remain.
+    for (int attempt = 0; attempt < 50 && pool.size() > 2; attempt++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertTrue(pool.size() <= 2, "pool still holds " + pool.size() + " strings");
+    assertEquals("value", kept.get("kept"));
+  }
+
+  private static Map<String, String> entries(String... keysAndValues) {
+    Map<String, String> entries = new LinkedHashMap<String, String>();
+    for (int index = 0; index < keysAndValues.length; index += 2) {
+      entries.put(keysAndValues[index], keysAndValues[index + 1]);
+    }
+    return entries;
+  }
+}
@@ -0,0 +1,119 @@
+package com.keycloaktheme.preview;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PrecompressedOutputTest {
+  @TempDir
+  Path root;
+
+  @Test
+  void publishesTheArtifactWithItsGzipCopyAndHash() throws IOException {
+    byte[] content = "{\"variants\":{\"base\":{}}}".getBytes(StandardCharsets.UTF_8);
+    Path output = root.resolve("pages.json");
+    Files.write(output, "old".getBytes(StandardCharsets.UTF_8));
+    PrecompressedOutput compressed = new PrecompressedOutput(root.resolve("pages.json.tmp"));
+    compressed.write(content[0]);
+    compressed.write(content, 1, content.length - 1);
+    compressed.close();
+
+    compressed.publish(output);
+
+    assertArrayEquals(content, Files.readAllBytes(output));
+    assertArrayEquals(content, gunzip(root.resolve("pages.json.gz")));
+    String hash = new String(Files.readAllBytes(root.resolve("pages.json.sha256")), StandardCharsets.UTF_8);
+    assertEquals(RenderIndex.sha256(content), hash);
+    assertEquals(hash, compressed.getHash());
+    assertEquals(Arrays.asList("pages.json", "pages.json.gz", "pages.json.sha256"), listNames());
+  }
+
+  @Test
+  void discardLeavesThePublishedFilesAlone() throws IOException {
+    Path output = root.resolve("pages.json");
+    Files.write(output, "old".getBytes(StandardCharsets.UTF_8));
+    PrecompressedOutput compressed = new PrecompressedOutput(root.resolve("pages.json.tmp"));
+    compressed.write("new".getBytes(StandardCharsets.UTF_8));
+
+    compressed.discard();
+
+    assertEquals("old", new String(Files.readAllBytes(output), StandardCharsets.UTF_8));
+    assertEquals(Collections.singletonList("pages.json"), listNames());
+  }
+
+  @Test
+  void uncompressedRunRemovesSidecarsOfACompressedOne() throws IOException {
+    Path output = root.resolve("pages.json");
+    writePages(output, true);
+    assertTrue(Files.exists(root.resolve("pages.json.gz")));
+    assertTrue(Files.exists(root.resolve("pages.json.sha256")));
+    String compact = new String(Files.readAllBytes(output), StandardCharsets.UTF_8);
+    assertFalse(compact.contains("\n"), compact);
+    assertArrayEquals(Files.readAllBytes(output), gunzip(root.resolve("pages.json.gz")));
+
+    writePages(output, false);
+
+    assertFalse(Files.exists(root.resolve("pages.json.gz")));
+    assertFalse(Files.exists(root.resolve("pages.json.sha256")));
+    assertTrue(new String(Files.readAllBytes(output), StandardCharsets.UTF_8).contains("\n"));
+  }
+
+  @Test
+  void unfinishedCompressedWriteKeepsThePreviousOutput() throws IOException {
+    Path output = root.resolve("pages.json");
+    writePages(output, true);
+    byte[] previous = Files.readAllBytes(output);
+
+    try (PagesJsonWriter writer = new PagesJsonWriter(new ObjectMapper(), output, "26.x", false, true)) {
+      writer.writePage("base", "login.html", Collections.singletonMap("default", "<html>changed</html>"));
+    }
+
+    assertArrayEquals(previous, Files.readAllBytes(output));
+    assertArrayEquals(previous, gunzip(root.resolve("pages.json.gz")));
+    assertEquals(Arrays.asList("pages.json", "pages.json.gz", "pages.json.sha256"), listNames());
+  }
+
+  private static void writePages(Path output, boolean compress) throws IOException {
+    try (PagesJsonWriter writer = new PagesJsonWriter(new ObjectMapper(), output, "26.x", false, compress)) {
+      writer.writePage("base", "login.html", Collections.singletonMap("default", "<html>login</html>"));
+      writer.finish();
+    }
+  }
+
+  private static byte[] gunzip(Path file) throws IOException {
+    try (InputStream input = new GZIPInputStream(Files.newInputStream(file))) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = input.read(buffer)) > 0) {
+        bytes.write(buffer, 0, read);
+      }
+      return bytes.toByteArray();
+    }
+  }
+
+  private List<String> listNames() throws IOException {
+    List<String> names = new ArrayList<String>();
+    try (Stream<Path> files = Files.list(root)) {
+      files.map(file -> file.getFileName().toString()).sorted().forEach(names::add);
+    }
+    return names;
+  }
+}
@@ -0,0 +1,109 @@
+package com.keycloaktheme.preview;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RenderCacheTest {
+  private static final String HTML = new String(new char[1000]).replace('\0', 'x');
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @TempDir
+  Path root;
+
+  @Test
+  void servesAnEntryUntilAProbedFileChanges() throws IOException {
+    RenderCache cache = new RenderCache(objectMapper, root.resolve("cache"));
+    Path template = Files.write(root.resolve("login.ftl"), "<p>one</p>".getBytes(StandardCharsets.UTF_8));
+    String missing = root.resolve("user/login.ftl").toString();
+    String key = cache.key("v2", "login.ftl");
+
+    cache.store(key, Arrays.asList(template.toString(), missing), states("<p>one</p>"), Collections.<String>emptyList());
+
+    RenderCache.Entry entry = cache.lookup(key);
+    assertNotNull(entry);
+    assertEquals("<p>one</p>", entry.getStates().get("default"));
+    assertNotEquals(key, cache.key("v2", "register.ftl"));
+
+    Files.write(template, "<p>two, longer</p>".getBytes(StandardCharsets.UTF_8));
+    assertNull(new RenderCache(objectMapper, root.resolve("cache")).lookup(key));
+
+    Files.write(template, "<p>one</p>".getBytes(StandardCharsets.UTF_8));
+    Files.createDirectories(root.resolve("user"));
+    Files.write(root.resolve("user/login.ftl"), "<p>override</p>".getBytes(StandardCharsets.UTF_8));
+    assertNull(new RenderCache(objectMapper, root.resolve("cache")).lookup(key));
+  }
+
+  @Test
+  void prunesTheLeastRecentlyUsedEntriesOverTheLimit() throws IOException {
+    Path cacheRoot = root.resolve("cache");
+    RenderCache writer = new RenderCache(objectMapper, cacheRoot);
+    List<String> keys = Arrays.asList(
+        writer.key("oldest"), writer.key("old"), writer.key("recent"), writer.key("newest")
+    );
+    long now = System.currentTimeMillis();
+    for (int index = 0; index < keys.size(); index++) {
+      writer.store(keys.get(index), Collections.<String>emptyList(), states(HTML), Collections.<String>emptyList());
+      setModified(cacheRoot, keys.get(index), now - (keys.size() - index) * 60_000L);
+    }
+    long entrySize = Files.size(entryPath(cacheRoot, keys.get(0)));
+    Files.write(cacheRoot.resolve("theme-discovery.json"), new byte[(int) entrySize * 4]);
+
+    RenderCache cache = new RenderCache(objectMapper, cacheRoot, entrySize * 2 + entrySize / 2);
+    // A hit makes the oldest entry the most recently used one.
+    assertNotNull(cache.lookup(keys.get(0)));
+
+    assertEquals(2, cache.prune());
+    assertTrue(Files.exists(entryPath(cacheRoot, keys.get(0))));
+    assertFalse(Files.exists(entryPath(cacheRoot, keys.get(1))));
+    assertFalse(Files.exists(entryPath(cacheRoot, keys.get(2))));
+    assertTrue(Files.exists(entryPath(cacheRoot, keys.get(3))));
+    assertTrue(Files.exists(cacheRoot.resolve("theme-discovery.json")));
+    assertEquals(0, cache.prune());
+  }
+
+  @Test
+  void removesTempFilesLeftByInterruptedStores() throws IOException {
+    Path cacheRoot = root.resolve("cache");
+    RenderCache cache = new RenderCache(objectMapper, cacheRoot);
+    String key = cache.key("page");
+    cache.store(key, Collections.<String>emptyList(), states(HTML), Collections.<String>emptyList());
+    Path stale = Files.write(entryPath(cacheRoot, key).resolveSibling(key + "1.tmp"), new byte[10]);
+    Path fresh = Files.write(entryPath(cacheRoot, key).resolveSibling(key + "2.tmp"), new byte[10]);
+    Files.setLastModifiedTime(stale, FileTime.fromMillis(System.currentTimeMillis() - 2 * 60 * 60 * 1000L));
+
+    assertEquals(0, cache.prune());
+    assertFalse(Files.exists(stale));
+    assertTrue(Files.exists(fresh));
+    assertNotNull(cache.lookup(key));
+  }
+
+  private static Map<String, String> states(String html) {
+    return Collections.singletonMap("default", html);
+  }
+
+  private static Path entryPath(Path cacheRoot, String key) {
+    return cacheRoot.resolve(key.substring(0, 2)).resolve(key + ".json");
+  }
+
+  private static void setModified(Path cacheRoot, String key, long millis) throws IOException {
+    Files.setLastModifiedTime(entryPath(cacheRoot, key), FileTime.fromMillis(millis));
+  }
+}
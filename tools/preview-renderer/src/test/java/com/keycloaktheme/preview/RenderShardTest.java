@@ -0,0 +1,158 @@
+package com.keycloaktheme.preview;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RenderShardTest {
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @TempDir
+  Path root;
+
+  @Test
+  void parsesIndexAndCount() {
+    assertEquals("2/3", RenderShard.parse(" 2 / 3 ").toString());
+    for (String value : Arrays.asList("0/3", "4/3", "1/0", "3", "a/b", "1/2/3")) {
+      IllegalArgumentException error = assertThrows(IllegalArgumentException.class, () -> RenderShard.parse(value));
+      assertTrue(error.getMessage().startsWith("Invalid --shard value: " + value), error.getMessage());
+    }
+  }
+
+  @Test
+  void everyPageBelongsToExactlyOneShard() {
+    List<RenderShard> shards = Arrays.asList(RenderShard.parse("1/3"), RenderShard.parse("2/3"), RenderShard.parse("3/3"));
+    int[] owned = new int[shards.size()];
+    for (String variant : Arrays.asList("base", "v2", "modern-card", "horizontal-card")) {
+      for (int page = 0; page < 25; page++) {
+        int owners = 0;
+        for (int i = 0; i < shards.size(); i++) {
+          if (shards.get(i).owns(variant, "page-" + page + ".ftl")) {
+            owners++;
+            owned[i]++;
+          }
+        }
+        assertEquals(1, owners);
+      }
+    }
+    for (int count : owned) {
+      assertTrue(count > 0);
+    }
+  }
+
+  @Test
+  void mergedShardsMatchASingleRender() throws Exception {
+    writeTheme();
+    render("--output=" + root.resolve("single"));
+    render("--output=" + root.resolve("shard-2"), "--shard=2/2");
+    render("--output=" + root.resolve("shard-1"), "--shard=1/2");
+
+    JsonNode first = readPages(root.resolve("shard-1"));
+    JsonNode second = readPages(root.resolve("shard-2"));
+    assertTrue(first.get("variants").size() > 0);
+    assertTrue(second.get("variants").size() > 0);
+    assertFalse(first.equals(second));
+
+    render(
+        "--output=" + root.resolve("merged"),
+        "--merge=" + root.resolve("shard-1") + File.pathSeparator + root.resolve("shard-2")
+    );
+
+    JsonNode single = readPages(root.resolve("single")).get("variants");
+    JsonNode merged = readPages(root.resolve("merged")).get("variants");
+    assertEquals(single, merged);
+    assertEquals(fieldNames(single), fieldNames(merged));
+    assertEquals(fieldNames(single.get("base")), fieldNames(merged.get("base")));
+  }
+
+  @Test
+  void mergeRejectsAnIncompleteSetOfShards() throws Exception {
+    writeTheme();
+    render("--output=" + root.resolve("shard-1"), "--shard=1/2");
+
+    IllegalStateException missing = assertThrows(IllegalStateException.class, () -> render(
+        "--output=" + root.resolve("merged"),
+        "--merge=" + root.resolve("shard-1")
+    ));
+    assertEquals("Expected all 2 shard(s), got 1", missing.getMessage());
+
+    IllegalStateException twice = assertThrows(IllegalStateException.class, () -> render(
+        "--output=" + root.resolve("merged"),
+        "--merge=" + root.resolve("shard-1") + File.pathSeparator + root.resolve("shard-1")
+    ));
+    assertTrue(twice.getMessage().startsWith("Shard 1/2 given twice"), twice.getMessage());
+  }
+
+  @Test
+  void shardCannotBeCombinedWithOutputOptions() {
+    IllegalArgumentException error = assertThrows(IllegalArgumentException.class, () -> RendererArguments.from(
+        new String[] {"--context-mocks=mocks.json", "--shard=1/2", "--dedup"},
+        Collections.<String, String>emptyMap()
+    ));
+    assertTrue(error.getMessage().startsWith("--shard writes a plain pages.json"), error.getMessage());
+  }
+
+  private void writeTheme() throws IOException {
+    write("input/base/login/login.ftl", "<#import \"template.ftl\" as layout><@layout.page>login<#if note??> ${note}</#if></@layout.page>");
+    write("input/base/login/register.ftl", "<#import \"template.ftl\" as layout><@layout.page>register</@layout.page>");
+    write("input/base/login/info.ftl", "<html><body>info</body></html>");
+    write("input/base/login/error.ftl", "<html><body>error</body></html>");
+    write("input/base/login/template.ftl", "<#macro page><html><body><#nested></body></html></#macro>");
+    write("input/base/login/theme.properties", "");
+    write("input/base/messages/messages_en.properties", "");
+    write("mocks.json", "{\"pages\":{\"login.ftl\":{},\"login.ftl@error\":{\"note\":\"x\"}}}");
+  }
+
+  private void render(String... extra) throws Exception {
+    List<String> args = new ArrayList<String>(Arrays.asList(
+        "--input=" + root.resolve("input"),
+        "--overrides=" + root.resolve("overrides"),
+        "--presets=" + root.resolve("presets"),
+        "--context-mocks=" + root.resolve("mocks.json")
+    ));
+    args.addAll(Arrays.asList(extra));
+    PrintStream originalOut = System.out;
+    PrintStream originalErr = System.err;
+    System.setOut(new PrintStream(new ByteArrayOutputStream(), true, "UTF-8"));
+    System.setErr(new PrintStream(new ByteArrayOutputStream(), true, "UTF-8"));
+    try {
+      PreviewRendererMain.run(RendererArguments.from(args.toArray(new String[0]), Collections.<String, String>emptyMap()));
+    } finally {
+      System.setOut(originalOut);
+      System.setErr(originalErr);
+    }
+  }
+
+  private JsonNode readPages(Path outputRoot) throws IOException {
+    return objectMapper.readTree(outputRoot.resolve("pages.json").toFile());
+  }
+
+  private static List<String> fieldNames(JsonNode node) {
+    List<String> names = new ArrayList<String>();
+    node.fieldNames().forEachRemaining(names::add);
+    return names;
+  }
+
+  private void write(String relativePath, String content) throws IOException {
+    Path file = root.resolve(relativePath);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,220 @@
+package com.keycloaktheme.preview;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RendererServerTest {
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @TempDir
+  Path root;
+
+  private Path login;
+
+  @BeforeEach
+  void writeTheme() throws IOException {
+    login = write("input/base/login/login.ftl", "<#import \"template.ftl\" as layout><@layout.page>login one<#if note??> ${note}</#if></@layout.page>");
+    write("input/base/login/register.ftl", "<#import \"template.ftl\" as layout><@layout.page>register</@layout.page>");
+    write("input/base/login/template.ftl", "<#macro page><html><body><#nested></body></html></#macro>");
+    write("input/base/login/theme.properties", "");
+    write("input/base/messages/messages_en.properties", "");
+    write("mocks.json", "{\"pages\":{\"login.ftl\":{},\"login.ftl@error\":{\"note\":\"bad password\"}}}");
+  }
+
+  @Test
+  void indexListsPagesAndStatesWithoutRendering() throws Exception {
+    List<JsonNode> responses = serve(
+        "{\"id\":1,\"command\":\"ping\"}",
+        "{\"id\":2,\"command\":\"index\"}"
+    );
+
+    assertTrue(responses.get(0).get("ready").asBoolean());
+    assertTrue(responses.get(1).get("ok").asBoolean());
+    assertEquals(1, responses.get(1).get("id").asInt());
+    JsonNode index = responses.get(2);
+    assertTrue(index.get("ok").asBoolean(), index.toString());
+    assertEquals("en", index.get("locales").get(0).asText());
+    JsonNode base = index.get("variants").get("base");
+    assertEquals(Arrays.asList("default", "error"), texts(base.get("login.html")));
+    assertEquals(Collections.singletonList("default"), texts(base.get("register.html")));
+    assertFalse(base.has("template.html"));
+    assertFalse(Files.exists(root.resolve("output/pages.json")));
+  }
+
+  @Test
+  void pageRendersTheRequestedState() throws Exception {
+    List<JsonNode> responses = serve(
+        "{\"id\":1,\"command\":\"page\",\"variant\":\"base\",\"page\":\"login.html\"}",
+        "{\"id\":2,\"command\":\"page\",\"variant\":\"modern-card\",\"page\":\"login.html\",\"state\":\"error\"}",
+        "{\"id\":3,\"command\":\"page\",\"variant\":\"base\",\"page\":\"register.ftl\"}"
+    );
+
+    assertTrue(responses.get(1).get("html").asText().contains("login one"), responses.get(1).toString());
+    assertFalse(responses.get(1).get("html").asText().contains("bad password"));
+    assertTrue(responses.get(2).get("html").asText().contains("login one bad password"), responses.get(2).toString());
+    assertTrue(responses.get(3).get("html").asText().contains("register"), responses.get(3).toString());
+  }
+
+  @Test
+  void pageIsRenderedAgainAfterATemplateChanges() throws Exception {
+    String request = "{\"id\":1,\"command\":\"page\",\"variant\":\"base\",\"page\":\"login.html\"}";
+    String changed = "{\"id\":2,\"command\":\"page\",\"variant\":\"base\",\"page\":\"login.html\",\"changed\":[\"" + json(login) + "\"]}";
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    PipedLines input = new PipedLines(request, (Step) () -> write(login, "<#import \"template.ftl\" as layout><@layout.page>login two</@layout.page>"), changed, request);
+
+    serve(input, output);
+
+    List<JsonNode> responses = readResponses(output);
+    assertTrue(responses.get(1).get("html").asText().contains("login one"));
+    assertTrue(responses.get(2).get("html").asText().contains("login two"), responses.get(2).toString());
+    assertEquals(responses.get(2).get("html"), responses.get(3).get("html"));
+  }
+
+  @Test
+  void failedRequestsReportAnErrorAndKeepServing() throws Exception {
+    List<JsonNode> responses = serve(
+        "{\"id\":1,\"command\":\"reload\"}",
+        "{\"id\":2,\"command\":\"page\",\"variant\":\"base\",\"page\":\"login.html\",\"state\":\"expired\"}",
+        "{\"id\":3,\"command\":\"page\",\"variant\":\"missing\",\"page\":\"login.html\"}",
+        "{\"id\":4,\"command\":\"page\",\"variant\":\"base\"}",
+        "{\"id\":5,\"command\":\"shutdown\"}",
+        "{\"id\":6,\"command\":\"ping\"}"
+    );
+
+    assertEquals("Unknown command: reload", responses.get(1).get("error").asText());
+    assertEquals("Unknown state expired for page login.html", responses.get(2).get("error").asText());
+    assertEquals("Unknown variant: missing", responses.get(3).get("error").asText());
+    assertEquals("Missing page for page request", responses.get(4).get("error").asText());
+    for (JsonNode response : responses.subList(1, 5)) {
+      assertFalse(response.get("ok").asBoolean());
+    }
+    assertTrue(responses.get(5).get("ok").asBoolean());
+    assertEquals(6, responses.size());
+  }
+
+  private List<JsonNode> serve(String... requests) throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    serve(new ByteArrayInputStream((String.join("\n", requests) + "\n").getBytes(StandardCharsets.UTF_8)), output);
+    return readResponses(output);
+  }
+
+  private void serve(InputStream input, ByteArrayOutputStream output) throws Exception {
+    InputStream originalIn = System.in;
+    PrintStream originalOut = System.out;
+    PrintStream originalErr = System.err;
+    System.setIn(input);
+    System.setOut(new PrintStream(output, true, "UTF-8"));
+    System.setErr(new PrintStream(new ByteArrayOutputStream(), true, "UTF-8"));
+    try {
+      PreviewRendererMain.run(RendererArguments.from(new String[] {
+          "--serve",
+          "--input=" + root.resolve("input"),
+          "--overrides=" + root.resolve("overrides"),
+          "--presets=" + root.resolve("presets"),
+          "--context-mocks=" + root.resolve("mocks.json"),
+          "--output=" + root.resolve("output")
+      }, Collections.<String, String>emptyMap()));
+    } finally {
+      System.setIn(originalIn);
+      System.setOut(originalOut);
+      System.setErr(originalErr);
+    }
+  }
+
+  private List<JsonNode> readResponses(ByteArrayOutputStream output) throws IOException {
+    List<JsonNode> responses = new ArrayList<JsonNode>();
+    for (String line : new String(output.toByteArray(), StandardCharsets.UTF_8).split("\\R")) {
+      if (!line.isEmpty()) {
+        responses.add(objectMapper.readTree(line));
+      }
+    }
+    return responses;
+  }
+
+  private static List<String> texts(JsonNode array) {
+    List<String> values = new ArrayList<String>();
+    for (JsonNode value : array) {
+      values.add(value.asText());
+    }
+    return values;
+  }
+
+  private static String json(Path path) {
+    return path.toString().replace("\\", "\\\\");
+  }
+
+  private Path write(String relativePath, String content) throws IOException {
+    return write(root.resolve(relativePath), content);
+  }
+
+  private static Path write(Path file, String content) throws IOException {
+    Files.createDirectories(file.getParent());
+    return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private interface Step {
+    void run() throws IOException;
+  }
+
+  // Feeds the request lines one at a time and runs each Step once the server has asked for the next line,
+  // i.e. after it has answered every request before it.
+  private static final class PipedLines extends InputStream {
+    private final List<Object> items;
+    private byte[] current = new byte[0];
+    private int position;
+    private int next;
+
+    private PipedLines(Object... items) {
+      this.items = Arrays.asList(items);
+    }
+
+    @Override
+    public int read() throws IOException {
+      while (position == current.length) {
+        if (next == items.size()) {
+          return -1;
+        }
+        Object item = items.get(next++);
+        if (item instanceof Step) {
+          ((Step) item).run();
+        } else {
+          current = (item + "\n").getBytes(StandardCharsets.UTF_8);
+          position = 0;
+        }
+      }
+      return current[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      int value = read();
+      if (value < 0) {
+        return -1;
+      }
+      buffer[offset] = (byte) value;
+      return 1;
+    }
+  }
+}